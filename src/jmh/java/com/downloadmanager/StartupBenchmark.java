@@ -0,0 +1,152 @@
+package com.downloadmanager;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Time to first byte of a one-off run: the application is launched as a new
+ * process for a single URL served by an in-process server, and timed until it
+ * logs its first received byte. This is not a JMH benchmark, since JMH measures
+ * code inside one JVM; it runs with {@code ./gradlew startupBenchmark}.
+ *
+ * <p>Launches are interleaved across the variants so that disk cache and CPU
+ * frequency effects hit all of them alike. The first launch of each variant is
+ * a warm-up and not counted.
+ *
+ * <p>Arguments: the boot jar, the directory of the plain jar and CDS archive
+ * built by {@code cdsArchive}, and the number of launches per variant.
+ */
+public class StartupBenchmark {
+
+    private static final int FILE_SIZE = 64 * 1024;
+    private static final long TIMEOUT_SECONDS = 60;
+    private static final Pattern FIRST_BYTE = Pattern.compile("First byte received (\\d+) ms after JVM start");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: StartupBenchmark <boot jar> <cli dir> <runs>");
+            System.exit(2);
+        }
+        File bootJar = new File(args[0]);
+        File cliJar = new File(args[1], "download-manager.jar");
+        File archive = new File(args[1], "download-manager.jsa");
+        int runs = Integer.parseInt(args[2]);
+
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("boot jar", List.of("-jar", bootJar.getPath()));
+        variants.put("boot jar, cli profile", List.of("-jar", bootJar.getPath(), "--spring.profiles.active=cli"));
+        variants.put("cli profile, AOT", List.of("-Dspring.aot.enabled=true",
+                "-jar", cliJar.getPath(), "--spring.profiles.active=cli"));
+        if (archive.isFile()) {
+            variants.put("cli profile, AOT, CDS", List.of("-XX:SharedArchiveFile=" + archive.getPath(),
+                    "-Dspring.aot.enabled=true", "-jar", cliJar.getPath(), "--spring.profiles.active=cli"));
+        }
+
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("HEAD".equals(request.getMethod())) {
+                    return new MockResponse().setHeader("Content-Length", FILE_SIZE);
+                }
+                return new MockResponse().setBody(new Buffer().write(new byte[FILE_SIZE]));
+            }
+        });
+        server.start();
+        Path workDir = Files.createTempDirectory("startup-benchmark");
+        Map<String, List<long[]>> results = new LinkedHashMap<>();
+        try {
+            for (int run = 0; run <= runs; run++) {
+                for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+                    String url = server.url("/file-" + run + ".bin").toString();
+                    Path dir = workDir.resolve(variant.getKey().replaceAll("\\W+", "-"));
+                    long[] sample = launch(variant.getValue(), url, dir);
+                    if (run > 0) {
+                        results.computeIfAbsent(variant.getKey(), key -> new ArrayList<>()).add(sample);
+                    }
+                }
+            }
+        } finally {
+            server.shutdown();
+            deleteRecursively(workDir);
+        }
+
+        System.out.printf("%-24s %8s %8s %8s %12s%n", "variant", "min ms", "median", "mean", "JVM uptime");
+        for (Map.Entry<String, List<long[]>> result : results.entrySet()) {
+            long[] wall = result.getValue().stream().mapToLong(sample -> sample[0]).sorted().toArray();
+            long[] uptime = result.getValue().stream().mapToLong(sample -> sample[1]).sorted().toArray();
+            System.out.printf("%-24s %8d %8d %8.0f %12d%n", result.getKey(), wall[0], wall[wall.length / 2],
+                    Arrays.stream(wall).average().orElse(0), uptime[uptime.length / 2]);
+        }
+    }
+
+    /**
+     * Launches the application for one URL in a fresh directory and waits for
+     * its first byte.
+     *
+     * @return Milliseconds from launch to the first byte, and the JVM uptime the application logged
+     */
+    private static long[] launch(List<String> variant, String url, Path dir) throws IOException, InterruptedException {
+        deleteRecursively(dir);
+        Files.createDirectories(dir);
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(variant);
+        command.add("--download.directory=downloads");
+        command.add(url);
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(dir.toFile())
+                .redirectErrorStream(true)
+                .start();
+        try (BufferedReader output = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            long deadline = start + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            String line;
+            while ((line = output.readLine()) != null && System.nanoTime() < deadline) {
+                Matcher matcher = FIRST_BYTE.matcher(line);
+                if (matcher.find()) {
+                    long wall = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    return new long[] {wall, Long.parseLong(matcher.group(1))};
+                }
+            }
+            throw new IllegalStateException("No first byte within " + TIMEOUT_SECONDS + "s: " + command);
+        } finally {
+            // Only the time to first byte counts, the rest of the download is not waited for
+            process.destroyForcibly();
+            process.waitFor();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.downloadmanager.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the per-chunk progress update and of reading progress while
+ * segments are writing. The grouped benchmark runs four segment writers, each
+ * on its own stripe, against one reader taking snapshots.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProgressBenchmark {
+
+    private static final int CHUNK = 256 * 1024;
+
+    private DownloadTask task;
+
+    @State(Scope.Thread)
+    public static class Writer {
+
+        TransferProgress.Stripe stripe;
+
+        @Setup(Level.Trial)
+        public void setUp(ProgressBenchmark benchmark) {
+            stripe = benchmark.task.getTransfer().newStripe();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        task = new DownloadTask(1, "http://example.com/file.bin");
+        task.markStarted();
+        task.setFileSize(Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    @Group("single")
+    public void singleWriter(Writer writer) {
+        writer.stripe.add(CHUNK);
+    }
+
+    @Benchmark
+    @Group("segments")
+    @GroupThreads(4)
+    public void segmentWriter(Writer writer) {
+        writer.stripe.add(CHUNK);
+    }
+
+    @Benchmark
+    @Group("segments")
+    @GroupThreads(1)
+    public TransferProgress.Snapshot reader() {
+        return task.getTransfer().snapshot();
+    }
+
+    @Benchmark
+    @Group("format")
+    public String formattedSpeed() {
+        return task.getFormattedSpeed();
+    }
+}
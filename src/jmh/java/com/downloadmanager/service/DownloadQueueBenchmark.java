@@ -0,0 +1,106 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.cache.ContentStore;
+import com.downloadmanager.config.BandwidthProperties;
+import com.downloadmanager.config.ContentStoreProperties;
+import com.downloadmanager.config.DownloadProperties;
+import com.downloadmanager.config.HttpClientProperties;
+import com.downloadmanager.config.RetryProperties;
+import com.downloadmanager.io.BufferPool;
+import com.downloadmanager.io.StreamCopier;
+import com.downloadmanager.metrics.DownloadMetrics;
+import com.downloadmanager.model.DownloadTask;
+import com.downloadmanager.queue.InMemoryQueueStore;
+import com.downloadmanager.queue.SchedulingPolicy;
+import com.downloadmanager.ratelimit.BandwidthScheduler;
+import com.downloadmanager.retry.RetryExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate at which {@link DownloadQueueService} accepts and dispatches tasks when
+ * several threads enqueue at once. Downloads complete immediately, so the
+ * queue, scheduler and dispatcher are all that is measured. The queue is kept
+ * small, so producers are held back by the dispatch rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class DownloadQueueBenchmark {
+
+    @Param({"STRICT_PRIORITY", "FAIR_SHARE"})
+    public SchedulingPolicy policy;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public DownloadProperties.ExecutorType executor;
+
+    private ExecutorService downloadExecutor;
+    private ExecutorService segmentExecutor;
+    private DownloadQueueService queueService;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("queue-benchmark");
+        DownloadProperties properties = new DownloadProperties();
+        properties.setDirectory(directory.toString());
+        properties.setQueueCapacity(1024);
+        properties.setMaxConcurrent(16);
+        properties.setSchedulingPolicy(policy);
+        properties.setExecutor(executor);
+
+        OkHttpClient client = new OkHttpClient();
+        segmentExecutor = Executors.newSingleThreadExecutor();
+        ContentStoreProperties contentStoreProperties = new ContentStoreProperties();
+        contentStoreProperties.setEnabled(false);
+        DownloadMetrics metrics = new DownloadMetrics(new SimpleMeterRegistry());
+        DownloadService downloadService = new DownloadService(client, new HttpClientProperties(), properties,
+                segmentExecutor, new StreamCopier(new BufferPool(properties)),
+                metrics, new RetryExecutor(new RetryProperties(), metrics),
+                new BandwidthScheduler(new BandwidthProperties()), new ContentStore(contentStoreProperties)) {
+            @Override
+            public void downloadFile(DownloadTask task) {
+                task.markStarted();
+                task.markCompleted();
+            }
+        };
+        downloadExecutor = executor == DownloadProperties.ExecutorType.VIRTUAL
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(properties.getMaxConcurrent());
+        queueService = new DownloadQueueService(downloadService, client, properties, downloadExecutor,
+                new InMemoryQueueStore());
+    }
+
+    @Benchmark
+    public DownloadTask enqueue() throws InterruptedException {
+        // A handful of hosts, so fair share has groups to rotate through
+        long n = System.nanoTime();
+        return queueService.addToQueue("http://host" + (n & 7) + ".example/file-" + n + ".bin", (int) (n & 3));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        queueService.shutdown();
+        segmentExecutor.shutdownNow();
+        Files.deleteIfExists(directory);
+    }
+}
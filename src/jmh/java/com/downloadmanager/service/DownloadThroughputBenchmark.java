@@ -0,0 +1,121 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.cache.ContentStore;
+import com.downloadmanager.config.BandwidthProperties;
+import com.downloadmanager.config.ContentStoreProperties;
+import com.downloadmanager.config.DownloadProperties;
+import com.downloadmanager.config.HttpClientProperties;
+import com.downloadmanager.config.RetryProperties;
+import com.downloadmanager.io.BufferPool;
+import com.downloadmanager.io.StreamCopier;
+import com.downloadmanager.metrics.DownloadMetrics;
+import com.downloadmanager.model.DownloadTask;
+import com.downloadmanager.ratelimit.BandwidthScheduler;
+import com.downloadmanager.retry.RetryExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end throughput of {@link DownloadService#downloadFile} over a single
+ * connection to an in-process server, for several transfer buffer sizes. Each
+ * operation downloads {@value #FILE_SIZE} bytes, so MB/s is ops/s times 16.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DownloadThroughputBenchmark {
+
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    @Param({"65536", "262144", "1048576"})
+    public int bufferSize;
+
+    @Param({"true", "false"})
+    public boolean directBuffers;
+
+    private MockWebServer server;
+    private ExecutorService segmentExecutor;
+    private DownloadService downloadService;
+    private Path directory;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] body = new byte[FILE_SIZE];
+        new Random(42).nextBytes(body);
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("HEAD".equals(request.getMethod())) {
+                    return new MockResponse().setHeader("Content-Length", FILE_SIZE);
+                }
+                return new MockResponse().setBody(new Buffer().write(body));
+            }
+        });
+        server.start();
+        url = server.url("/file.bin").toString();
+
+        directory = Files.createTempDirectory("download-benchmark");
+        DownloadProperties properties = new DownloadProperties();
+        properties.setDirectory(directory.toString());
+        properties.getSegments().setEnabled(false);
+        properties.getIo().setBufferSize(bufferSize);
+        properties.getIo().setDirectBuffers(directBuffers);
+
+        segmentExecutor = Executors.newSingleThreadExecutor();
+        ContentStoreProperties contentStoreProperties = new ContentStoreProperties();
+        contentStoreProperties.setEnabled(false);
+        DownloadMetrics metrics = new DownloadMetrics(new SimpleMeterRegistry());
+        downloadService = new DownloadService(new OkHttpClient(), new HttpClientProperties(), properties,
+                segmentExecutor, new StreamCopier(new BufferPool(properties)),
+                metrics, new RetryExecutor(new RetryProperties(), metrics),
+                new BandwidthScheduler(new BandwidthProperties()), new ContentStore(contentStoreProperties));
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        DownloadTask task = new DownloadTask(1, url);
+        downloadService.downloadFile(task);
+        return task.getDownloadedBytes();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDownload() throws IOException {
+        Files.deleteIfExists(directory.resolve("file.bin"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.shutdown();
+        segmentExecutor.shutdownNow();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.config.DownloadProperties;
+import com.downloadmanager.config.FetchProperties;
+import com.downloadmanager.config.RetryProperties;
+import com.downloadmanager.metrics.DownloadMetrics;
+import com.downloadmanager.model.FetchDataCount;
+import com.downloadmanager.retry.RetryExecutor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to finish a sweep of {@code jobs} count jobs against a server that
+ * takes {@code latencyMillis} to answer each, on platform workers versus one
+ * virtual thread per job. With platform threads the sweep takes about
+ * {@code jobs / workers} round trips; with virtual threads all jobs wait on
+ * the server at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class FetchExecutorBenchmark {
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public DownloadProperties.ExecutorType executor;
+
+    @Param({"2000"})
+    public int jobs;
+
+    @Param({"200"})
+    public int latencyMillis;
+
+    @Param({"64"})
+    public int workers;
+
+    private MockWebServer server;
+    private FetchScheduler scheduler;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .setHeader("Link", "<" + request.getRequestUrl().newBuilder()
+                                .setQueryParameter("page", "42").build() + ">; rel=\"last\"")
+                        .setBody("[{}]")
+                        .setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+        url = server.url("/orgs/x/repos").toString();
+
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(jobs, 5, TimeUnit.MINUTES))
+                .build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        FetchProperties properties = new FetchProperties();
+        properties.setExecutor(executor);
+        properties.setWorkers(workers);
+        properties.setMaxInFlight(jobs);
+        DownloadMetrics metrics = new DownloadMetrics(new SimpleMeterRegistry());
+        RetryExecutor retryExecutor = new RetryExecutor(new RetryProperties(), metrics);
+        scheduler = new FetchScheduler(
+                new DataCountFetchService(client, objectMapper, retryExecutor),
+                new DataItemsFetchService(client, objectMapper, properties, retryExecutor),
+                properties,
+                metrics);
+    }
+
+    @Benchmark
+    public void sweep() throws IOException, InterruptedException {
+        try (FetchSweep sweep = scheduler.newSweep()) {
+            for (int i = 0; i < jobs; i++) {
+                FetchDataCount job = new FetchDataCount();
+                job.setOrg("org-" + (i % 50));
+                job.setUrl(url);
+                sweep.submit(job);
+            }
+            sweep.join();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        scheduler.shutdown();
+        server.shutdown();
+    }
+}
@@ -0,0 +1,34 @@
+package com.downloadmanager.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading the page count from a paginated API's {@code Link} header,
+ * as done by {@link DataCountFetchService} for every count job.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LinkHeaderBenchmark {
+
+    public String header = "<https://api.example.com/organizations/1234/repos?per_page=1&page=2>; rel=\"next\", "
+            + "<https://api.example.com/organizations/1234/repos?per_page=1&page=4821>; rel=\"last\"";
+
+    @Benchmark
+    public Map<String, String> parse() {
+        return LinkHeader.parse(header);
+    }
+
+    @Benchmark
+    public long lastPage() {
+        return LinkHeader.lastPage(header, DataCountFetchService.PAGE_PARAMETER);
+    }
+}
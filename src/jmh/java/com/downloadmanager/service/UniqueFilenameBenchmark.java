@@ -0,0 +1,92 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.cache.ContentStore;
+import com.downloadmanager.config.BandwidthProperties;
+import com.downloadmanager.config.ContentStoreProperties;
+import com.downloadmanager.config.DownloadProperties;
+import com.downloadmanager.config.HttpClientProperties;
+import com.downloadmanager.config.RetryProperties;
+import com.downloadmanager.io.BufferPool;
+import com.downloadmanager.io.StreamCopier;
+import com.downloadmanager.metrics.DownloadMetrics;
+import com.downloadmanager.ratelimit.BandwidthScheduler;
+import com.downloadmanager.retry.RetryExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of picking a free name when {@code collisions} files named
+ * {@code file.bin}, {@code file (1).bin}, ... already exist in the download directory.
+ * Without {@code hinted} the service forgets the numbers it saw taken before
+ * each call, as after a restart.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UniqueFilenameBenchmark {
+
+    @Param({"0", "10", "100", "1000"})
+    public int collisions;
+
+    @Param({"false", "true"})
+    public boolean hinted;
+
+    private ExecutorService segmentExecutor;
+    private DownloadService downloadService;
+    private Path directory;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("filename-benchmark");
+        target = directory.resolve("file.bin");
+        for (int i = 0; i < collisions; i++) {
+            Files.createFile(i == 0 ? target : directory.resolve("file (" + i + ").bin"));
+        }
+        DownloadProperties properties = new DownloadProperties();
+        properties.setDirectory(directory.toString());
+        segmentExecutor = Executors.newSingleThreadExecutor();
+        ContentStoreProperties contentStoreProperties = new ContentStoreProperties();
+        contentStoreProperties.setEnabled(false);
+        DownloadMetrics metrics = new DownloadMetrics(new SimpleMeterRegistry());
+        downloadService = new DownloadService(new OkHttpClient(), new HttpClientProperties(), properties,
+                segmentExecutor, new StreamCopier(new BufferPool(properties)),
+                metrics, new RetryExecutor(new RetryProperties(), metrics),
+                new BandwidthScheduler(new BandwidthProperties()), new ContentStore(contentStoreProperties));
+    }
+
+    @Benchmark
+    public Path ensureUniqueFilename() {
+        if (!hinted) {
+            downloadService.clearFilenameHints();
+        }
+        return downloadService.ensureUniqueFilename(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        segmentExecutor.shutdownNow();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.downloadmanager;
 
+import com.downloadmanager.control.ControlClient;
 import com.downloadmanager.service.DownloadQueueService;
+import com.downloadmanager.service.UrlIngestor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
@@ -8,9 +10,25 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Main application class for the Download Manager.
  * Accepts URLs as command line arguments and adds them to an async download queue.
+ * An argument of several URLs separated by {@code |} is one file with mirrors;
+ * a {@code digest=<spec>} element among them sets the expected digest.
+ * {@code --input=<file>} reads such entries from a list file, {@code -} for
+ * standard input or a glob of list files, queueing them as they are read.
+ * Without {@code --daemon} the application exits once every queued download
+ * has finished, with status 1 if any of them failed. With {@code --daemon} it
+ * keeps running and takes more work through its local control API; {@code ctl <command>} talks to such a daemon
+ * without starting Spring.
  */
 @SpringBootApplication
 @EnableAsync
@@ -18,41 +36,100 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 @Slf4j
 public class DownloadManagerApplication implements CommandLineRunner {
 
-    private final DownloadQueueService downloadQueueService;
+    private static final String INPUT_OPTION = "--input=";
+    private static final String DAEMON_OPTION = "--daemon";
+
+    private final UrlIngestor urlIngestor;
+    private final DownloadQueueService queueService;
     
-    public DownloadManagerApplication(DownloadQueueService downloadQueueService) {
-        this.downloadQueueService = downloadQueueService;
+    public DownloadManagerApplication(UrlIngestor urlIngestor, DownloadQueueService queueService) {
+        this.urlIngestor = urlIngestor;
+        this.queueService = queueService;
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals(ControlClient.COMMAND)) {
+            System.exit(ControlClient.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        warmUpTls();
+        if (Arrays.asList(args).contains(DAEMON_OPTION)) {
+            args = Arrays.copyOf(args, args.length + 1);
+            args[args.length - 1] = "--control.enabled=true";
+        }
         SpringApplication.run(DownloadManagerApplication.class, args);
     }
+
+    /**
+     * Loads the default trust store and TLS context on a background thread
+     * while the context starts. Building the OkHttp client needs both, and on
+     * a cold JVM they take a few hundred milliseconds to load.
+     */
+    private static void warmUpTls() {
+        Thread.ofPlatform().daemon().name("tls-warmup").start(() -> {
+            try {
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm()).init((KeyStore) null);
+                SSLContext.getDefault();
+            } catch (GeneralSecurityException e) {
+                // The client reports the same failure when it is built
+                log.debug("TLS warm-up failed", e);
+            }
+        });
+    }
     
     @Override
     public void run(String... args) throws Exception {
-        if (args.length == 0) {
-            log.error("At least one URL is required as a command line argument");
+        List<String> entries = new ArrayList<>();
+        List<String> inputs = new ArrayList<>();
+        boolean daemon = false;
+        for (String arg : args) {
+            if (arg.equals(DAEMON_OPTION)) {
+                daemon = true;
+            }
+            if (arg.startsWith(INPUT_OPTION)) {
+                inputs.add(arg.substring(INPUT_OPTION.length()));
+            } else if (!arg.startsWith("--")) {
+                // Other --options are Spring properties
+                entries.add(arg);
+            }
+        }
+        if (entries.isEmpty() && inputs.isEmpty() && !daemon) {
+            log.error("At least one URL, --input or --daemon is required as a command line argument");
             log.info("Usage: java -jar download-manager.jar <url1> [url2] [url3] ...");
+            log.info("Mirrors: java -jar download-manager.jar 'https://a.example.com/f.iso|https://b.example.com/f.iso'");
+            log.info("Digest: java -jar download-manager.jar 'https://example.com/f.iso|digest=sha256:<hex>'");
+            log.info("Lists: java -jar download-manager.jar --input=urls.txt --input='lists/*.txt' --input=-");
+            log.info("Daemon: java -jar download-manager.jar --daemon, then java -jar download-manager.jar ctl submit <url>");
             log.info("Example: java -jar download-manager.jar https://example.com/file1.zip https://example.com/file2.pdf");
             System.exit(1);
         }
         
-        log.info("Starting Download Manager with {} URLs", args.length);
+        log.info("Starting Download Manager with {} URLs and {} lists", entries.size(), inputs.size());
         
         try {
             // Add each URL to the download queue
-            for (String url : args) {
-                log.info("Adding URL to download queue: {}", url);
-                downloadQueueService.addToQueue(url);
+            for (String entry : entries) {
+                log.info("Adding URL to download queue: {}", entry);
+                urlIngestor.submit(entry);
             }
+            // Lists are streamed, waiting for queue space as they go
+            urlIngestor.ingest(inputs);
             
             log.info("All URLs have been added to the download queue");
-            log.info("Downloads will be processed asynchronously in the background");
-            log.info("Use Ctrl+C to stop the application (downloads will continue until completion)");
+            if (daemon) {
+                log.info("Running as a daemon, submit more work with: java -jar download-manager.jar ctl submit <url>");
+                log.info("Use Ctrl+C to stop the application (running downloads get the shutdown timeout to finish)");
+                Thread.currentThread().join();
+            }
             
-            // Keep the application running to allow downloads to complete
-            // In a real application, you might want to add a shutdown hook or monitoring
-            Thread.currentThread().join();
+            // A one-shot run, e.g. from cron, ends with its downloads
+            queueService.awaitIdle();
+            int failed = queueService.getFailedDownloads();
+            if (failed > 0) {
+                log.error("{} downloads failed", failed);
+                System.exit(1);
+            }
+            log.info("All downloads finished");
+            System.exit(0);
             
         } catch (InterruptedException e) {
             log.info("Application interrupted, shutting down gracefully");
@@ -61,4 +138,4 @@ public class DownloadManagerApplication implements CommandLineRunner {
             System.exit(1);
         }
     }
-} 
\ No newline at end of file
+}
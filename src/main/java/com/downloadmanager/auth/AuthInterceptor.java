@@ -0,0 +1,93 @@
+package com.downloadmanager.auth;
+
+import com.downloadmanager.config.TokenProperties;
+import com.downloadmanager.ratelimit.RateLimitKey;
+import com.downloadmanager.ratelimit.RequestOrg;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * OkHttp interceptor that authorizes calls tagged with a {@link RequestOrg}
+ * using a token from the org's {@link TokenPool}. The call is tagged with a
+ * {@link RateLimitKey} for the token, so rate limits apply per credential, and
+ * the response's {@code X-RateLimit-Remaining}/{@code X-RateLimit-Reset}
+ * headers are recorded against the token. A 401 revokes the token and the
+ * call is retried once with another one. Calls that already carry an
+ * {@code Authorization} header are left alone.
+ */
+@Component
+@Slf4j
+public class AuthInterceptor implements Interceptor {
+
+    private final TokenPool pool;
+    private final String scheme;
+
+    public AuthInterceptor(TokenPool pool, TokenProperties properties) {
+        this.pool = pool;
+        this.scheme = properties.getScheme();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestOrg org = request.tag(RequestOrg.class);
+        if (org == null || org.getName() == null || request.header("Authorization") != null) {
+            return chain.proceed(request);
+        }
+
+        PooledToken token = pool.acquire(org.getName());
+        if (token == null) {
+            log.debug("No credentials for org {}, sending unauthenticated", org.getName());
+            return chain.proceed(request);
+        }
+        Response response = proceed(chain, org.getName(), token);
+        if (response.code() != 401) {
+            return response;
+        }
+
+        pool.revoke(org.getName(), token);
+        PooledToken retry = pool.acquire(org.getName());
+        if (retry == null) {
+            return response;
+        }
+        // A refresh returns the same rejected credential in a new pool entry when nothing else is configured
+        if (retry.getCredential().getToken().equals(token.getCredential().getToken())) {
+            pool.release(retry);
+            return response;
+        }
+        response.close();
+        return proceed(chain, org.getName(), retry);
+    }
+
+    private Response proceed(Chain chain, String org, PooledToken token) throws IOException {
+        try {
+            Request authorized = chain.request().newBuilder()
+                    .header("Authorization", scheme + " " + token.getCredential().getToken())
+                    .tag(RateLimitKey.class, new RateLimitKey(org + "/" + token.getId()))
+                    .build();
+            Response response = chain.proceed(authorized);
+            recordBudget(org, token, response);
+            return response;
+        } finally {
+            pool.release(token);
+        }
+    }
+
+    private void recordBudget(String org, PooledToken token, Response response) {
+        String remaining = response.header("X-RateLimit-Remaining");
+        String reset = response.header("X-RateLimit-Reset");
+        if (remaining == null || reset == null) {
+            return;
+        }
+        try {
+            pool.record(token, Long.parseLong(remaining.trim()), Long.parseLong(reset.trim()));
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring malformed rate limit headers for token {} of org {}", token.getId(), org);
+        }
+    }
+}
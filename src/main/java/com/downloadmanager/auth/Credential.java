@@ -0,0 +1,27 @@
+package com.downloadmanager.auth;
+
+import lombok.Value;
+
+import java.time.Instant;
+
+/**
+ * An API token and when it stops being valid.
+ */
+@Value
+public class Credential {
+
+    String token;
+
+    /**
+     * When the token expires, null if it does not.
+     */
+    Instant expiresAt;
+
+    public static Credential permanent(String token) {
+        return new Credential(token, null);
+    }
+
+    public boolean expiresBefore(Instant instant) {
+        return expiresAt != null && expiresAt.isBefore(instant);
+    }
+}
@@ -0,0 +1,110 @@
+package com.downloadmanager.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A credential in the pool together with what is known about its rate limit
+ * budget and how many requests are using it right now.
+ */
+public final class PooledToken {
+
+    private static final long UNKNOWN = -1;
+
+    private final Credential credential;
+    private final String id;
+    // Shared with the entries of the same token before and after a refresh
+    private AtomicInteger inFlight = new AtomicInteger();
+    private volatile long remaining = UNKNOWN;
+    private volatile long resetEpochSeconds;
+    private volatile boolean revoked;
+
+    PooledToken(Credential credential) {
+        this.credential = credential;
+        this.id = fingerprint(credential.getToken());
+    }
+
+    /**
+     * Gets a short identifier that is safe to log and to use as a rate limit key.
+     *
+     * @return The first 8 hex digits of the token's SHA-256
+     */
+    public String getId() {
+        return id;
+    }
+
+    public Credential getCredential() {
+        return credential;
+    }
+
+    public long getRemaining() {
+        return remaining;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public boolean isRevoked() {
+        return revoked;
+    }
+
+    /**
+     * Ranks the token for selection: the budget left, minus the requests
+     * already under way. Tokens without a known budget rank above all others.
+     *
+     * @param now The current time
+     * @return The score, or {@link Long#MIN_VALUE} if the token cannot be used
+     */
+    long score(Instant now) {
+        if (revoked || credential.expiresBefore(now)) {
+            return Long.MIN_VALUE;
+        }
+        long budget = remaining;
+        if (budget == UNKNOWN || resetEpochSeconds <= now.getEpochSecond()) {
+            budget = Long.MAX_VALUE / 2;
+        }
+        return budget - inFlight.get();
+    }
+
+    void acquired() {
+        inFlight.incrementAndGet();
+    }
+
+    void released() {
+        inFlight.decrementAndGet();
+    }
+
+    void updateBudget(long remaining, long resetEpochSeconds) {
+        this.resetEpochSeconds = resetEpochSeconds;
+        this.remaining = remaining;
+    }
+
+    void revoke() {
+        revoked = true;
+    }
+
+    /**
+     * Carries the budget over from the pool entry of the same token before a
+     * refresh. The in-flight count is shared with it, so requests that took the
+     * old entry still count here and are released from both.
+     */
+    void inheritBudget(PooledToken previous) {
+        this.resetEpochSeconds = previous.resetEpochSeconds;
+        this.remaining = previous.remaining;
+        this.inFlight = previous.inFlight;
+    }
+
+    private static String fingerprint(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 4);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.downloadmanager.auth;
+
+import com.downloadmanager.config.TokenProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Provides the non-expiring tokens configured under {@code tokens.orgs}. An
+ * application that mints tokens (e.g. app installation tokens) registers its
+ * own {@link TokenProvider} as {@code @Primary}.
+ */
+@Component
+public class StaticTokenProvider implements TokenProvider {
+
+    private final TokenProperties properties;
+
+    public StaticTokenProvider(TokenProperties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    public List<Credential> fetch(String org) {
+        return properties.getOrgs().getOrDefault(org, List.of()).stream()
+                .filter(token -> token != null && !token.isBlank())
+                .map(Credential::permanent)
+                .toList();
+    }
+}
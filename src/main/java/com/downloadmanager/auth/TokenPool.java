@@ -0,0 +1,196 @@
+package com.downloadmanager.auth;
+
+import com.downloadmanager.config.TokenProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-org pool of API credentials. Requests take the usable token with the most
+ * rate limit budget left, as last reported by the API's response headers, minus
+ * the requests already using it. Credentials are fetched from the
+ * {@link TokenProvider} off the request path: configured orgs are loaded at
+ * startup, and a background thread refreshes credentials shortly before they
+ * expire. A request only waits for the provider when its org has no usable
+ * token at all.
+ */
+@Component
+@EnableConfigurationProperties(TokenProperties.class)
+@Slf4j
+public class TokenPool {
+
+    private final TokenProvider provider;
+    private final TokenProperties properties;
+    private final Map<String, OrgTokens> orgs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+
+    public TokenPool(TokenProvider provider, TokenProperties properties) {
+        this.provider = provider;
+        this.properties = properties;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TokenRefresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (String org : properties.getOrgs().keySet()) {
+            refresher.execute(() -> refreshQuietly(org));
+        }
+        long interval = properties.getCheckInterval().toMillis();
+        refresher.scheduleWithFixedDelay(this::refreshExpiring, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tokens of one org. The list is replaced as a whole on refresh.
+     */
+    private static final class OrgTokens {
+        volatile List<PooledToken> tokens = List.of();
+    }
+
+    /**
+     * Takes the best token of an org for one request. The caller must
+     * {@link #release(PooledToken)} it when the request is done.
+     *
+     * @param org The org name
+     * @return The token, or null if the org has no credentials
+     * @throws IOException if the org's credentials cannot be fetched
+     */
+    public PooledToken acquire(String org) throws IOException {
+        PooledToken token = select(org);
+        if (token == null) {
+            refresh(org);
+            token = select(org);
+        }
+        if (token != null) {
+            token.acquired();
+        }
+        return token;
+    }
+
+    /**
+     * Releases a token taken with {@link #acquire(String)}.
+     *
+     * @param token The token
+     */
+    public void release(PooledToken token) {
+        token.released();
+    }
+
+    /**
+     * Records the rate limit budget a response reported for a token.
+     *
+     * @param token The token the request was made with
+     * @param remaining Requests left in the current window
+     * @param resetEpochSeconds When the window resets, in epoch seconds
+     */
+    public void record(PooledToken token, long remaining, long resetEpochSeconds) {
+        token.updateBudget(remaining, resetEpochSeconds);
+    }
+
+    /**
+     * Stops handing out a token the API rejected and fetches the org's
+     * credentials again in the background.
+     *
+     * @param org The org name
+     * @param token The rejected token
+     */
+    public void revoke(String org, PooledToken token) {
+        if (!token.isRevoked()) {
+            token.revoke();
+            log.warn("Token {} of org {} was rejected, refreshing credentials", token.getId(), org);
+            refresher.execute(() -> refreshQuietly(org));
+        }
+    }
+
+    /**
+     * Gets the tokens of an org, for monitoring.
+     *
+     * @param org The org name
+     * @return The org's current tokens
+     */
+    public List<PooledToken> getTokens(String org) {
+        OrgTokens entry = orgs.get(org);
+        return entry != null ? entry.tokens : List.of();
+    }
+
+    private PooledToken select(String org) {
+        Instant now = Instant.now();
+        PooledToken best = null;
+        long bestScore = Long.MIN_VALUE;
+        for (PooledToken token : getTokens(org)) {
+            long score = token.score(now);
+            if (score > bestScore) {
+                best = token;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fetches the credentials of an org again. Tokens whose value did not
+     * change keep their budget and in-flight count, so a refresh does not
+     * forget rate limits or the requests still using them.
+     */
+    private void refresh(String org) throws IOException {
+        OrgTokens entry = orgs.computeIfAbsent(org, o -> new OrgTokens());
+        synchronized (entry) {
+            Map<String, PooledToken> previous = new HashMap<>();
+            for (PooledToken token : entry.tokens) {
+                if (!token.isRevoked()) {
+                    previous.put(token.getCredential().getToken(), token);
+                }
+            }
+            List<PooledToken> tokens = new ArrayList<>();
+            for (Credential credential : provider.fetch(org)) {
+                PooledToken token = new PooledToken(credential);
+                PooledToken old = previous.get(credential.getToken());
+                if (old != null) {
+                    token.inheritBudget(old);
+                }
+                tokens.add(token);
+            }
+            entry.tokens = List.copyOf(tokens);
+            log.debug("Loaded {} tokens for org {}", tokens.size(), org);
+        }
+    }
+
+    private void refreshQuietly(String org) {
+        try {
+            refresh(org);
+        } catch (Exception e) {
+            log.warn("Failed to refresh tokens of org {}: {}", org, e.getMessage());
+        }
+    }
+
+    /**
+     * Refreshes every org with a token that expires within the refresh-ahead time.
+     */
+    private void refreshExpiring() {
+        Instant horizon = Instant.now().plus(properties.getRefreshAhead());
+        orgs.forEach((org, entry) -> {
+            boolean expiring = entry.tokens.stream()
+                    .anyMatch(token -> token.getCredential().expiresBefore(horizon));
+            if (expiring) {
+                refreshQuietly(org);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,20 @@
+package com.downloadmanager.auth;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Source of API credentials. {@link TokenPool} calls it from its background
+ * refresher, and on the request path only when an org has no usable token at all.
+ */
+public interface TokenProvider {
+
+    /**
+     * Gets the current credentials of an org.
+     *
+     * @param org The org name
+     * @return The org's credentials, empty if it has none
+     * @throws IOException if the credentials cannot be obtained
+     */
+    List<Credential> fetch(String org) throws IOException;
+}
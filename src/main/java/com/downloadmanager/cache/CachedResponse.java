@@ -0,0 +1,23 @@
+package com.downloadmanager.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * A cached API response: its validators, the headers needed to serve it
+ * again, and where its body is stored.
+ */
+@Data
+@AllArgsConstructor
+public class CachedResponse {
+
+    private String key;
+    private String etag;
+    private String lastModified;
+    private Map<String, String> headers;
+    private Path bodyPath;
+    private long size;
+}
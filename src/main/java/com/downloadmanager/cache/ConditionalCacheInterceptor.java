@@ -0,0 +1,126 @@
+package com.downloadmanager.cache;
+
+import com.downloadmanager.ratelimit.RequestOrg;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OkHttp interceptor that caches API responses and revalidates them with
+ * conditional requests. It only handles GET requests tagged with a
+ * {@link RequestOrg}, so file downloads pass straight through.
+ *
+ * <p>A cached entry's validators are sent as {@code If-None-Match} and
+ * {@code If-Modified-Since}. On a 304 the cached body and headers are served
+ * as a 200 with {@code X-Cache: HIT}, so callers see the same response as
+ * before, including its {@code Link} header. If the entry was evicted while
+ * the request ran, it is sent again without validators. A 200 that carries a validator
+ * is stored for next time, unless its body is larger than the maximum entry
+ * size. Bodies of unknown length (chunked, gzip) are buffered only up to that
+ * size; a larger one is passed on to the caller unread.
+ */
+@Component
+@Slf4j
+public class ConditionalCacheInterceptor implements Interceptor {
+
+    public static final String CACHE_HEADER = "X-Cache";
+
+    // Headers the fetch services read from a response
+    private static final List<String> STORED_HEADERS = List.of("Content-Type", "Link", "ETag", "Last-Modified");
+
+    private final HttpCacheStore store;
+
+    public ConditionalCacheInterceptor(HttpCacheStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestOrg org = request.tag(RequestOrg.class);
+        if (!store.isEnabled() || org == null || !"GET".equals(request.method())
+                || request.header("If-None-Match") != null || request.header("If-Modified-Since") != null) {
+            return chain.proceed(request);
+        }
+
+        String key = HttpCacheStore.key(request.url().toString(), org.getName());
+        CachedResponse cached = store.get(key);
+
+        Request.Builder conditional = request.newBuilder();
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                conditional.header("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                conditional.header("If-Modified-Since", cached.getLastModified());
+            }
+        }
+        Response response = chain.proceed(conditional.build());
+
+        if (response.code() == 304 && cached != null) {
+            response.close();
+            try {
+                Response hit = fromCache(response, cached);
+                store.recordHit();
+                store.touch(key);
+                return hit;
+            } catch (IOException e) {
+                log.debug("Cached body of {} is gone ({}), requesting it again", request.url(), e.getMessage());
+                response = chain.proceed(request);
+            }
+        }
+        store.recordMiss();
+
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        ResponseBody body = response.body();
+        if (response.code() != 200 || body == null || (etag == null && lastModified == null)
+                || body.contentLength() > store.getMaxEntrySize()) {
+            return response;
+        }
+
+        // Buffers at most one byte past the limit; a larger body stays streamable
+        BufferedSource source = body.source();
+        if (source.request(store.getMaxEntrySize() + 1)) {
+            log.debug("Not caching {}: body larger than {} bytes", request.url(), store.getMaxEntrySize());
+            return response;
+        }
+        byte[] bytes = source.readByteArray();
+        body.close();
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String name : STORED_HEADERS) {
+            String value = response.header(name);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        }
+        store.put(key, etag, lastModified, headers, bytes);
+        return response.newBuilder()
+                .body(ResponseBody.create(bytes, body.contentType()))
+                .build();
+    }
+
+    private Response fromCache(Response notModified, CachedResponse cached) throws IOException {
+        byte[] bytes = Files.readAllBytes(cached.getBodyPath());
+        String contentType = cached.getHeaders().get("Content-Type");
+        Response.Builder builder = notModified.newBuilder()
+                .code(200)
+                .message("OK")
+                .header(CACHE_HEADER, "HIT")
+                .body(ResponseBody.create(bytes, contentType != null ? MediaType.parse(contentType) : null));
+        cached.getHeaders().forEach(builder::header);
+        log.debug("Served {} from cache", notModified.request().url());
+        return builder.build();
+    }
+}
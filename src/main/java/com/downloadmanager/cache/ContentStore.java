@@ -0,0 +1,756 @@
+package com.downloadmanager.cache;
+
+import com.downloadmanager.config.ContentStoreProperties;
+import com.downloadmanager.io.DigestAlgorithm;
+import com.downloadmanager.io.TransferDigest;
+import com.downloadmanager.model.RemoteFileInfo;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed store of finished downloads, so a file is fetched once no
+ * matter how many URLs point at it or how often it is requested. Each file is
+ * kept once under its SHA-256 in {@code objects/<2 hex>/<64 hex>} and found by:
+ * <ul>
+ * <li>the expected digest of a task, without asking the server</li>
+ * <li>its URL, if the server still reports the same ETag (or Last-Modified) and size</li>
+ * <li>if enabled, a strong ETag and size seen under another URL of the same
+ * host, e.g. another path to the same file; such a hit is only taken when the
+ * task's expected digest confirms it</li>
+ * </ul>
+ * A hit is copied into the download directory, or placed as a hard link if
+ * {@code content-store.hard-links} is on. Stored files remember their size
+ * and modification time; one that was changed through a hard-linked download
+ * is dropped, and {@link #unshare} keeps downloads from writing into one.
+ *
+ * <p>The index is an append-only binary log of fixed-layout records, read
+ * with one buffered pass at startup and rewritten compactly at that point.
+ * URLs are kept as 64-bit fingerprints and digests as raw bytes, so an entry
+ * costs under a hundred bytes on disk. Least recently used files are evicted
+ * beyond the configured total size.
+ * <pre>
+ * B &lt;sha256&gt; &lt;size&gt; &lt;mtime&gt;                   file stored
+ * U &lt;url fp&gt; &lt;host fp&gt; &lt;sha256&gt; &lt;etag&gt; &lt;last-modified&gt; URL seen with this content
+ * D &lt;digest&gt; &lt;sha256&gt;                         other digest of the content, e.g. md5:...
+ * T &lt;sha256&gt;                                  file used
+ * X &lt;sha256&gt;                                  file removed
+ * </pre>
+ */
+@Component
+@EnableConfigurationProperties(ContentStoreProperties.class)
+@Slf4j
+public class ContentStore {
+
+    private static final String SHA_256_PREFIX = "sha256:";
+    private static final String INDEX_FILE = "index.bin";
+    private static final int INDEX_MAGIC = 0x44434153;
+    private static final int INDEX_VERSION = 2;
+    // Sources without the host fingerprint, which never match an ETag under another URL
+    private static final int INDEX_VERSION_WITHOUT_HOST = 1;
+    private static final byte BLOB = 'B';
+    private static final byte SOURCE = 'U';
+    private static final byte ALIAS = 'D';
+    private static final byte USED = 'T';
+    private static final byte REMOVED = 'X';
+    private static final long COMPACT_MIN_RECORDS = 10_000;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private record Blob(String sha256, long size, long modified) {
+    }
+
+    private record Source(long host, String sha256, String etag, String lastModified) {
+    }
+
+    private final ContentStoreProperties properties;
+    private final Path directory;
+    private final Path indexPath;
+
+    // Stored files by SHA-256 in access order, least recently used first
+    private final LinkedHashMap<String, Blob> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Source> sources = new HashMap<>();
+    // "<host fp> <etag> <size>" of strong ETags
+    private final Map<String, String> etags = new HashMap<>();
+    // Digests other than SHA-256, as <algorithm>:<hex>
+    private final Map<String, String> aliases = new HashMap<>();
+    private long totalSize;
+    private DataOutputStream index;
+    private long records;
+    private volatile boolean usable;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ContentStore(ContentStoreProperties properties) {
+        this.properties = properties;
+        this.directory = Paths.get(properties.getDirectory());
+        this.indexPath = directory.resolve(INDEX_FILE);
+        if (properties.isEnabled()) {
+            try {
+                Files.createDirectories(directory);
+                loadIndex();
+                // Start the new run from a compacted index
+                compact();
+                usable = true;
+            } catch (IOException e) {
+                log.warn("Content store {} is unusable, downloads are not deduplicated: {}",
+                        directory, e.getMessage());
+                closeIndex();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return usable;
+    }
+
+    /**
+     * Looks up the stored file with the content a download would fetch. An
+     * expected digest is looked up first. With the validators and size the
+     * server reports now, the URL is tried next, and then an ETag seen under
+     * another URL of the same host; the latter only with an expected digest,
+     * which the stored file must match, since ETags of different files can
+     * collide. A URL hit must match an expected digest as well.
+     *
+     * @param url The download URL
+     * @param digest The expected digest as {@code <algorithm>:<hex>}, may be null
+     * @param info The probed remote file info, may be null
+     * @return The stored file, or null if the store does not hold the content
+     */
+    public Path find(String url, String digest, RemoteFileInfo info) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String spec = digest != null ? digest.toLowerCase(Locale.ROOT) : null;
+        Blob blob;
+        synchronized (this) {
+            blob = spec != null ? byDigest(spec) : null;
+            if (blob == null) {
+                blob = byUrlOrEtag(url, info, spec != null);
+            }
+        }
+        if (blob != null && spec != null && !confirms(spec, blob)) {
+            blob = null;
+        }
+        synchronized (this) {
+            if (blob != null && !intact(blob)) {
+                log.warn("Stored file {} changed on disk, dropping it", blob.sha256());
+                remove(blob);
+                blob = null;
+            }
+            if (blob != null) {
+                try {
+                    writeMark(USED, blob.sha256());
+                    sync();
+                } catch (IOException e) {
+                    // Only affects the eviction order after a restart
+                    log.debug("Failed to record use of {}: {}", blob.sha256(), e.getMessage());
+                }
+            }
+        }
+        if (blob == null) {
+            // A digest-only lookup before the server is asked is followed by one with its answer
+            if (spec == null || info != null) {
+                misses.incrementAndGet();
+            }
+            return null;
+        }
+        hits.incrementAndGet();
+        savedBytes.addAndGet(blob.size());
+        return objectPath(blob.sha256());
+    }
+
+    private Blob byDigest(String spec) {
+        String sha256 = spec.startsWith(SHA_256_PREFIX) ? spec.substring(SHA_256_PREFIX.length()) : aliases.get(spec);
+        return sha256 != null ? blobs.get(sha256) : null;
+    }
+
+    private Blob byUrlOrEtag(String url, RemoteFileInfo info, boolean confirmable) {
+        if (info == null || info.getContentLength() < 0) {
+            return null;
+        }
+        Source source = sources.get(fingerprint(url));
+        if (source != null && sameValidators(source, info)) {
+            Blob blob = blobs.get(source.sha256());
+            if (blob != null && blob.size() == info.getContentLength()) {
+                return blob;
+            }
+        }
+        if (confirmable && properties.isMatchEtag() && isStrong(info.getEtag())) {
+            String sha256 = etags.get(etagKey(fingerprint(host(url)), info.getEtag(), info.getContentLength()));
+            return sha256 != null ? blobs.get(sha256) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Checks a stored file against an expected digest. A digest other than
+     * SHA-256 is computed from the stored file once and remembered.
+     */
+    private boolean confirms(String spec, Blob blob) {
+        if (spec.startsWith(SHA_256_PREFIX)) {
+            return spec.substring(SHA_256_PREFIX.length()).equals(blob.sha256());
+        }
+        synchronized (this) {
+            String known = aliases.get(spec);
+            if (known != null) {
+                return known.equals(blob.sha256());
+            }
+        }
+        int colon = spec.indexOf(':');
+        String actual;
+        try {
+            DigestAlgorithm algorithm = DigestAlgorithm.fromName(spec.substring(0, Math.max(colon, 0)));
+            actual = digest(objectPath(blob.sha256()), algorithm);
+        } catch (IllegalArgumentException | IOException e) {
+            log.debug("Cannot check stored file {} against {}: {}", blob.sha256(), spec, e.getMessage());
+            return false;
+        }
+        if (!spec.substring(colon + 1).equals(actual)) {
+            return false;
+        }
+        synchronized (this) {
+            if (blobs.containsKey(blob.sha256())) {
+                aliases.put(spec, blob.sha256());
+                try {
+                    writeAlias(spec, blob.sha256());
+                    sync();
+                } catch (IOException e) {
+                    log.debug("Failed to record {} of {}: {}", spec, blob.sha256(), e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameValidators(Source source, RemoteFileInfo info) {
+        if (source.etag() != null || info.getEtag() != null) {
+            return source.etag() != null && source.etag().equals(info.getEtag());
+        }
+        return source.lastModified() != null && source.lastModified().equals(info.getLastModified());
+    }
+
+    /**
+     * Checks whether a file is what the store recorded for a URL, i.e. an
+     * earlier download of it that can be updated in place.
+     *
+     * @param url The download URL
+     * @param file The file
+     * @return true if the file is a link to or an untouched copy of the URL's stored content
+     */
+    public boolean holds(String url, Path file) {
+        if (!isEnabled() || !Files.exists(file)) {
+            return false;
+        }
+        Blob blob;
+        synchronized (this) {
+            Source source = sources.get(fingerprint(url));
+            blob = source != null ? blobs.get(source.sha256()) : null;
+        }
+        if (blob == null) {
+            return false;
+        }
+        try {
+            return Files.isSameFile(file, objectPath(blob.sha256()))
+                    || (Files.size(file) == blob.size()
+                    && Files.getLastModifiedTime(file).toMillis() == blob.modified());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Makes sure a file that is about to be written in place is not a hard link
+     * to a stored file, which the writes would corrupt. Such a file is replaced
+     * by a copy of itself, so resumable data in it is kept.
+     *
+     * @param file The file, e.g. a part file
+     * @throws IOException if the link cannot be replaced
+     */
+    public void unshare(Path file) throws IOException {
+        if (!isEnabled() || !Files.exists(file) || !linkedElsewhere(file)) {
+            return;
+        }
+        long size = Files.size(file);
+        List<String> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Blob blob : blobs.values()) {
+                if (blob.size() == size) {
+                    candidates.add(blob.sha256());
+                }
+            }
+        }
+        for (String sha256 : candidates) {
+            Path object = objectPath(sha256);
+            if (Files.exists(object) && Files.isSameFile(file, object)) {
+                log.info("{} is linked to stored file {}, copying it before it is written", file, sha256);
+                Path tmp = file.resolveSibling(file.getFileName() + ".unshare");
+                Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks the link count of a file, where the file system reports one.
+     */
+    private static boolean linkedElsewhere(Path file) throws IOException {
+        try {
+            return ((Number) Files.getAttribute(file, "unix:nlink")).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Places a stored file at a path, replacing what is there.
+     *
+     * @param stored The stored file, from {@link #find}
+     * @param target Where the content is needed
+     * @throws IOException if neither a link nor a copy can be made
+     */
+    public void materialize(Path stored, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        if (properties.isHardLinks()) {
+            try {
+                Files.createLink(target, stored);
+                return;
+            } catch (UnsupportedOperationException | IOException e) {
+                // E.g. another file system; the JDK copies in the kernel where it can
+                log.debug("Cannot link {} to {}, copying: {}", target, stored, e.getMessage());
+            }
+        }
+        // Attributes are kept so that holds() recognizes the copy later
+        Files.copy(stored, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    /**
+     * Adds a finished download. If the content is stored already, the file is
+     * replaced with a link to the stored one, so identical downloads share one
+     * copy on disk. The SHA-256 comes from the transfer; the file is not read
+     * back to compute it.
+     *
+     * @param url The download URL
+     * @param etag The ETag the file was served with, may be null
+     * @param lastModified The Last-Modified the file was served with, may be null
+     * @param file The downloaded file
+     * @param sha256 The SHA-256 of the file as lower-case hex, computed while it was downloaded
+     * @param digest The verified digest as {@code <algorithm>:<hex>}, may be null
+     */
+    public void add(String url, String etag, String lastModified, Path file, String sha256, String digest) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (sha256 == null) {
+            log.debug("No SHA-256 was computed for {}, not adding it to the content store", file);
+            return;
+        }
+        try {
+            long size = Files.size(file);
+            if (size > properties.getMaxSize()) {
+                return;
+            }
+            String spec = digest != null ? digest.toLowerCase(Locale.ROOT) : null;
+            Path object = objectPath(sha256);
+            Blob existing;
+            synchronized (this) {
+                existing = blobs.get(sha256);
+            }
+            if (existing != null && intact(existing)) {
+                if (properties.isHardLinks() && !Files.isSameFile(file, object)) {
+                    relink(object, file);
+                }
+            } else {
+                existing = null;
+                store(file, object);
+            }
+            synchronized (this) {
+                if (existing == null) {
+                    Blob blob = new Blob(sha256, size, Files.getLastModifiedTime(object).toMillis());
+                    Blob previous = blobs.put(sha256, blob);
+                    totalSize += size - (previous != null ? previous.size() : 0);
+                    writeBlob(blob);
+                }
+                Source source = new Source(fingerprint(host(url)), sha256, etag, lastModified);
+                long fingerprint = fingerprint(url);
+                indexSource(fingerprint, source, size);
+                writeSource(fingerprint, source);
+                if (spec != null && !spec.startsWith(SHA_256_PREFIX)) {
+                    aliases.put(spec, sha256);
+                    writeAlias(spec, sha256);
+                }
+                evict();
+                sync();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to add {} to the content store: {}", file, e.getMessage());
+        }
+    }
+
+    private void indexSource(long fingerprint, Source source, long size) {
+        sources.put(fingerprint, source);
+        if (source.host() != 0 && isStrong(source.etag())) {
+            etags.put(etagKey(source.host(), source.etag(), size), source.sha256());
+        }
+    }
+
+    /**
+     * Puts a new file into the store, as a link where possible.
+     */
+    private void store(Path file, Path object) throws IOException {
+        Files.createDirectories(object.getParent());
+        if (properties.isHardLinks()) {
+            try {
+                Files.createLink(object, file);
+                return;
+            } catch (FileAlreadyExistsException e) {
+                // Left behind by a crash or a concurrent add of the same content
+                Files.delete(object);
+                Files.createLink(object, file);
+                return;
+            } catch (UnsupportedOperationException | IOException e) {
+                log.debug("Cannot link {} into the content store, copying: {}", file, e.getMessage());
+            }
+        }
+        Path tmp = object.resolveSibling(object.getFileName() + ".tmp");
+        Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        Files.move(tmp, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces a file with a link to the stored copy of its content.
+     */
+    private static void relink(Path object, Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".link");
+        try {
+            Files.deleteIfExists(tmp);
+            Files.createLink(tmp, object);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (UnsupportedOperationException | IOException e) {
+            // The download stays a separate copy
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private boolean intact(Blob blob) {
+        Path object = objectPath(blob.sha256());
+        try {
+            return Files.size(object) == blob.size()
+                    && Files.getLastModifiedTime(object).toMillis() == blob.modified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void evict() throws IOException {
+        Iterator<Blob> it = blobs.values().iterator();
+        List<Blob> evicted = new ArrayList<>();
+        while (totalSize > properties.getMaxSize() && it.hasNext()) {
+            Blob eldest = it.next();
+            totalSize -= eldest.size();
+            evicted.add(eldest);
+            it.remove();
+        }
+        for (Blob blob : evicted) {
+            writeMark(REMOVED, blob.sha256());
+            deleteObject(blob.sha256());
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets a stored file. URL, ETag and digest entries pointing at it are
+     * ignored from now on and dropped at the next compaction.
+     */
+    private void remove(Blob blob) {
+        if (blobs.remove(blob.sha256()) != null) {
+            totalSize -= blob.size();
+        }
+        try {
+            writeMark(REMOVED, blob.sha256());
+            sync();
+        } catch (IOException e) {
+            log.warn("Failed to write content store index {}: {}", indexPath, e.getMessage());
+        }
+        deleteObject(blob.sha256());
+    }
+
+    private void deleteObject(String sha256) {
+        try {
+            Files.deleteIfExists(objectPath(sha256));
+        } catch (IOException e) {
+            log.warn("Failed to delete stored file {}: {}", sha256, e.getMessage());
+        }
+    }
+
+    private Path objectPath(String sha256) {
+        return directory.resolve("objects").resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    /**
+     * Rebuilds the in-memory index from the log. A crash can leave a torn last
+     * record, which ends the replay.
+     */
+    private void loadIndex() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        long replayed = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexPath), 64 * 1024))) {
+            int version = in.readInt() == INDEX_MAGIC ? in.readInt() : -1;
+            if (version != INDEX_VERSION && version != INDEX_VERSION_WITHOUT_HOST) {
+                log.warn("Ignoring content store index {} of an unknown format", indexPath);
+                return;
+            }
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                switch (type) {
+                    case BLOB -> {
+                        Blob blob = new Blob(readSha256(in), in.readLong(), in.readLong());
+                        Blob previous = blobs.put(blob.sha256(), blob);
+                        totalSize += blob.size() - (previous != null ? previous.size() : 0);
+                    }
+                    case SOURCE -> {
+                        long fingerprint = in.readLong();
+                        long host = version == INDEX_VERSION_WITHOUT_HOST ? 0 : in.readLong();
+                        String sha256 = readSha256(in);
+                        Source source = new Source(host, sha256, readNullable(in), readNullable(in));
+                        Blob blob = blobs.get(sha256);
+                        if (blob != null) {
+                            indexSource(fingerprint, source, blob.size());
+                        }
+                    }
+                    case ALIAS -> aliases.put(in.readUTF(), readSha256(in));
+                    case USED -> blobs.get(readSha256(in));
+                    case REMOVED -> {
+                        Blob blob = blobs.remove(readSha256(in));
+                        if (blob != null) {
+                            totalSize -= blob.size();
+                        }
+                    }
+                    default -> throw new IOException("Unknown record type " + type + " after " + replayed + " records");
+                }
+                replayed++;
+            }
+        } catch (EOFException e) {
+            log.warn("Content store index {} ends in a torn record, {} records recovered", indexPath, replayed);
+        }
+        log.info("Loaded content store index: {} files ({} bytes) from {} records", blobs.size(), totalSize, replayed);
+    }
+
+    /**
+     * Rewrites the index with only the live entries, oldest use first, and
+     * reopens it for appending.
+     */
+    private synchronized void compact() throws IOException {
+        closeIndex();
+        records = 0;
+        Path tmp = indexPath.resolveSibling(INDEX_FILE + ".compact");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            index = out;
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            for (Blob blob : blobs.values()) {
+                writeBlob(blob);
+            }
+            // Sources of dropped files are left out, and with them their ETags
+            etags.clear();
+            Iterator<Map.Entry<Long, Source>> sourceIt = sources.entrySet().iterator();
+            while (sourceIt.hasNext()) {
+                Map.Entry<Long, Source> entry = sourceIt.next();
+                Blob blob = blobs.get(entry.getValue().sha256());
+                if (blob == null) {
+                    sourceIt.remove();
+                } else {
+                    indexSource(entry.getKey(), entry.getValue(), blob.size());
+                    writeSource(entry.getKey(), entry.getValue());
+                }
+            }
+            aliases.values().removeIf(sha256 -> !blobs.containsKey(sha256));
+            for (Map.Entry<String, String> alias : aliases.entrySet()) {
+                writeAlias(alias.getKey(), alias.getValue());
+            }
+        } finally {
+            index = null;
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(indexPath, StandardOpenOption.APPEND), 64 * 1024));
+    }
+
+    private void writeBlob(Blob blob) throws IOException {
+        index.writeByte(BLOB);
+        writeSha256(blob.sha256());
+        index.writeLong(blob.size());
+        index.writeLong(blob.modified());
+        records++;
+    }
+
+    private void writeSource(long fingerprint, Source source) throws IOException {
+        index.writeByte(SOURCE);
+        index.writeLong(fingerprint);
+        index.writeLong(source.host());
+        writeSha256(source.sha256());
+        index.writeUTF(source.etag() != null ? source.etag() : "");
+        index.writeUTF(source.lastModified() != null ? source.lastModified() : "");
+        records++;
+    }
+
+    private void writeAlias(String digest, String sha256) throws IOException {
+        index.writeByte(ALIAS);
+        index.writeUTF(digest);
+        writeSha256(sha256);
+        records++;
+    }
+
+    private void writeMark(byte type, String sha256) throws IOException {
+        index.writeByte(type);
+        writeSha256(sha256);
+        records++;
+    }
+
+    /**
+     * Flushes appended records, compacting the index once most of it is stale.
+     */
+    private void sync() throws IOException {
+        index.flush();
+        if (records > COMPACT_MIN_RECORDS && records > 4L * (blobs.size() + sources.size() + aliases.size())) {
+            compact();
+        }
+    }
+
+    private void writeSha256(String sha256) throws IOException {
+        index.write(HexFormat.of().parseHex(sha256));
+    }
+
+    private static String readSha256(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[32];
+        in.readFully(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        String value = in.readUTF();
+        return value.isEmpty() ? null : value;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        usable = false;
+        closeIndex();
+    }
+
+    private void closeIndex() {
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                log.warn("Failed to close content store index {}: {}", indexPath, e.getMessage());
+            }
+            index = null;
+        }
+    }
+
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase(Locale.ROOT) : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Hashes a URL or host to the 64-bit key the index stores instead of it.
+     */
+    private static long fingerprint(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Only strong ETags identify content; weak ones ({@code W/"..."}) only promise equivalence.
+     */
+    private static boolean isStrong(String etag) {
+        return etag != null && etag.startsWith("\"") && etag.length() > 2;
+    }
+
+    private static String etagKey(long host, String etag, long size) {
+        return host + " " + etag + " " + size;
+    }
+
+    private static String digest(Path file, DigestAlgorithm algorithm) throws IOException {
+        TransferDigest digest = algorithm.newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer.clear()) > 0) {
+                digest.update(buffer.flip());
+            }
+        }
+        return digest.hex();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getSize() {
+        return totalSize;
+    }
+}
@@ -0,0 +1,303 @@
+package com.downloadmanager.cache;
+
+import com.downloadmanager.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk store of API responses keyed by URL and org. Each entry is a
+ * {@code <key>.meta} properties file holding the validators and headers, and a
+ * {@code <key>.body} file. An in-memory index in access order tracks entry
+ * sizes and evicts the least recently used entries once the configured total
+ * size is exceeded. The index is rebuilt from the meta files at startup, ordered
+ * by their modification time.
+ */
+@Component
+@EnableConfigurationProperties(CacheProperties.class)
+@Slf4j
+public class HttpCacheStore {
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String HEADER_PREFIX = "header.";
+
+    private final CacheProperties properties;
+    private final Path directory;
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public HttpCacheStore(CacheProperties properties) {
+        this.properties = properties;
+        this.directory = Paths.get(properties.getDirectory());
+        if (properties.isEnabled()) {
+            loadIndex();
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public long getMaxEntrySize() {
+        return properties.getMaxEntrySize();
+    }
+
+    /**
+     * Builds the cache key of a request.
+     *
+     * @param url The request URL
+     * @param org The org the request is made for, may be null
+     * @return Hex SHA-256 of org and URL
+     */
+    public static String key(String url, String org) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((org != null ? org : "").getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(url.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks up an entry.
+     *
+     * @param key The cache key
+     * @return The entry, or null if there is none
+     */
+    public CachedResponse get(String key) {
+        synchronized (index) {
+            if (!index.containsKey(key)) {
+                return null;
+            }
+        }
+        Path meta = directory.resolve(key + META_SUFFIX);
+        try {
+            Properties props = new Properties();
+            try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (String name : props.stringPropertyNames()) {
+                if (name.startsWith(HEADER_PREFIX)) {
+                    headers.put(name.substring(HEADER_PREFIX.length()), props.getProperty(name));
+                }
+            }
+            Path body = directory.resolve(key + BODY_SUFFIX);
+            return new CachedResponse(key, props.getProperty("etag"), props.getProperty("lastModified"),
+                    headers, body, Files.size(body));
+        } catch (IOException e) {
+            log.warn("Dropping unreadable cache entry {}: {}", key, e.getMessage());
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores or replaces an entry, then evicts old entries if the cache is over size.
+     *
+     * @param key The cache key
+     * @param etag The ETag validator, may be null
+     * @param lastModified The Last-Modified validator, may be null
+     * @param headers Response headers to serve the entry with
+     * @param body The response body
+     */
+    public void put(String key, String etag, String lastModified, Map<String, String> headers, byte[] body) {
+        try {
+            Files.createDirectories(directory);
+            Properties props = new Properties();
+            if (etag != null) {
+                props.setProperty("etag", etag);
+            }
+            if (lastModified != null) {
+                props.setProperty("lastModified", lastModified);
+            }
+            headers.forEach((name, value) -> props.setProperty(HEADER_PREFIX + name, value));
+
+            // Body first, so a meta file never points at a missing body
+            writeAtomically(directory.resolve(key + BODY_SUFFIX), body);
+            StringWriter meta = new StringWriter();
+            props.store(meta, null);
+            writeAtomically(directory.resolve(key + META_SUFFIX), meta.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.warn("Failed to store cache entry {}: {}", key, e.getMessage());
+            return;
+        }
+
+        synchronized (index) {
+            Long previous = index.put(key, (long) body.length);
+            totalSize += body.length - (previous != null ? previous : 0);
+        }
+        evict();
+    }
+
+    /**
+     * Marks an entry as used without changing it, keeping it away from eviction.
+     *
+     * @param key The cache key
+     */
+    public void touch(String key) {
+        synchronized (index) {
+            index.get(key);
+        }
+        try {
+            Files.setLastModifiedTime(directory.resolve(key + META_SUFFIX), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // Only affects the eviction order after a restart
+        }
+    }
+
+    private void evict() {
+        List<String> evicted = new ArrayList<>();
+        synchronized (index) {
+            Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+            while (totalSize > properties.getMaxSize() && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                totalSize -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (String key : evicted) {
+            deleteFiles(key);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (index) {
+            Long size = index.remove(key);
+            if (size != null) {
+                totalSize -= size;
+            }
+        }
+        deleteFiles(key);
+    }
+
+    private void deleteFiles(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + META_SUFFIX));
+            Files.deleteIfExists(directory.resolve(key + BODY_SUFFIX));
+        } catch (IOException e) {
+            log.warn("Failed to delete cache entry {}: {}", key, e.getMessage());
+        }
+    }
+
+    private void loadIndex() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> metas = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + META_SUFFIX)) {
+            stream.forEach(metas::add);
+        } catch (IOException e) {
+            log.warn("Failed to read cache directory {}: {}", directory, e.getMessage());
+            return;
+        }
+        // Left behind by writes a crash interrupted
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + TMP_SUFFIX)) {
+            for (Path tmp : stream) {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to clean up temporary cache files in {}: {}", directory, e.getMessage());
+        }
+        // Oldest first, so that insertion order matches least recently used
+        metas.sort(Comparator.comparingLong(this::lastModifiedMillis));
+        for (Path meta : metas) {
+            String name = meta.getFileName().toString();
+            String key = name.substring(0, name.length() - META_SUFFIX.length());
+            try {
+                long size = Files.size(directory.resolve(key + BODY_SUFFIX));
+                index.put(key, size);
+                totalSize += size;
+            } catch (IOException e) {
+                deleteFiles(key);
+            }
+        }
+        log.info("Loaded {} cached responses ({} bytes) from {}", index.size(), totalSize, directory);
+        evict();
+    }
+
+    private long lastModifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void writeAtomically(Path target, byte[] bytes) throws IOException {
+        // Unique per writer, concurrent misses of the same key must not share it
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), TMP_SUFFIX);
+        try {
+            Files.write(tmp, bytes);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getSize() {
+        synchronized (index) {
+            return totalSize;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Download bandwidth caps, bound from the {@code bandwidth} section of
+ * application.yml. Rates are in bytes per second; 0 means unlimited. The caps
+ * can be changed at runtime through the {@code bandwidth} Actuator endpoint.
+ */
+@Data
+@ConfigurationProperties(prefix = "bandwidth")
+public class BandwidthProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Cap for all downloads together.
+     */
+    private long total = 0;
+
+    /**
+     * Cap for each download task.
+     */
+    private long perTask = 0;
+
+    /**
+     * Caps for specific hosts, keyed by host name.
+     */
+    private Map<String, Long> hosts = new HashMap<>();
+
+    /**
+     * How much transfer time a bucket may save up while idle.
+     */
+    private Duration burst = Duration.ofMillis(200);
+
+    /**
+     * How often the total is shared out again between the running tasks.
+     */
+    private Duration rebalanceInterval = Duration.ofMillis(200);
+}
@@ -0,0 +1,30 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the conditional-request cache for API fetches, bound from the
+ * {@code cache} section of application.yml.
+ */
+@Data
+@ConfigurationProperties(prefix = "cache")
+public class CacheProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Directory the cached responses are stored in.
+     */
+    private String directory = ".cache/http";
+
+    /**
+     * Total size of cached bodies; least recently used entries are evicted beyond it.
+     */
+    private long maxSize = 256L * 1024 * 1024;
+
+    /**
+     * Responses larger than this are not cached.
+     */
+    private long maxEntrySize = 8L * 1024 * 1024;
+}
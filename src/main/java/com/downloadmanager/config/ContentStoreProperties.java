@@ -0,0 +1,41 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the content-addressed store of finished downloads, bound from the
+ * {@code content-store} section of application.yml.
+ */
+@Data
+@ConfigurationProperties(prefix = "content-store")
+public class ContentStoreProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Directory the stored files and the index are kept in.
+     */
+    private String directory = ".cache/content";
+
+    /**
+     * Total size of stored files; least recently used files are evicted beyond it.
+     */
+    private long maxSize = 10L * 1024 * 1024 * 1024;
+
+    /**
+     * Whether files are shared with the download directory as hard links. When
+     * off, or when the two directories are on different file systems, files
+     * are copied. Links save space, but a program that edits a downloaded file
+     * in place changes the stored copy with it.
+     */
+    private boolean hardLinks = false;
+
+    /**
+     * Whether a strong ETag and size seen before under another URL of the same
+     * host count as the same file. Only taken when the task's expected digest
+     * confirms the stored file, because servers that derive ETags from size and
+     * modification time produce false matches.
+     */
+    private boolean matchEtag = false;
+}
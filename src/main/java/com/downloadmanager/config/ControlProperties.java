@@ -0,0 +1,41 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for the local control API of daemon mode, bound from the
+ * {@code control} section of application.yml. Starting with {@code --daemon}
+ * sets {@code control.enabled}.
+ */
+@Data
+@ConfigurationProperties(prefix = "control")
+public class ControlProperties {
+
+    /**
+     * Whether the control API is started.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Address the API binds to. It has no authentication, so keep it on loopback.
+     */
+    private String address = "127.0.0.1";
+
+    /**
+     * Port the API binds to.
+     */
+    private int port = 9465;
+
+    /**
+     * Number of submitted downloads and fetch jobs whose final status is kept for queries.
+     */
+    private int history = 10000;
+
+    /**
+     * How often the event stream reports progress.
+     */
+    private Duration eventInterval = Duration.ofSeconds(1);
+}
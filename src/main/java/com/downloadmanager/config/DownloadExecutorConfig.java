@@ -0,0 +1,64 @@
+package com.downloadmanager.config;
+
+import com.downloadmanager.queue.InMemoryQueueStore;
+import com.downloadmanager.queue.JournalQueueStore;
+import com.downloadmanager.queue.QueueStore;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors that downloads run on and the store that persists the queue.
+ */
+@Configuration
+@EnableConfigurationProperties(DownloadProperties.class)
+public class DownloadExecutorConfig {
+
+    /**
+     * Worker executor for downloads. The number of downloads running at once is
+     * limited by {@code DownloadQueueService}, so the virtual thread variant is
+     * unbounded and the platform variant is sized to the same limit.
+     * Shutdown is driven by {@code DownloadQueueService}, which drains it first.
+     */
+    @Bean(name = "downloadExecutor", destroyMethod = "shutdown")
+    public ExecutorService downloadExecutor(DownloadProperties properties) {
+        if (properties.getExecutor() == DownloadProperties.ExecutorType.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("download-", 1).factory());
+        }
+        return Executors.newFixedThreadPool(properties.getMaxConcurrent(),
+                Thread.ofPlatform().name("download-", 1).factory());
+    }
+
+    /**
+     * Persistence for the download queue.
+     */
+    @Bean(destroyMethod = "close")
+    public QueueStore queueStore(DownloadProperties properties) {
+        DownloadProperties.QueueStoreSettings settings = properties.getQueueStore();
+        if (settings.getType() == DownloadProperties.QueueStoreType.MEMORY) {
+            return new InMemoryQueueStore();
+        }
+        return new JournalQueueStore(Paths.get(settings.getPath()),
+                settings.getFlushInterval(), settings.getBatchSize());
+    }
+
+    /**
+     * Shared pool that fetches the byte ranges of segmented downloads. Kept
+     * separate from the download executor so that a download waiting on its
+     * segments never holds the threads those segments need.
+     */
+    @Bean(name = "segmentExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService segmentExecutor(DownloadProperties properties) {
+        if (properties.getExecutor() == DownloadProperties.ExecutorType.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("segment-", 1).factory());
+        }
+        return Executors.newFixedThreadPool(properties.getSegments().getPoolSize(),
+                Thread.ofPlatform().name("segment-", 1).daemon().factory());
+    }
+}
@@ -0,0 +1,196 @@
+package com.downloadmanager.config;
+
+import com.downloadmanager.queue.SchedulingPolicy;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Download settings bound from the {@code download} section of application.yml.
+ */
+@Data
+@ConfigurationProperties(prefix = "download")
+public class DownloadProperties {
+
+    /**
+     * Maximum number of downloads running at the same time.
+     */
+    private int maxConcurrent = 3;
+
+    /**
+     * Directory the downloaded files are written to.
+     */
+    private String directory = "downloads";
+
+    /**
+     * Maximum number of tasks waiting in the queue. Callers adding to a full
+     * queue block until a slot frees up.
+     */
+    private int queueCapacity = 10_000;
+
+    /**
+     * Order in which queued tasks are started.
+     */
+    private SchedulingPolicy schedulingPolicy = SchedulingPolicy.STRICT_PRIORITY;
+
+    /**
+     * Kind of threads the download workers run on.
+     */
+    private ExecutorType executor = ExecutorType.PLATFORM;
+
+    /**
+     * How long shutdown waits for running downloads to finish.
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Multi-connection download settings.
+     */
+    private Segments segments = new Segments();
+
+    @Data
+    public static class Segments {
+
+        /**
+         * Whether large files are fetched as parallel byte ranges when the server supports it.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Number of byte ranges a file is split into.
+         */
+        private int count = 4;
+
+        /**
+         * Files smaller than this are always downloaded over a single connection.
+         */
+        private long minSize = 16L * 1024 * 1024;
+
+        /**
+         * Threads in the shared segment pool when running on platform threads.
+         */
+        private int poolSize = 16;
+    }
+
+    /**
+     * Settings for downloading one file from several mirrors at once.
+     */
+    private Mirrors mirrors = new Mirrors();
+
+    @Data
+    public static class Mirrors {
+
+        /**
+         * Whether tasks with mirrors fetch byte ranges from all of them at once.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Connections opened to each mirror.
+         */
+        private int connectionsPerSource = 2;
+
+        /**
+         * Size of the byte ranges handed out to the connections.
+         */
+        private long chunkSize = 4L * 1024 * 1024;
+
+        /**
+         * Smallest unfinished range that an idle connection takes half of from a slower mirror.
+         */
+        private long minStealSize = 1024 * 1024;
+
+        /**
+         * Bytes a mirror must have delivered before its throughput is judged.
+         */
+        private long evaluateAfter = 2L * 1024 * 1024;
+
+        /**
+         * A mirror slower than this fraction of the fastest one gets no new ranges.
+         */
+        private double slowRatio = 0.25;
+    }
+
+    /**
+     * Settings for the copy loop that moves response bytes to disk.
+     */
+    private Io io = new Io();
+
+    @Data
+    public static class Io {
+
+        /**
+         * Size of each transfer buffer. Larger buffers mean fewer write calls.
+         */
+        private int bufferSize = 256 * 1024;
+
+        /**
+         * Whether transfer buffers are allocated off-heap, which saves a copy on every file write.
+         */
+        private boolean directBuffers = true;
+
+        /**
+         * Maximum number of idle buffers kept for reuse.
+         */
+        private int poolSize = 64;
+
+        /**
+         * How segmented downloads write into their preallocated file. MAPPED
+         * leaves the file mapped until the windows are garbage collected, so
+         * it is not suitable where mapped files cannot be renamed or deleted,
+         * such as Windows.
+         */
+        private SinkType sink = SinkType.CHANNEL;
+
+        /**
+         * Size of each mapped window when the sink is MAPPED.
+         */
+        private long mappedWindowSize = 64L * 1024 * 1024;
+    }
+
+    /**
+     * Where the queue is persisted.
+     */
+    private QueueStoreSettings queueStore = new QueueStoreSettings();
+
+    @Data
+    public static class QueueStoreSettings {
+
+        /**
+         * JOURNAL keeps the queue in an append-only log that survives restarts,
+         * MEMORY keeps nothing.
+         */
+        private QueueStoreType type = QueueStoreType.JOURNAL;
+
+        /**
+         * The log file.
+         */
+        private String path = ".queue/downloads.log";
+
+        /**
+         * Longest time a queue change waits before it is forced to disk.
+         */
+        private Duration flushInterval = Duration.ofMillis(10);
+
+        /**
+         * Most records written and forced to disk together.
+         */
+        private int batchSize = 4096;
+    }
+
+    public enum QueueStoreType {
+        JOURNAL,
+        MEMORY
+    }
+
+    public enum SinkType {
+        CHANNEL,
+        MAPPED
+    }
+
+    public enum ExecutorType {
+        PLATFORM,
+        VIRTUAL
+    }
+}
@@ -0,0 +1,33 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for API fetch jobs, bound from the {@code fetch} section of application.yml.
+ */
+@Data
+@ConfigurationProperties(prefix = "fetch")
+public class FetchProperties {
+
+    /**
+     * Kind of threads fetch jobs run on. Platform threads use a fixed pool of
+     * {@code workers}; virtual threads start one thread per job.
+     */
+    private DownloadProperties.ExecutorType executor = DownloadProperties.ExecutorType.PLATFORM;
+
+    /**
+     * Number of fetch jobs running at the same time on platform threads, across all orgs.
+     */
+    private int workers = 8;
+
+    /**
+     * Number of fetch jobs running at the same time on virtual threads, across all orgs.
+     */
+    private int maxInFlight = 10_000;
+
+    /**
+     * Maximum number of pages of one list job requested at the same time.
+     */
+    private int pageParallelism = 8;
+}
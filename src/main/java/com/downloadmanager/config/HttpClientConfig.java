@@ -1,19 +1,55 @@
 package com.downloadmanager.config;
 
+import com.downloadmanager.auth.AuthInterceptor;
+import com.downloadmanager.cache.ConditionalCacheInterceptor;
+import com.downloadmanager.metrics.HttpMetricsInterceptor;
+import com.downloadmanager.ratelimit.RateLimitInterceptor;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Creates the single OkHttp client shared by all services. Services that need
+ * different settings derive a client with {@link OkHttpClient#newBuilder()},
+ * which keeps the same connection pool and dispatcher.
+ */
 @Configuration
+@EnableConfigurationProperties(HttpClientProperties.class)
 public class HttpClientConfig {
     @Bean
-    public OkHttpClient build(){
+    public OkHttpClient build(HttpClientProperties properties,
+                              ConditionalCacheInterceptor cacheInterceptor,
+                              AuthInterceptor authInterceptor,
+                              RateLimitInterceptor rateLimitInterceptor,
+                              HttpMetricsInterceptor metricsInterceptor){
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(properties.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(properties.getMaxRequestsPerHost());
+
         return new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(60, TimeUnit.SECONDS)
+                .connectTimeout(properties.getConnectTimeout())
+                .readTimeout(properties.getReadTimeout())
+                .writeTimeout(properties.getWriteTimeout())
+                .connectionPool(new ConnectionPool(properties.getMaxIdleConnections(),
+                        properties.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(properties.isPreferHttp2()
+                        ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : List.of(Protocol.HTTP_1_1))
+                // Revalidations still count against rate limits, so the cache sits outside
+                .addInterceptor(cacheInterceptor)
+                // Before rate limiting, which keys the org budget by the chosen token
+                .addInterceptor(authInterceptor)
+                .addInterceptor(rateLimitInterceptor)
+                // Network level, so only requests that hit the wire are timed
+                .addNetworkInterceptor(metricsInterceptor)
                 .build();
     }
 }
@@ -0,0 +1,67 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings of the shared OkHttp client, bound from the {@code http-client}
+ * section of application.yml.
+ */
+@Data
+@ConfigurationProperties(prefix = "http-client")
+public class HttpClientProperties {
+
+    private Duration connectTimeout = Duration.ofSeconds(30);
+    private Duration readTimeout = Duration.ofSeconds(60);
+    private Duration writeTimeout = Duration.ofSeconds(60);
+
+    /**
+     * Idle connections kept open for reuse, across all hosts.
+     */
+    private int maxIdleConnections = 32;
+
+    /**
+     * How long an idle connection is kept before it is closed.
+     */
+    private Duration keepAlive = Duration.ofMinutes(5);
+
+    /**
+     * Maximum concurrent asynchronous calls. OkHttp applies this limit to
+     * enqueued calls only; blocking calls are limited by the callers' pools.
+     */
+    private int maxRequests = 256;
+
+    /**
+     * Maximum concurrent asynchronous calls per host.
+     */
+    private int maxRequestsPerHost = 32;
+
+    /**
+     * Whether HTTP/2 is offered, so that calls to the same host share one
+     * multiplexed connection.
+     */
+    private boolean preferHttp2 = true;
+
+    /**
+     * Overrides for file downloads.
+     */
+    private Download download = new Download();
+
+    @Data
+    public static class Download {
+
+        /**
+         * Read timeout for file downloads, or unset to use the shared one.
+         */
+        private Duration readTimeout;
+
+        /**
+         * Whether downloads may use HTTP/2. Off by default, because the segments
+         * of a download would be multiplexed onto a single connection and lose
+         * the benefit of fetching them over separate ones.
+         */
+        private boolean preferHttp2 = false;
+    }
+}
@@ -0,0 +1,20 @@
+package com.downloadmanager.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Creates the {@link ObjectMapper} the services share. Spring Boot only
+ * auto-configures one when spring-web is on the classpath, which this command
+ * line application does not use.
+ */
+@Configuration
+public class JacksonConfig {
+
+    @Bean
+    public ObjectMapper objectMapper() {
+        // Registers the modules on the classpath, e.g. java.time support
+        return new ObjectMapper().findAndRegisterModules();
+    }
+}
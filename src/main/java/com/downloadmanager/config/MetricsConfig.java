@@ -0,0 +1,88 @@
+package com.downloadmanager.config;
+
+import com.downloadmanager.cache.ContentStore;
+import com.downloadmanager.cache.HttpCacheStore;
+import com.downloadmanager.io.BufferPool;
+import com.downloadmanager.service.DownloadQueueService;
+import com.downloadmanager.service.FetchScheduler;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Binds gauges over state that the queue, buffer pool, fetch scheduler,
+ * response cache and content store already track. The meters read that state when scraped, so
+ * nothing extra happens on the hot paths.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder downloadQueueMetrics(DownloadQueueService queueService) {
+        return registry -> {
+            Gauge.builder("download.queue.depth", queueService, DownloadQueueService::getQueueSize)
+                    .description("Tasks waiting in the download queue, including paused ones")
+                    .register(registry);
+            Gauge.builder("download.active", queueService, DownloadQueueService::getActiveDownloads)
+                    .description("Downloads currently running")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder bufferPoolMetrics(BufferPool bufferPool) {
+        return registry -> {
+            Gauge.builder("download.buffers.in.use", bufferPool, BufferPool::getInUse)
+                    .description("Transfer buffers handed out")
+                    .register(registry);
+            Gauge.builder("download.buffers.idle", bufferPool, BufferPool::getIdle)
+                    .description("Transfer buffers waiting in the pool")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder fetchSchedulerMetrics(FetchScheduler fetchScheduler) {
+        return registry -> Gauge.builder("fetch.jobs.pending", fetchScheduler, FetchScheduler::getPendingJobs)
+                .description("Fetch jobs waiting for a worker")
+                .register(registry);
+    }
+
+    @Bean
+    public MeterBinder responseCacheMetrics(HttpCacheStore cacheStore) {
+        return registry -> {
+            FunctionCounter.builder("http.cache.hits", cacheStore, HttpCacheStore::getHits)
+                    .description("API responses served from the cache after a 304")
+                    .register(registry);
+            FunctionCounter.builder("http.cache.misses", cacheStore, HttpCacheStore::getMisses)
+                    .register(registry);
+            FunctionCounter.builder("http.cache.evictions", cacheStore, HttpCacheStore::getEvictions)
+                    .register(registry);
+            Gauge.builder("http.cache.size", cacheStore, HttpCacheStore::getSize)
+                    .baseUnit("bytes")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder contentStoreMetrics(ContentStore contentStore) {
+        return registry -> {
+            FunctionCounter.builder("content.store.hits", contentStore, ContentStore::getHits)
+                    .description("Downloads placed from the content store instead of fetched")
+                    .register(registry);
+            FunctionCounter.builder("content.store.misses", contentStore, ContentStore::getMisses)
+                    .register(registry);
+            FunctionCounter.builder("content.store.saved", contentStore, ContentStore::getSavedBytes)
+                    .baseUnit("bytes")
+                    .description("Bytes not downloaded thanks to the content store")
+                    .register(registry);
+            FunctionCounter.builder("content.store.evictions", contentStore, ContentStore::getEvictions)
+                    .register(registry);
+            Gauge.builder("content.store.size", contentStore, ContentStore::getSize)
+                    .baseUnit("bytes")
+                    .register(registry);
+        };
+    }
+}
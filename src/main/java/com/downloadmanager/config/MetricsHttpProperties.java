@@ -0,0 +1,34 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for the Prometheus scrape listener, bound from the
+ * {@code metrics.http} section of application.yml. The application has no web
+ * server, so the scrape output is served by a small JDK HTTP server instead.
+ */
+@Data
+@ConfigurationProperties(prefix = "metrics.http")
+public class MetricsHttpProperties {
+
+    /**
+     * Whether the scrape listener is started.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Address the listener binds to.
+     */
+    private String address = "127.0.0.1";
+
+    /**
+     * Port the listener binds to.
+     */
+    private int port = 9464;
+
+    /**
+     * Path the scrape output is served on.
+     */
+    private String path = "/metrics";
+}
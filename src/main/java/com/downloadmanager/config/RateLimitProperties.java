@@ -0,0 +1,47 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Request rate limits, bound from the {@code rate-limit} section of application.yml.
+ */
+@Data
+@ConfigurationProperties(prefix = "rate-limit")
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Default limit for every host.
+     */
+    private Limit host = new Limit(50, 50);
+
+    /**
+     * Default limit for the API requests of every org.
+     */
+    private Limit org = new Limit(1.4, 20);
+
+    /**
+     * Limits for specific hosts, keyed by host name.
+     */
+    private Map<String, Limit> hosts = new HashMap<>();
+
+    @Data
+    public static class Limit {
+
+        private double permitsPerSecond;
+        private double burst;
+
+        public Limit() {
+        }
+
+        public Limit(double permitsPerSecond, double burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+    }
+}
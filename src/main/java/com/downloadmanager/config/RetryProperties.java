@@ -0,0 +1,56 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Retry and circuit breaker settings, bound from the {@code retry} section of application.yml.
+ */
+@Data
+@ConfigurationProperties(prefix = "retry")
+public class RetryProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Attempts per download or request, including the first one.
+     */
+    private int maxAttempts = 5;
+
+    /**
+     * Upper bound of the backoff before the first retry.
+     */
+    private Duration initialBackoff = Duration.ofMillis(500);
+
+    /**
+     * Upper bound of any backoff, unless the server asks for longer with {@code Retry-After}.
+     */
+    private Duration maxBackoff = Duration.ofSeconds(30);
+
+    private double multiplier = 2.0;
+
+    /**
+     * A {@code Retry-After} longer than this fails the attempt instead of waiting.
+     */
+    private Duration maxRetryAfter = Duration.ofMinutes(5);
+
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    @Data
+    public static class CircuitBreaker {
+
+        private boolean enabled = true;
+
+        /**
+         * Consecutive host failures that open the circuit.
+         */
+        private int failureThreshold = 5;
+
+        /**
+         * How long an open circuit rejects calls before letting a trial call through.
+         */
+        private Duration openDuration = Duration.ofSeconds(30);
+    }
+}
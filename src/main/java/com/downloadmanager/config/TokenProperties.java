@@ -0,0 +1,37 @@
+package com.downloadmanager.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * API credential settings, bound from the {@code tokens} section of application.yml.
+ */
+@Data
+@ConfigurationProperties(prefix = "tokens")
+public class TokenProperties {
+
+    /**
+     * Authorization scheme the token is sent with.
+     */
+    private String scheme = "Bearer";
+
+    /**
+     * Static tokens per org. Several tokens for one org are used side by side.
+     */
+    private Map<String, List<String>> orgs = new HashMap<>();
+
+    /**
+     * Credentials expiring within this time are refreshed in the background.
+     */
+    private Duration refreshAhead = Duration.ofMinutes(5);
+
+    /**
+     * How often the background refresher checks for expiring credentials.
+     */
+    private Duration checkInterval = Duration.ofSeconds(30);
+}
@@ -0,0 +1,147 @@
+package com.downloadmanager.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line client of the daemon's control API, run as
+ * {@code java -jar download-manager.jar ctl <command>}. It uses only the JDK's
+ * HTTP client and never starts Spring, so a command costs little more than
+ * JVM startup. Responses are printed as the daemon sends them.
+ * <pre>
+ * ctl submit &lt;entry&gt;...              queue entries (url, url|mirror, url|digest=...)
+ * ctl submit --input=&lt;file&gt;|-        queue the entries of a list, streamed to the daemon
+ * ctl status [id]                    queue overview, or one download
+ * ctl pause|resume|cancel &lt;id&gt;
+ * ctl priority &lt;id&gt; &lt;n&gt;
+ * ctl fetch &lt;json&gt;|@&lt;file&gt;           schedule a fetch job
+ * ctl fetch-status &lt;id&gt;
+ * ctl events                         print status and progress events until interrupted
+ * </pre>
+ * {@code --control=<host:port>} selects the daemon, by default 127.0.0.1:9465.
+ */
+public final class ControlClient {
+
+    public static final String COMMAND = "ctl";
+    private static final String CONTROL_OPTION = "--control=";
+    private static final String INPUT_OPTION = "--input=";
+
+    private ControlClient() {
+    }
+
+    /**
+     * @param args The arguments after {@value #COMMAND}
+     * @return Exit code: 0 on success, 1 if the daemon refused the request,
+     *         2 on bad usage or when no daemon is reachable
+     */
+    public static int run(String[] args) {
+        String address = "127.0.0.1:9465";
+        List<String> words = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(CONTROL_OPTION)) {
+                address = arg.substring(CONTROL_OPTION.length());
+            } else {
+                words.add(arg);
+            }
+        }
+        if (words.isEmpty()) {
+            return usage();
+        }
+        String base = "http://" + address;
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        try {
+            HttpRequest request = request(base, words);
+            if (request == null) {
+                return usage();
+            }
+            if (words.get(0).equals("events")) {
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream body = response.body()) {
+                    body.transferTo(System.out);
+                }
+                return response.statusCode() == 200 ? 0 : 1;
+            }
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            System.out.println(response.body());
+            return response.statusCode() / 100 == 2 ? 0 : 1;
+        } catch (ConnectException e) {
+            System.err.println("No daemon listening on " + address + " (start one with --daemon)");
+            return 2;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Request failed: " + e.getMessage());
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    private static HttpRequest request(String base, List<String> words) throws IOException {
+        String command = words.get(0);
+        List<String> params = words.subList(1, words.size());
+        return switch (command) {
+            case "submit" -> params.isEmpty() ? null : post(base + "/downloads", submitBody(params));
+            case "status" -> get(base + (params.isEmpty() ? "/status" : "/downloads/" + params.get(0)));
+            case "pause", "resume", "cancel" -> params.size() != 1 ? null
+                    : post(base + "/downloads/" + params.get(0) + "/" + command, HttpRequest.BodyPublishers.noBody());
+            case "priority" -> params.size() != 2 ? null
+                    : post(base + "/downloads/" + params.get(0) + "/priority?value=" + params.get(1),
+                    HttpRequest.BodyPublishers.noBody());
+            case "fetch" -> params.size() != 1 ? null : postJson(base + "/fetches", fetchBody(params.get(0)));
+            case "fetch-status" -> params.size() != 1 ? null : get(base + "/fetches/" + params.get(0));
+            case "events" -> get(base + "/events");
+            default -> null;
+        };
+    }
+
+    private static HttpRequest.BodyPublisher submitBody(List<String> params) throws IOException {
+        if (params.size() == 1 && params.get(0).startsWith(INPUT_OPTION)) {
+            String input = params.get(0).substring(INPUT_OPTION.length());
+            // Streamed, so a large list is not loaded into memory
+            return input.equals("-")
+                    ? HttpRequest.BodyPublishers.ofInputStream(() -> System.in)
+                    : HttpRequest.BodyPublishers.ofFile(Paths.get(input));
+        }
+        return HttpRequest.BodyPublishers.ofString(String.join("\n", params), StandardCharsets.UTF_8);
+    }
+
+    private static HttpRequest.BodyPublisher fetchBody(String param) throws IOException {
+        String json = param.startsWith("@") ? Files.readString(Paths.get(param.substring(1))) : param;
+        return HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8);
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).GET().build();
+    }
+
+    private static HttpRequest post(String url, HttpRequest.BodyPublisher body) {
+        return HttpRequest.newBuilder(URI.create(url)).POST(body).build();
+    }
+
+    private static HttpRequest postJson(String url, HttpRequest.BodyPublisher body) {
+        return HttpRequest.newBuilder(URI.create(url)).header("Content-Type", "application/json").POST(body).build();
+    }
+
+    private static int usage() {
+        System.err.println("Usage: java -jar download-manager.jar ctl [--control=host:port] <command>");
+        System.err.println("  submit <entry>... | submit --input=<file>|-");
+        System.err.println("  status [id]");
+        System.err.println("  pause|resume|cancel <id>");
+        System.err.println("  priority <id> <n>");
+        System.err.println("  fetch <json>|@<file>");
+        System.err.println("  fetch-status <id>");
+        System.err.println("  events");
+        return 2;
+    }
+}
@@ -0,0 +1,411 @@
+package com.downloadmanager.control;
+
+import com.downloadmanager.config.ControlProperties;
+import com.downloadmanager.config.DownloadProperties;
+import com.downloadmanager.io.NdjsonItemSink;
+import com.downloadmanager.metrics.DownloadsEndpoint;
+import com.downloadmanager.model.AbstractFetch;
+import com.downloadmanager.model.DownloadTask;
+import com.downloadmanager.model.FetchDataCount;
+import com.downloadmanager.model.FetchDataItems;
+import com.downloadmanager.service.DownloadQueueService;
+import com.downloadmanager.service.FetchScheduler;
+import com.downloadmanager.service.UrlIngestor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local control API of daemon mode, served by a small JDK HTTP server like the
+ * Prometheus listener. A running instance takes new work through it, so short
+ * batches do not pay for JVM and Spring startup each time. Requests run on
+ * virtual threads, since event streams stay open for as long as the client
+ * listens. The server must be up even when nothing else asks for this bean,
+ * hence {@code @Lazy(false)}.
+ *
+ * <p>The API has no authentication, so it only serves local clients that are
+ * not browsers: requests with an {@code Origin} header or a {@code Host} other
+ * than a loopback name are refused, which stops cross-site requests and DNS
+ * rebinding, and {@code POST /fetches} needs {@code Content-Type: application/json},
+ * which a cross-site form cannot send without a preflight.
+ * <pre>
+ * GET  /status                     queue, running downloads and fetch jobs
+ * POST /downloads                  queue entries, one per line (as in URL lists)
+ * GET  /downloads/{id}             state of a download
+ * POST /downloads/{id}/pause       hold a queued download back
+ * POST /downloads/{id}/resume      release a paused download
+ * POST /downloads/{id}/cancel      drop a queued download
+ * POST /downloads/{id}/priority?value=N
+ * POST /fetches                    schedule a fetch job, see {@link FetchRequest}
+ * GET  /fetches/{id}               state of a fetch job
+ * GET  /events                     server-sent events: status changes and progress
+ * </pre>
+ */
+@Component
+@Lazy(false)
+@EnableConfigurationProperties(ControlProperties.class)
+@Slf4j
+public class ControlServer {
+
+    private static final String JSON = "application/json";
+    private static final int MAX_RETURNED_IDS = 1000;
+
+    private final ControlProperties properties;
+    private final DownloadQueueService queueService;
+    private final UrlIngestor urlIngestor;
+    private final FetchScheduler fetchScheduler;
+    private final DownloadsEndpoint downloadsEndpoint;
+    private final ObjectMapper objectMapper;
+    private final Path outputDirectory;
+    private final Map<Integer, DownloadTask> submittedDownloads;
+    private final Map<String, AbstractFetch> submittedFetches;
+    private final AtomicLong fetchIds = new AtomicLong();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile boolean running = true;
+
+    public ControlServer(ControlProperties properties,
+                         DownloadProperties downloadProperties,
+                         DownloadQueueService queueService,
+                         UrlIngestor urlIngestor,
+                         FetchScheduler fetchScheduler,
+                         DownloadsEndpoint downloadsEndpoint,
+                         ObjectMapper objectMapper) {
+        this.properties = properties;
+        this.queueService = queueService;
+        this.urlIngestor = urlIngestor;
+        this.fetchScheduler = fetchScheduler;
+        this.downloadsEndpoint = downloadsEndpoint;
+        this.objectMapper = objectMapper;
+        this.outputDirectory = Paths.get(downloadProperties.getDirectory()).toAbsolutePath().normalize();
+        this.submittedDownloads = history(properties.getHistory());
+        this.submittedFetches = history(properties.getHistory());
+        if (!properties.isEnabled()) {
+            this.server = null;
+            this.executor = null;
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(properties.getAddress(), properties.getPort()), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to bind control API on "
+                    + properties.getAddress() + ":" + properties.getPort(), e);
+        }
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        log.info("Control API listening on http://{}:{}", properties.getAddress(), properties.getPort());
+    }
+
+    /**
+     * Map that forgets its oldest entries beyond the given size.
+     */
+    private static <K, V> Map<K, V> history(int limit) {
+        return Collections.synchronizedMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > limit;
+            }
+        });
+    }
+
+    /**
+     * A fetch job to schedule. {@code type} is {@code COUNT} or {@code ITEMS};
+     * the items of an {@code ITEMS} job are written as NDJSON to {@code output},
+     * a path inside the download directory.
+     */
+    public record FetchRequest(String type, AbstractFetch.Job job, String org, String url,
+                               Integer perPage, Long lastPage, String output) {
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+            if (exchange.getRequestHeaders().containsKey("Origin")
+                    || !isLoopbackHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                log.warn("Refused control request {} {} from a browser or for a non-loopback host",
+                        method, exchange.getRequestURI().getPath());
+                respond(exchange, 403, Map.of("error", "Only local non-browser clients may use the control API"));
+                return;
+            }
+            try {
+                route(exchange, method, path);
+            } catch (IllegalArgumentException | JsonProcessingException e) {
+                respond(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, Map.of("error", "Interrupted"));
+            } catch (IllegalStateException e) {
+                respond(exchange, 503, Map.of("error", String.valueOf(e.getMessage())));
+            }
+        }
+    }
+
+    private void route(HttpExchange exchange, String method, String[] path) throws IOException, InterruptedException {
+        String resource = path[0];
+        if (method.equals("GET") && resource.equals("status") && path.length == 1) {
+            respond(exchange, 200, Map.of(
+                    "downloads", downloadsEndpoint.downloads(),
+                    "fetches", Map.of("pending", fetchScheduler.getPendingJobs(),
+                            "running", fetchScheduler.getRunningJobs())));
+        } else if (method.equals("GET") && resource.equals("events") && path.length == 1) {
+            streamEvents(exchange);
+        } else if (resource.equals("downloads") && path.length == 1 && method.equals("POST")) {
+            submitDownloads(exchange);
+        } else if (resource.equals("downloads") && path.length == 2 && method.equals("GET")) {
+            DownloadTask task = findDownload(Integer.parseInt(path[1]));
+            if (task == null) {
+                respond(exchange, 404, Map.of("error", "Unknown download " + path[1]));
+            } else {
+                respond(exchange, 200, DownloadsEndpoint.TaskState.of(task));
+            }
+        } else if (resource.equals("downloads") && path.length == 3 && method.equals("POST")) {
+            int id = Integer.parseInt(path[1]);
+            boolean done = switch (path[2]) {
+                case "pause" -> queueService.pause(id);
+                case "resume" -> queueService.resume(id);
+                case "cancel" -> queueService.cancel(id);
+                case "priority" -> queueService.reprioritize(id, Integer.parseInt(queryValue(exchange)));
+                default -> throw new IllegalArgumentException("Unknown action " + path[2]);
+            };
+            // Only queued downloads can be changed
+            respond(exchange, done ? 200 : 409, Map.of("id", id, "done", done));
+        } else if (resource.equals("fetches") && path.length == 1 && method.equals("POST")) {
+            submitFetch(exchange);
+        } else if (resource.equals("fetches") && path.length == 2 && method.equals("GET")) {
+            AbstractFetch job = submittedFetches.get(path[1]);
+            if (job == null) {
+                respond(exchange, 404, Map.of("error", "Unknown fetch job " + path[1]));
+            } else {
+                respond(exchange, 200, job);
+            }
+        } else {
+            respond(exchange, 404, Map.of("error", "No route for " + method + " " + exchange.getRequestURI().getPath()));
+        }
+    }
+
+    private void submitDownloads(HttpExchange exchange) throws IOException, InterruptedException {
+        List<Integer> ids = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        // Streamed like a list file: a large batch waits for queue space while it is read
+        long queued = urlIngestor.ingest("control request", reader, task -> {
+            submittedDownloads.put(task.getId(), task);
+            if (ids.size() < MAX_RETURNED_IDS) {
+                ids.add(task.getId());
+            }
+        });
+        respond(exchange, 200, Map.of("queued", queued, "ids", ids));
+    }
+
+    private void submitFetch(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null || !contentType.split(";")[0].trim().equalsIgnoreCase(JSON)) {
+            respond(exchange, 415, Map.of("error", "Fetch job must be sent as " + JSON));
+            return;
+        }
+        FetchRequest request = objectMapper.readValue(exchange.getRequestBody(), FetchRequest.class);
+        if (request.url() == null) {
+            throw new IllegalArgumentException("Fetch job needs a url");
+        }
+        String id = "f" + fetchIds.incrementAndGet();
+        AbstractFetch job;
+        if ("COUNT".equalsIgnoreCase(request.type())) {
+            FetchDataCount count = new FetchDataCount();
+            fill(count, id, request);
+            fetchScheduler.submit(count);
+            job = count;
+        } else if ("ITEMS".equalsIgnoreCase(request.type())) {
+            if (request.output() == null) {
+                throw new IllegalArgumentException("ITEMS job needs an output file");
+            }
+            FetchDataItems items = new FetchDataItems();
+            fill(items, id, request);
+            if (request.perPage() != null) {
+                items.setPerPage(request.perPage());
+            }
+            if (request.lastPage() != null) {
+                items.setLastPage(request.lastPage());
+            }
+            NdjsonItemSink sink = new NdjsonItemSink(objectMapper, outputPath(request.output()));
+            fetchScheduler.submit(items, sink).whenComplete((result, error) -> {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close output of fetch job {}: {}", id, e.getMessage());
+                }
+            });
+            job = items;
+        } else {
+            throw new IllegalArgumentException("Fetch type must be COUNT or ITEMS");
+        }
+        submittedFetches.put(id, job);
+        log.info("Scheduled {} fetch job {}: {}", request.type(), id, request.url());
+        respond(exchange, 200, Map.of("id", id));
+    }
+
+    /**
+     * Resolves an output file against the download directory.
+     *
+     * @throws IllegalArgumentException if the file would be outside the directory
+     */
+    private Path outputPath(String output) {
+        Path path = outputDirectory.resolve(output).normalize();
+        if (!path.startsWith(outputDirectory) || path.equals(outputDirectory)) {
+            throw new IllegalArgumentException("Output must be a file inside the download directory");
+        }
+        return path;
+    }
+
+    /**
+     * Whether a {@code Host} header names this machine's loopback interface.
+     */
+    static boolean isLoopbackHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        String name = host.trim().toLowerCase(Locale.ROOT);
+        if (name.startsWith("[")) {
+            int end = name.indexOf(']');
+            name = end < 0 ? name : name.substring(1, end);
+        } else if (name.indexOf(':') >= 0) {
+            name = name.substring(0, name.indexOf(':'));
+        }
+        return name.equals("localhost") || name.equals("::1") || name.matches("127(\\.\\d{1,3}){3}");
+    }
+
+    private static void fill(AbstractFetch job, String id, FetchRequest request) {
+        job.setId(id);
+        job.setJob(request.job());
+        job.setOrg(request.org());
+        job.setUrl(request.url());
+        job.setCreatedAt(LocalDateTime.now());
+    }
+
+    private DownloadTask findDownload(int id) {
+        for (DownloadTask task : queueService.getRunningTasks()) {
+            if (task.getId() == id) {
+                return task;
+            }
+        }
+        for (DownloadTask task : queueService.getQueuedTasks()) {
+            if (task.getId() == id) {
+                return task;
+            }
+        }
+        return submittedDownloads.get(id);
+    }
+
+    /**
+     * Streams server-sent events until the client disconnects: a {@code status}
+     * event whenever a download changes status, including its final one, and a
+     * {@code progress} event per running download every event interval.
+     */
+    private void streamEvents(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        Map<Integer, DownloadTask> watched = new HashMap<>();
+        Map<Integer, DownloadTask.Status> reported = new HashMap<>();
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (running) {
+                for (DownloadTask task : queueService.getRunningTasks()) {
+                    watched.put(task.getId(), task);
+                }
+                for (DownloadTask task : queueService.getQueuedTasks()) {
+                    watched.put(task.getId(), task);
+                }
+                StringBuilder events = new StringBuilder();
+                for (Iterator<DownloadTask> it = watched.values().iterator(); it.hasNext(); ) {
+                    DownloadTask task = it.next();
+                    DownloadTask.Status status = task.getStatus();
+                    DownloadsEndpoint.TaskState state = DownloadsEndpoint.TaskState.of(task);
+                    if (reported.put(task.getId(), status) != status) {
+                        appendEvent(events, "status", state);
+                    }
+                    if (status == DownloadTask.Status.DOWNLOADING) {
+                        appendEvent(events, "progress", state);
+                    } else if (status == DownloadTask.Status.COMPLETED || status == DownloadTask.Status.FAILED
+                            || status == DownloadTask.Status.CANCELLED) {
+                        it.remove();
+                        reported.remove(task.getId());
+                    }
+                }
+                // A comment line when idle, so a closed connection is noticed
+                out.write((events.isEmpty() ? ":\n\n" : events.toString()).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                TimeUnit.MILLISECONDS.sleep(properties.getEventInterval().toMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.debug("Event stream closed: {}", e.getMessage());
+        }
+    }
+
+    private void appendEvent(StringBuilder events, String name, Object data) throws IOException {
+        events.append("event: ").append(name).append('\n')
+                .append("data: ").append(objectMapper.writeValueAsString(data)).append("\n\n");
+    }
+
+    private static String queryValue(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("value=")) {
+                    return param.substring("value=".length());
+                }
+            }
+        }
+        throw new IllegalArgumentException("Missing value parameter");
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
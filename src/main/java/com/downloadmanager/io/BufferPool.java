@@ -0,0 +1,87 @@
+package com.downloadmanager.io;
+
+import com.downloadmanager.config.DownloadProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized transfer buffers shared by all downloads. Direct
+ * buffers are expensive to allocate and are only freed by the garbage
+ * collector, so they are handed back here after each transfer instead of
+ * being allocated per task.
+ */
+@Component
+@Slf4j
+public class BufferPool {
+
+    private final Queue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final int bufferSize;
+    private final boolean direct;
+    private final int maxIdle;
+
+    public BufferPool(DownloadProperties properties) {
+        this.bufferSize = properties.getIo().getBufferSize();
+        this.direct = properties.getIo().isDirectBuffers();
+        this.maxIdle = properties.getIo().getPoolSize();
+        log.info("Transfer buffers: {} bytes, {}, up to {} pooled",
+                bufferSize, direct ? "direct" : "heap", maxIdle);
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, allocating one if the pool is empty.
+     *
+     * @return A buffer ready for writing
+     */
+    public ByteBuffer acquire() {
+        inUse.incrementAndGet();
+        ByteBuffer buffer = idle.poll();
+        if (buffer != null) {
+            idleCount.decrementAndGet();
+            return buffer.clear();
+        }
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers beyond the pool size are dropped.
+     *
+     * @param buffer A buffer obtained from {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        inUse.decrementAndGet();
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(buffer);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets the number of buffers currently handed out.
+     *
+     * @return Buffers in use
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Gets the number of buffers waiting in the pool.
+     *
+     * @return Idle buffers
+     */
+    public int getIdle() {
+        return idleCount.get();
+    }
+}
@@ -0,0 +1,46 @@
+package com.downloadmanager.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sink that writes through a {@link FileChannel} with positional writes.
+ */
+public class ChannelFileSink implements FileSink {
+
+    private final FileChannel channel;
+
+    public ChannelFileSink(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Cuts the file off at the given length, dropping anything after it.
+     *
+     * @param size The new file length
+     * @throws IOException if the file cannot be truncated
+     */
+    public void truncate(long size) throws IOException {
+        channel.truncate(size);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,99 @@
+package com.downloadmanager.io;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C of a transfer. CRCs of adjacent ranges can be combined with
+ * {@link #combine(long, long, long)}, so parallel segments each keep their own
+ * CRC and the file's CRC is assembled at the end without reading it again.
+ */
+public final class Crc32cDigest implements TransferDigest {
+
+    // Reflected Castagnoli polynomial
+    private static final long POLYNOMIAL = 0x82F63B78L;
+
+    private final CRC32C crc = new CRC32C();
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        int position = buffer.position();
+        crc.update(buffer);
+        buffer.position(position);
+    }
+
+    public long value() {
+        return crc.getValue();
+    }
+
+    @Override
+    public String hex() {
+        return toHex(crc.getValue());
+    }
+
+    public static String toHex(long value) {
+        return String.format("%08x", value);
+    }
+
+    /**
+     * Computes the CRC of two adjacent ranges from the CRC of each, by applying
+     * {@code length2} zero bytes to the first CRC through repeated squaring of
+     * the CRC's shift operator over GF(2), as zlib's {@code crc32_combine} does.
+     *
+     * @param crc1 CRC of the first range
+     * @param crc2 CRC of the second range
+     * @param length2 Length of the second range in bytes
+     * @return CRC of the first range followed by the second
+     */
+    public static long combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // Operator for one zero bit
+        odd[0] = POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd); // two zero bits
+        square(odd, even); // four zero bits
+
+        // Apply length2 zero bytes, one squaring per bit of the length
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.downloadmanager.io;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Digest algorithms a download can be verified with.
+ */
+public enum DigestAlgorithm {
+
+    SHA_256("sha256", "SHA-256"),
+    MD5("md5", "MD5"),
+    CRC32C("crc32c", null);
+
+    private final String name;
+    private final String jcaName;
+
+    DigestAlgorithm(String name, String jcaName) {
+        this.name = name;
+        this.jcaName = jcaName;
+    }
+
+    /**
+     * Gets the name used in digest specs and sidecar file extensions, e.g. {@code sha256}.
+     *
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Whether digests of separate byte ranges can be combined into the digest
+     * of the whole file, so that parallel segments need not be hashed in order.
+     *
+     * @return true for CRC32C
+     */
+    public boolean isCombinable() {
+        return this == CRC32C;
+    }
+
+    /**
+     * Starts a new digest.
+     *
+     * @return An empty digest
+     */
+    public TransferDigest newDigest() {
+        if (this == CRC32C) {
+            return new Crc32cDigest();
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance(jcaName);
+            return new TransferDigest() {
+                @Override
+                public void update(ByteBuffer buffer) {
+                    int position = buffer.position();
+                    digest.update(buffer);
+                    buffer.position(position);
+                }
+
+                @Override
+                public String hex() {
+                    return HexFormat.of().formatHex(digest.digest());
+                }
+            };
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks up an algorithm by name, ignoring case and dashes ({@code SHA-256} works too).
+     *
+     * @param name The name
+     * @return The algorithm
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static DigestAlgorithm fromName(String name) {
+        String normalized = name.toLowerCase(Locale.ROOT).replace("-", "").replace("_", "");
+        for (DigestAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(normalized)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown digest algorithm: " + name);
+    }
+}
@@ -0,0 +1,28 @@
+package com.downloadmanager.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination for downloaded bytes. Writes are positional, so several
+ * segments of the same file can share one sink.
+ */
+public interface FileSink extends Closeable {
+
+    /**
+     * Writes all remaining bytes of the buffer at the given file offset.
+     *
+     * @param buffer The bytes to write, from its position to its limit
+     * @param position The file offset of the first byte
+     * @throws IOException if the write fails
+     */
+    void write(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * Flushes written bytes to the storage device.
+     *
+     * @throws IOException if the flush fails
+     */
+    void force() throws IOException;
+}
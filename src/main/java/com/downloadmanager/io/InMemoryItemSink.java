@@ -0,0 +1,29 @@
+package com.downloadmanager.io;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sink that keeps all items in a list. Only meant for small lists.
+ */
+public class InMemoryItemSink implements ItemSink {
+
+    private final List<JsonNode> items = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void accept(JsonNode item) {
+        items.add(item);
+    }
+
+    /**
+     * Gets the items received so far.
+     *
+     * @return The items in list order
+     */
+    public List<JsonNode> getItems() {
+        return items;
+    }
+}
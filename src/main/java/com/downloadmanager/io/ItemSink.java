@@ -0,0 +1,24 @@
+package com.downloadmanager.io;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the items of a list fetch one at a time, in list order. Any lambda
+ * works as a callback sink.
+ */
+@FunctionalInterface
+public interface ItemSink extends Closeable {
+
+    /**
+     * @param item The next item
+     * @throws IOException to abort the fetch
+     */
+    void accept(JsonNode item) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,92 @@
+package com.downloadmanager.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sink that copies into memory-mapped windows of a preallocated file, so that
+ * writes become memory copies and the kernel writes pages back on its own.
+ * Windows are mapped lazily on first use and shared by all writers.
+ *
+ * <p>Java cannot unmap a buffer, so the windows stay mapped after
+ * {@link #close()} until they are garbage collected. On platforms that lock
+ * mapped files, Windows in particular, renaming or deleting the file right
+ * after closing the sink can fail; use {@link ChannelFileSink} there.
+ */
+public class MappedFileSink implements FileSink {
+
+    private final FileChannel channel;
+    private final long windowSize;
+    private final long fileSize;
+    private final Map<Long, MappedByteBuffer> windows = new ConcurrentHashMap<>();
+
+    /**
+     * Opens a sink over a file that already has its final length.
+     *
+     * @param path The preallocated file
+     * @param windowSize Size of each mapped window, at most {@link Integer#MAX_VALUE}
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedFileSink(Path path, long windowSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+        this.fileSize = channel.size();
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, long position) throws IOException {
+        if (position + buffer.remaining() > fileSize) {
+            throw new IOException("Write at " + position + " past end of mapped file (" + fileSize + " bytes)");
+        }
+        while (buffer.hasRemaining()) {
+            long windowIndex = position / windowSize;
+            int offset = (int) (position - windowIndex * windowSize);
+            MappedByteBuffer window;
+            try {
+                window = window(windowIndex);
+            } catch (UncheckedIOException e) {
+                // Thrown out of computeIfAbsent; callers classify and abort on IOException
+                throw e.getCause();
+            }
+
+            int length = Math.min(buffer.remaining(), window.capacity() - offset);
+            window.put(offset, buffer, buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            position += length;
+        }
+    }
+
+    private MappedByteBuffer window(long index) {
+        return windows.computeIfAbsent(index, i -> {
+            long start = i * windowSize;
+            try {
+                return channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(windowSize, fileSize - start));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void force() {
+        windows.values().forEach(MappedByteBuffer::force);
+    }
+
+    /**
+     * Flushes the windows and closes the file. The mappings themselves are only
+     * released when the windows are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        windows.clear();
+        channel.close();
+    }
+}
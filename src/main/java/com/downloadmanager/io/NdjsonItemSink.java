@@ -0,0 +1,41 @@
+package com.downloadmanager.io;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Sink that writes each item as one line of newline-delimited JSON.
+ */
+public class NdjsonItemSink implements ItemSink {
+
+    private final JsonGenerator generator;
+
+    /**
+     * @param objectMapper Mapper used to serialise the items
+     * @param path The file to write, replaced if it exists
+     * @throws IOException if the file cannot be opened
+     */
+    public NdjsonItemSink(ObjectMapper objectMapper, Path path) throws IOException {
+        this.generator = objectMapper.getFactory()
+                .createGenerator(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+        // Separate root values by newlines instead of spaces
+        this.generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public void accept(JsonNode item) throws IOException {
+        generator.writeTree(item);
+        generator.writeRaw('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
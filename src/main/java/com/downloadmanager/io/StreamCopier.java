@@ -0,0 +1,93 @@
+package com.downloadmanager.io;
+
+import okio.BufferedSource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Copies a response body into a {@link FileSink} through pooled transfer
+ * buffers. Each buffer is filled completely before it is written, so a
+ * transfer costs one write call and one progress callback per buffer rather
+ * than per network read.
+ */
+@Component
+public class StreamCopier {
+
+    private final BufferPool bufferPool;
+
+    public StreamCopier(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Called after each buffer has been written.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * @param position File offset just past the last written byte
+         * @param bytes Number of bytes written by this buffer
+         * @throws IOException to abort the copy
+         */
+        void onWritten(long position, int bytes) throws IOException;
+    }
+
+    /**
+     * Copies the source to the sink until the source is exhausted.
+     *
+     * @param source The response body source
+     * @param sink The destination
+     * @param position File offset to start writing at
+     * @param listener Callback after each write
+     * @return File offset just past the last written byte
+     * @throws IOException if reading or writing fails
+     */
+    public long copy(BufferedSource source, FileSink sink, long position, Listener listener) throws IOException {
+        return copy(source, sink, position, null, listener);
+    }
+
+    /**
+     * Copies the source to the sink until the source is exhausted, feeding every
+     * buffer to a digest before it is written.
+     *
+     * @param source The response body source
+     * @param sink The destination
+     * @param position File offset to start writing at
+     * @param digest Digest of the copied bytes, may be null
+     * @param listener Callback after each write
+     * @return File offset just past the last written byte
+     * @throws IOException if reading or writing fails
+     */
+    public long copy(BufferedSource source, FileSink sink, long position, TransferDigest digest,
+                     Listener listener) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            boolean exhausted = false;
+            while (!exhausted) {
+                while (buffer.hasRemaining()) {
+                    if (source.read(buffer) == -1) {
+                        exhausted = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                int bytes = buffer.remaining();
+                if (bytes > 0) {
+                    if (digest != null) {
+                        digest.update(buffer);
+                    }
+                    sink.write(buffer, position);
+                    position += bytes;
+                    listener.onWritten(position, bytes);
+                }
+                buffer.clear();
+            }
+            return position;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+}
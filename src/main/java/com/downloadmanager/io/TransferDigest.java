@@ -0,0 +1,23 @@
+package com.downloadmanager.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Checksum or hash computed over the bytes of a transfer as they are written.
+ */
+public interface TransferDigest {
+
+    /**
+     * Adds the remaining bytes of a buffer. The buffer's position is left unchanged.
+     *
+     * @param buffer The bytes
+     */
+    void update(ByteBuffer buffer);
+
+    /**
+     * Gets the result so far.
+     *
+     * @return Lower-case hex
+     */
+    String hex();
+}
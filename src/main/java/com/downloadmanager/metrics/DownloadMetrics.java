@@ -0,0 +1,145 @@
+package com.downloadmanager.metrics;
+
+import com.downloadmanager.retry.CircuitOpenException;
+import com.downloadmanager.retry.HttpStatusException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import okio.BufferedSource;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Meters recorded from the download and fetch paths. Gauges over state that
+ * already lives in other beans are bound in {@code MetricsConfig} instead.
+ *
+ * <p>Tags are kept to bounded sets (host, org, cause), never task IDs or URLs.
+ * Per-task rates are served by the {@code downloads} actuator endpoint.
+ */
+@Component
+@Slf4j
+public class DownloadMetrics {
+
+    private static final Pattern HTTP_STATUS = Pattern.compile("HTTP (\\d{3})");
+
+    private final MeterRegistry registry;
+    private final Counter bytes;
+    private final AtomicBoolean firstByteLogged = new AtomicBoolean();
+
+    public DownloadMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.bytes = Counter.builder("download.bytes")
+                .baseUnit("bytes")
+                .description("Bytes written to disk by downloads")
+                .register(registry);
+    }
+
+    /**
+     * Counts bytes written to disk. The rate of this counter is the aggregate throughput.
+     *
+     * @param count Number of bytes
+     */
+    public void recordBytes(long count) {
+        bytes.increment(count);
+    }
+
+    /**
+     * Waits for the first byte of a response body and records the time since
+     * the request was started. The byte stays buffered in the source. The
+     * first byte of the process is also logged with the JVM uptime, which
+     * {@code StartupBenchmark} uses as its time to first byte.
+     *
+     * @param host The host the request went to
+     * @param source The response body
+     * @param startNanos {@link System#nanoTime()} when the request was started
+     * @throws IOException if reading the first byte fails
+     */
+    public void awaitFirstByte(String host, BufferedSource source, long startNanos) throws IOException {
+        source.request(1);
+        Timer.builder("download.time.to.first.byte")
+                .description("Time from sending a download request to the first body byte")
+                .tag("host", host)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(Duration.ofNanos(System.nanoTime() - startNanos));
+        if (firstByteLogged.compareAndSet(false, true)) {
+            log.info("First byte received {} ms after JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+    }
+
+    /**
+     * Counts a failed download.
+     *
+     * @param error The failure
+     */
+    public void recordDownloadFailure(Throwable error) {
+        registry.counter("download.failures", "cause", cause(error)).increment();
+    }
+
+    /**
+     * Counts a failed fetch job.
+     *
+     * @param error The failure
+     */
+    public void recordFetchFailure(Throwable error) {
+        registry.counter("fetch.failures", "cause", cause(error)).increment();
+    }
+
+    /**
+     * Counts a request that is sent again after a failure.
+     *
+     * @param error The failure that caused the retry
+     */
+    public void recordRetry(Throwable error) {
+        registry.counter("download.retries", "cause", cause(error)).increment();
+    }
+
+    /**
+     * Maps a failure to a small, fixed set of cause tags.
+     *
+     * @param error The failure
+     * @return The cause tag, e.g. {@code timeout} or {@code http_503}
+     */
+    static String cause(Throwable error) {
+        if (error instanceof CircuitOpenException) {
+            return "circuit_open";
+        }
+        if (error instanceof HttpStatusException status) {
+            return "http_" + status.getCode();
+        }
+        if (error instanceof SocketTimeoutException) {
+            return "timeout";
+        }
+        if (error instanceof InterruptedIOException) {
+            return "interrupted";
+        }
+        if (error instanceof UnknownHostException) {
+            return "dns";
+        }
+        if (error instanceof ConnectException) {
+            return "connect";
+        }
+        if (error instanceof SSLException) {
+            return "tls";
+        }
+        if (error.getMessage() != null) {
+            Matcher status = HTTP_STATUS.matcher(error.getMessage());
+            if (status.find()) {
+                return "http_" + status.group(1);
+            }
+        }
+        return error instanceof IOException ? "io" : "other";
+    }
+}
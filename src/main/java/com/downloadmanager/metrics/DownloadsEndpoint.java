@@ -0,0 +1,61 @@
+package com.downloadmanager.metrics;
+
+import com.downloadmanager.model.DownloadTask;
+import com.downloadmanager.model.TransferProgress;
+import com.downloadmanager.service.DownloadQueueService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Actuator endpoint {@code downloads} listing the running and queued tasks
+ * with their progress and transfer rate.
+ */
+@Component
+@Endpoint(id = "downloads")
+public class DownloadsEndpoint {
+
+    private final DownloadQueueService queueService;
+
+    public DownloadsEndpoint(DownloadQueueService queueService) {
+        this.queueService = queueService;
+    }
+
+    @ReadOperation
+    public DownloadsReport downloads() {
+        List<TaskState> running = new ArrayList<>();
+        for (DownloadTask task : queueService.getRunningTasks()) {
+            running.add(TaskState.of(task));
+        }
+        List<TaskState> queued = new ArrayList<>();
+        for (DownloadTask task : queueService.getQueuedTasks()) {
+            queued.add(TaskState.of(task));
+        }
+        running.sort(Comparator.comparingInt(TaskState::id));
+        queued.sort(Comparator.comparingInt(TaskState::id));
+        return new DownloadsReport(queueService.getActiveDownloads(), queueService.getMaxConcurrentDownloads(),
+                queued.size(), running, queued);
+    }
+
+    public record DownloadsReport(int active, int maxConcurrent, int queueDepth,
+                                  List<TaskState> running, List<TaskState> queued) {
+    }
+
+    public record TaskState(int id, String url, String filename, DownloadTask.Status status, int priority,
+                            long downloadedBytes, long fileSize, double progress, long bytesPerSecond,
+                            String errorMessage) {
+
+        public static TaskState of(DownloadTask task) {
+            DownloadTask.Status status = task.getStatus();
+            TransferProgress.Snapshot progress = task.getTransfer().snapshot();
+            return new TaskState(task.getId(), task.getUrl(), task.getFilename(), status,
+                    task.getPriority(), progress.bytes(), progress.totalBytes(),
+                    status == DownloadTask.Status.COMPLETED ? 1.0 : progress.fraction(),
+                    progress.bytesPerSecond(), task.getErrorMessage());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.downloadmanager.metrics;
+
+import com.downloadmanager.ratelimit.RequestOrg;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Network interceptor that records the latency of API requests, those tagged
+ * with a {@link RequestOrg}, that go out on the wire, tagged by host, org and
+ * status. It measures up to the response headers, so cache hits and rate-limit
+ * waits are not included. File downloads are left out: URL lists span any
+ * number of hosts, and a histogram per host would grow without bound. The
+ * meter has a name of its own, so it cannot clash with Spring's
+ * {@code http.client.requests} and its different tags.
+ */
+@Component
+public class HttpMetricsInterceptor implements Interceptor {
+
+    private final MeterRegistry registry;
+
+    public HttpMetricsInterceptor(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestOrg org = request.tag(RequestOrg.class);
+        if (org == null) {
+            return chain.proceed(request);
+        }
+        long start = System.nanoTime();
+        String status = "IO_ERROR";
+        try {
+            Response response = chain.proceed(request);
+            status = Integer.toString(response.code());
+            return response;
+        } finally {
+            Timer.builder("fetch.api.requests")
+                    .description("Latency of API requests up to the response headers")
+                    .tag("host", request.url().host())
+                    .tag("org", org.getName() != null ? org.getName() : "none")
+                    .tag("method", request.method())
+                    .tag("status", status)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
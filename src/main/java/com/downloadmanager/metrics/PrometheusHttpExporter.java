@@ -0,0 +1,76 @@
+package com.downloadmanager.metrics;
+
+import com.downloadmanager.config.MetricsHttpProperties;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the Prometheus registry's scrape output over HTTP when
+ * {@code metrics.http.enabled} is set. Requests are handled on the server's
+ * single dispatcher thread, which is plenty for a scraper. No other bean
+ * refers to it, so it opts out of lazy initialization.
+ */
+@Component
+@Lazy(false)
+@EnableConfigurationProperties(MetricsHttpProperties.class)
+@Slf4j
+public class PrometheusHttpExporter {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    public PrometheusHttpExporter(MetricsHttpProperties properties,
+                                  ObjectProvider<PrometheusMeterRegistry> registry) {
+        PrometheusMeterRegistry prometheus = registry.getIfAvailable();
+        if (!properties.isEnabled() || prometheus == null) {
+            this.server = null;
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(properties.getAddress(), properties.getPort()), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to bind metrics listener on "
+                    + properties.getAddress() + ":" + properties.getPort(), e);
+        }
+        server.createContext(properties.getPath(), exchange -> scrape(exchange, prometheus));
+        server.start();
+        log.info("Serving Prometheus metrics on http://{}:{}{}",
+                properties.getAddress(), properties.getPort(), properties.getPath());
+    }
+
+    private static void scrape(HttpExchange exchange, PrometheusMeterRegistry prometheus) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = prometheus.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+}
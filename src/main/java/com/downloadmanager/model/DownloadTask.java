@@ -1,13 +1,19 @@
 package com.downloadmanager.model;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
+import lombok.ToString;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Represents a download task with status tracking.
+ * Represents a download task with status tracking. Byte counts and the
+ * transfer rate live in a {@link TransferProgress}, which the downloading
+ * threads update without locking while other threads read the task.
  */
 @Data
 @NoArgsConstructor
@@ -16,23 +22,36 @@ public class DownloadTask {
     
     private int id;
     private String url;
-    private String filename;
-    private long fileSize;
-    private long downloadedBytes;
-    private Status status;
-    private String errorMessage;
+    private volatile String filename;
+    private volatile Status status;
+    private volatile String errorMessage;
     private LocalDateTime createdAt;
-    private LocalDateTime startedAt;
-    private LocalDateTime completedAt;
-    private double progress; // 0.0 to 1.0
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime completedAt;
+    private int priority; // higher runs first
+    private List<String> mirrors = List.of(); // equivalent URLs of the same file
+    private String expectedDigest; // <algorithm>:<hex> or a sidecar URL, null if not checked
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final TransferProgress transfer = new TransferProgress();
     
     public DownloadTask(int id, String url) {
         this.id = id;
         this.url = url;
         this.status = Status.QUEUED;
         this.createdAt = LocalDateTime.now();
-        this.progress = 0.0;
-        this.downloadedBytes = 0;
+    }
+    
+    /**
+     * Gets every URL the file can be downloaded from.
+     * 
+     * @return The URL followed by the mirrors
+     */
+    public List<String> getSources() {
+        List<String> sources = new ArrayList<>(mirrors.size() + 1);
+        sources.add(url);
+        sources.addAll(mirrors);
+        return sources;
     }
     
     /**
@@ -58,18 +77,40 @@ public class DownloadTask {
     }
     
     /**
-     * Updates the download progress.
+     * Sets the download progress to absolute values, e.g. when resuming. Not for
+     * per-chunk updates, which go through a {@link TransferProgress.Stripe}.
      * 
      * @param downloadedBytes Number of bytes downloaded
      * @param totalBytes Total number of bytes to download
      */
     public void updateProgress(long downloadedBytes, long totalBytes) {
-        this.downloadedBytes = downloadedBytes;
-        this.fileSize = totalBytes;
-        
-        if (totalBytes > 0) {
-            this.progress = (double) downloadedBytes / totalBytes;
+        transfer.setTotalBytes(totalBytes);
+        transfer.setBytes(downloadedBytes);
+    }
+    
+    public long getDownloadedBytes() {
+        return transfer.getBytes();
+    }
+    
+    public long getFileSize() {
+        return transfer.getTotalBytes();
+    }
+    
+    public void setFileSize(long fileSize) {
+        transfer.setTotalBytes(fileSize);
+    }
+    
+    /**
+     * Gets the completed fraction.
+     * 
+     * @return 0.0 to 1.0
+     */
+    public double getProgress() {
+        if (status == Status.COMPLETED) {
+            return 1.0;
         }
+        long total = transfer.getTotalBytes();
+        return total > 0 ? Math.min(1.0, (double) transfer.getBytes() / total) : 0.0;
     }
     
     /**
@@ -78,15 +119,16 @@ public class DownloadTask {
     public void markStarted() {
         this.status = Status.DOWNLOADING;
         this.startedAt = LocalDateTime.now();
+        transfer.start();
     }
     
     /**
      * Marks the task as completed.
      */
     public void markCompleted() {
+        transfer.finish();
         this.status = Status.COMPLETED;
         this.completedAt = LocalDateTime.now();
-        this.progress = 1.0;
     }
     
     /**
@@ -95,6 +137,7 @@ public class DownloadTask {
      * @param errorMessage Error message describing the failure
      */
     public void markFailed(String errorMessage) {
+        transfer.finish();
         this.status = Status.FAILED;
         this.errorMessage = errorMessage;
         this.completedAt = LocalDateTime.now();
@@ -106,7 +149,7 @@ public class DownloadTask {
      * @return Progress as percentage string
      */
     public String getProgressString() {
-        return String.format("%.1f%%", progress * 100);
+        return String.format("%.1f%%", getProgress() * 100);
     }
     
     /**
@@ -115,6 +158,7 @@ public class DownloadTask {
      * @return File size in human readable format
      */
     public String getFormattedFileSize() {
+        long fileSize = getFileSize();
         if (fileSize < 1024) {
             return fileSize + " B";
         } else if (fileSize < 1024 * 1024) {
@@ -126,22 +170,23 @@ public class DownloadTask {
         }
     }
     
+    /**
+     * Gets the download speed: a moving average while running, the overall
+     * average once finished.
+     * 
+     * @return Bytes per second, 0 if not started
+     */
+    public long getBytesPerSecond() {
+        return transfer.getBytesPerSecond();
+    }
+    
     /**
      * Gets formatted download speed.
      * 
      * @return Download speed in human readable format
      */
     public String getFormattedSpeed() {
-        if (startedAt == null) {
-            return "0 B/s";
-        }
-        
-        long elapsedSeconds = java.time.Duration.between(startedAt, LocalDateTime.now()).getSeconds();
-        if (elapsedSeconds == 0) {
-            return "0 B/s";
-        }
-        
-        long bytesPerSecond = downloadedBytes / elapsedSeconds;
+        long bytesPerSecond = getBytesPerSecond();
         
         if (bytesPerSecond < 1024) {
             return bytesPerSecond + " B/s";
@@ -13,6 +13,16 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class FetchDataItems extends AbstractFetch {
 
+    int perPage = 100;
+    long lastPage; // 0 if not known yet
+    long itemCount; // items streamed by the last fetch
 
-
+    /**
+     * Sets the last page from a previously fetched item count.
+     *
+     * @param countJob A completed count job for the same list
+     */
+    public void setLastPageFrom(FetchDataCount countJob) {
+        this.lastPage = Math.max(1, (countJob.getCount() + perPage - 1) / perPage);
+    }
 }
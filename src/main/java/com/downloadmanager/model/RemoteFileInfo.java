@@ -0,0 +1,28 @@
+package com.downloadmanager.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Metadata about a remote file, as reported by a HEAD request.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RemoteFileInfo {
+
+    private long contentLength;  // -1 if unknown
+    private boolean acceptRanges;
+    private String etag;
+    private String lastModified;
+
+    /**
+     * Checks whether the file can be fetched as independent byte ranges.
+     *
+     * @return true if the server reported a length and byte range support
+     */
+    public boolean supportsRanges() {
+        return acceptRanges && contentLength > 0;
+    }
+}
@@ -0,0 +1,237 @@
+package com.downloadmanager.model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Byte counters and transfer rate of one download, shared between the threads
+ * writing the file and any number of readers.
+ *
+ * <p>Writers never lock, allocate or compare-and-swap. Each writing thread
+ * owns a {@link Stripe} (one per segment for multi-connection downloads) and
+ * publishes its count with a release store. Readers sum the stripes. The rate
+ * is an exponentially weighted moving average over {@link System#nanoTime()},
+ * advanced by readers at most every {@value #SAMPLE_INTERVAL_MILLIS} ms. Between
+ * samples a read costs a few volatile loads.
+ */
+public final class TransferProgress {
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 250;
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL_MILLIS);
+    // Time constant of the moving average
+    private static final double TAU_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final Stripe[] NO_STRIPES = new Stripe[0];
+
+    private final Stripe base = new Stripe();
+    private volatile Stripe[] stripes = NO_STRIPES;
+    private volatile long totalBytes = -1;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private final AtomicReference<RateSample> sample = new AtomicReference<>();
+
+    /**
+     * Byte counter written by a single thread.
+     */
+    public static final class Stripe {
+
+        private static final VarHandle BYTES;
+
+        static {
+            try {
+                BYTES = MethodHandles.lookup().findVarHandle(Stripe.class, "bytes", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private volatile long bytes;
+
+        /**
+         * Adds to the counter. Only the owning thread may call this.
+         *
+         * @param count Number of bytes
+         */
+        public void add(long count) {
+            // Single writer, so a plain read and a release store are enough
+            BYTES.setRelease(this, (long) BYTES.get(this) + count);
+        }
+
+        long get() {
+            return bytes;
+        }
+
+        void set(long value) {
+            bytes = value;
+        }
+    }
+
+    /**
+     * Consistent view of the progress at one point in time.
+     *
+     * @param bytes Bytes transferred, including resumed ones
+     * @param totalBytes Total size, -1 if unknown
+     * @param bytesPerSecond Current rate
+     * @param elapsedNanos Time since the transfer started
+     */
+    public record Snapshot(long bytes, long totalBytes, long bytesPerSecond, long elapsedNanos) {
+
+        /**
+         * Gets the completed fraction.
+         *
+         * @return 0.0 to 1.0, 0.0 if the total is unknown
+         */
+        public double fraction() {
+            return totalBytes > 0 ? Math.min(1.0, (double) bytes / totalBytes) : 0.0;
+        }
+    }
+
+    private record RateSample(long nanos, long bytes, double rate, boolean primed) {
+    }
+
+    /**
+     * Starts the clock and resets the counters.
+     */
+    public void start() {
+        long now = System.nanoTime();
+        stripes = NO_STRIPES;
+        base.set(0);
+        endNanos = 0;
+        startNanos = now;
+        sample.set(new RateSample(now, 0, 0, false));
+    }
+
+    /**
+     * Stops the clock. The rate becomes the average over the whole transfer.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Gets the counter for a single-connection writer.
+     *
+     * @return The base stripe
+     */
+    public Stripe base() {
+        return base;
+    }
+
+    /**
+     * Adds a counter for one more writer, e.g. a segment.
+     *
+     * @return A new stripe
+     */
+    public synchronized Stripe newStripe() {
+        Stripe stripe = new Stripe();
+        Stripe[] current = stripes;
+        Stripe[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = stripe;
+        stripes = grown;
+        return stripe;
+    }
+
+    /**
+     * Sets the transferred bytes to an absolute value, e.g. the resume offset.
+     * Drops all stripes, so no writer may be running.
+     *
+     * @param bytes Bytes transferred so far
+     */
+    public synchronized void setBytes(long bytes) {
+        stripes = NO_STRIPES;
+        base.set(bytes);
+        // Resumed bytes are not part of the rate
+        RateSample current = sample.get();
+        sample.set(current != null
+                ? new RateSample(System.nanoTime(), bytes, current.rate(), current.primed())
+                : new RateSample(System.nanoTime(), bytes, 0, false));
+    }
+
+    /**
+     * Gets the bytes transferred so far.
+     *
+     * @return Bytes, including resumed ones
+     */
+    public long getBytes() {
+        long sum = base.get();
+        for (Stripe stripe : stripes) {
+            sum += stripe.get();
+        }
+        return sum;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Gets the transfer rate: a moving average while running, the overall
+     * average once finished.
+     *
+     * @return Bytes per second, 0 if not started
+     */
+    public long getBytesPerSecond() {
+        long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = endNanos;
+        if (end != 0) {
+            long elapsed = end - start;
+            return elapsed > 0 ? (long) (getBytes() * 1e9 / elapsed) : 0;
+        }
+        return (long) advance(System.nanoTime()).rate();
+    }
+
+    /**
+     * Gets the elapsed time of the transfer.
+     *
+     * @return Nanoseconds since start, up to the finish if finished
+     */
+    public long getElapsedNanos() {
+        long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        long end = endNanos;
+        return (end != 0 ? end : System.nanoTime()) - start;
+    }
+
+    /**
+     * Reads the progress without blocking the writers.
+     *
+     * @return A snapshot
+     */
+    public Snapshot snapshot() {
+        long total = totalBytes;
+        long rate = getBytesPerSecond();
+        return new Snapshot(getBytes(), total, rate, getElapsedNanos());
+    }
+
+    /**
+     * Moves the moving average forward if the last sample is older than the
+     * sample interval. Racing readers may both compute; one of them wins.
+     */
+    private RateSample advance(long now) {
+        RateSample last = sample.get();
+        if (last == null || now - last.nanos() < SAMPLE_INTERVAL_NANOS) {
+            return last != null ? last : new RateSample(now, 0, 0, false);
+        }
+        long bytes = getBytes();
+        long elapsed = now - last.nanos();
+        double instant = (bytes - last.bytes()) * 1e9 / elapsed;
+        double rate = instant;
+        if (last.primed()) {
+            double alpha = 1 - Math.exp(-elapsed / TAU_NANOS);
+            rate = last.rate() + alpha * (instant - last.rate());
+        }
+        RateSample next = new RateSample(now, bytes, rate, true);
+        return sample.compareAndSet(last, next) ? next : sample.get();
+    }
+}
@@ -0,0 +1,365 @@
+package com.downloadmanager.queue;
+
+import com.downloadmanager.model.DownloadTask;
+import okhttp3.HttpUrl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Bounded blocking queue of download tasks that hands out tasks in the order
+ * of a {@link SchedulingPolicy} instead of FIFO. Queued tasks can be
+ * reprioritized, paused and resumed; paused tasks keep their place in the
+ * capacity but are never handed out.
+ *
+ * <p>Ready tasks are kept in sorted sets, one per group. The group is the host
+ * for {@link SchedulingPolicy#FAIR_SHARE} and a single shared group otherwise.
+ * {@link #take()} picks the group with the fewest running downloads, breaking
+ * ties by least recently served, and takes the first task of that group.
+ */
+public class DownloadScheduler {
+
+    private final SchedulingPolicy policy;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+
+    private final Map<String, TreeSet<DownloadTask>> readyByGroup = new HashMap<>();
+    // Groups with ready tasks, least recently served first
+    private final Deque<String> rotation = new ArrayDeque<>();
+    private final Map<Integer, DownloadTask> queued = new HashMap<>();
+    // Primary URL to the ID of the first queued task for it
+    private final Map<String, Integer> idsByUrl = new HashMap<>();
+    private final Map<String, Integer> runningByGroup = new HashMap<>();
+    private int readyCount;
+
+    public DownloadScheduler(SchedulingPolicy policy, int capacity) {
+        this.policy = policy;
+        this.capacity = capacity;
+    }
+
+    public SchedulingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Adds a task, blocking while the queue is full. Tasks with status
+     * {@link DownloadTask.Status#PAUSED} are held until resumed.
+     *
+     * @param task The task
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    public void put(DownloadTask task) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queued.size() >= capacity) {
+                notFull.await();
+            }
+            queued.put(task.getId(), task);
+            idsByUrl.putIfAbsent(task.getUrl(), task.getId());
+            if (task.getStatus() != DownloadTask.Status.PAUSED) {
+                addReady(task);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next task according to the policy, blocking while no task is ready.
+     * The task counts as running for its group until {@link #finished(DownloadTask)}.
+     *
+     * @return The next task
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public DownloadTask take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (readyCount == 0) {
+                notEmpty.await();
+            }
+            String group = nextGroup();
+            TreeSet<DownloadTask> ready = readyByGroup.get(group);
+            DownloadTask task = ready.pollFirst();
+            readyCount--;
+            rotation.remove(group);
+            if (ready.isEmpty()) {
+                readyByGroup.remove(group);
+            } else {
+                rotation.addLast(group);
+            }
+            queued.remove(task.getId());
+            idsByUrl.remove(task.getUrl(), task.getId());
+            runningByGroup.merge(group, 1, Integer::sum);
+            notFull.signal();
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Picks the group with the fewest running downloads, the least recently served one on ties.
+     */
+    private String nextGroup() {
+        String best = null;
+        int bestRunning = Integer.MAX_VALUE;
+        for (String group : rotation) {
+            int running = runningByGroup.getOrDefault(group, 0);
+            if (running < bestRunning) {
+                best = group;
+                bestRunning = running;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Records that a task handed out by {@link #take()} is no longer running.
+     *
+     * @param task The task
+     */
+    public void finished(DownloadTask task) {
+        lock.lock();
+        try {
+            runningByGroup.computeIfPresent(group(task), (g, n) -> n > 1 ? n - 1 : null);
+            signalIfIdle();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until no task is ready and none handed out by {@link #take()} is
+     * still running. Paused tasks do not count, they wait for a later resume.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitIdle() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (readyCount > 0 || !runningByGroup.isEmpty()) {
+                idle.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalIfIdle() {
+        if (readyCount == 0 && runningByGroup.isEmpty()) {
+            idle.signalAll();
+        }
+    }
+
+    /**
+     * Changes the priority of a queued task.
+     *
+     * @param id The task ID
+     * @param priority The new priority, higher runs first
+     * @return The task, or null if it is not queued
+     */
+    public DownloadTask reprioritize(int id, int priority) {
+        return update(id, task -> task.setPriority(priority));
+    }
+
+    /**
+     * Records the expected size of a queued task, used by
+     * {@link SchedulingPolicy#SHORTEST_FIRST}.
+     *
+     * @param id The task ID
+     * @param size The size in bytes
+     * @return The task, or null if it is not queued
+     */
+    public DownloadTask updateExpectedSize(int id, long size) {
+        return update(id, task -> task.setFileSize(size));
+    }
+
+    /**
+     * Changes a queued task of a URL.
+     *
+     * @param url The primary URL of the task
+     * @param change The change
+     * @return The task, or null if no task for the URL is queued
+     */
+    public DownloadTask update(String url, Consumer<DownloadTask> change) {
+        lock.lock();
+        try {
+            Integer id = idsByUrl.get(url);
+            return id != null ? update(id, change) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds a queued task back until it is resumed.
+     *
+     * @param id The task ID
+     * @return The task, or null if it is not queued
+     */
+    public DownloadTask pause(int id) {
+        lock.lock();
+        try {
+            DownloadTask task = queued.get(id);
+            if (task != null && task.getStatus() != DownloadTask.Status.PAUSED) {
+                removeReady(task);
+                task.setStatus(DownloadTask.Status.PAUSED);
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes a paused task eligible to run again.
+     *
+     * @param id The task ID
+     * @return The task, or null if it is not queued
+     */
+    public DownloadTask resume(int id) {
+        lock.lock();
+        try {
+            DownloadTask task = queued.get(id);
+            if (task != null && task.getStatus() == DownloadTask.Status.PAUSED) {
+                task.setStatus(DownloadTask.Status.QUEUED);
+                addReady(task);
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a queued task.
+     *
+     * @param id The task ID
+     * @return The removed task, or null if it is not queued
+     */
+    public DownloadTask remove(int id) {
+        lock.lock();
+        try {
+            DownloadTask task = queued.remove(id);
+            if (task != null) {
+                idsByUrl.remove(task.getUrl(), id);
+                if (task.getStatus() != DownloadTask.Status.PAUSED) {
+                    removeReady(task);
+                }
+                notFull.signal();
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets a queued task.
+     *
+     * @param id The task ID
+     * @return The task, or null if it is not queued
+     */
+    public DownloadTask get(int id) {
+        lock.lock();
+        try {
+            return queued.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets all queued tasks, ready and paused.
+     *
+     * @return A snapshot of the queued tasks
+     */
+    public List<DownloadTask> snapshot() {
+        lock.lock();
+        try {
+            return new ArrayList<>(queued.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of queued tasks, ready and paused.
+     *
+     * @return Queue size
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return queued.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private DownloadTask update(int id, Consumer<DownloadTask> change) {
+        lock.lock();
+        try {
+            DownloadTask task = queued.get(id);
+            if (task == null) {
+                return null;
+            }
+            // Sorted sets must not see a key change while the task is inside
+            boolean ready = task.getStatus() != DownloadTask.Status.PAUSED;
+            if (ready) {
+                removeReady(task);
+            }
+            change.accept(task);
+            if (ready) {
+                addReady(task);
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addReady(DownloadTask task) {
+        String group = group(task);
+        TreeSet<DownloadTask> ready = readyByGroup.computeIfAbsent(group, g -> {
+            rotation.addLast(g);
+            return new TreeSet<>(policy.comparator());
+        });
+        if (ready.add(task)) {
+            readyCount++;
+            notEmpty.signal();
+        }
+    }
+
+    private void removeReady(DownloadTask task) {
+        String group = group(task);
+        TreeSet<DownloadTask> ready = readyByGroup.get(group);
+        if (ready != null && ready.remove(task)) {
+            readyCount--;
+            signalIfIdle();
+            if (ready.isEmpty()) {
+                readyByGroup.remove(group);
+                rotation.remove(group);
+            }
+        }
+    }
+
+    private String group(DownloadTask task) {
+        if (policy != SchedulingPolicy.FAIR_SHARE) {
+            return "";
+        }
+        HttpUrl url = HttpUrl.parse(task.getUrl());
+        return url != null ? url.host() : "";
+    }
+}
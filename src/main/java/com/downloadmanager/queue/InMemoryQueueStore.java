@@ -0,0 +1,41 @@
+package com.downloadmanager.queue;
+
+import com.downloadmanager.model.DownloadTask;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Store that keeps nothing. Task IDs start at 1 on every run and nothing is
+ * recovered after a restart.
+ */
+public class InMemoryQueueStore implements QueueStore {
+
+    private final AtomicInteger taskIdCounter = new AtomicInteger(1);
+
+    @Override
+    public int nextId() {
+        return taskIdCounter.getAndIncrement();
+    }
+
+    @Override
+    public void add(DownloadTask task) {
+    }
+
+    @Override
+    public void updateStatus(DownloadTask task) {
+    }
+
+    @Override
+    public void updatePriority(DownloadTask task) {
+    }
+
+    @Override
+    public void updateSources(DownloadTask task) {
+    }
+
+    @Override
+    public List<DownloadTask> recover() {
+        return List.of();
+    }
+}
@@ -0,0 +1,367 @@
+package com.downloadmanager.queue;
+
+import com.downloadmanager.model.DownloadTask;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue store backed by an append-only log file. Callers never touch the
+ * disk: records are handed to a writer thread, which appends whatever has
+ * piled up as one batch and forces it to disk once (group commit), so enqueue
+ * throughput is bounded by memory rather than by fsync latency. A record is
+ * durable at most one flush interval after it was added. A batch that fails
+ * to write is kept and written again, after the log is cut back to its last
+ * complete record, until it succeeds.
+ *
+ * <p>The log holds one record per line:
+ * <pre>
+ * R &lt;id&gt;           IDs up to &lt;id&gt; are reserved
+ * A &lt;id&gt; &lt;url&gt;     task added
+ * S &lt;id&gt; &lt;status&gt;  task status changed
+ * P &lt;id&gt; &lt;priority&gt; task priority changed
+ * M &lt;id&gt; &lt;url&gt;...  mirrors of a task
+ * H &lt;id&gt; &lt;digest&gt;  expected digest of a task
+ * </pre>
+ * Replaying is idempotent, which lets the writer compact the log by rewriting
+ * it with only the unfinished tasks while new records keep arriving.
+ */
+@Slf4j
+public class JournalQueueStore implements QueueStore {
+
+    private static final int ID_BLOCK = 1024;
+    private static final long COMPACT_MIN_RECORDS = 100_000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 10_000;
+
+    private final Path path;
+    private final Duration flushInterval;
+    private final int batchSize;
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+    // Unfinished tasks by ID, written out again on compaction
+    private final Map<Integer, DownloadTask> live = new ConcurrentHashMap<>();
+    private final List<DownloadTask> recovered = new ArrayList<>();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private FileChannel channel;
+    private Writer writer;
+    private long recordsWritten;
+    // Length of the log up to the last record forced to disk
+    private long durableSize;
+    private int nextId;
+    private int reservedUpTo;
+
+    /**
+     * Opens the log, replays it and starts the writer thread.
+     *
+     * @param path The log file
+     * @param flushInterval Longest time a record waits before it is forced to disk
+     * @param batchSize Most records written per batch
+     */
+    public JournalQueueStore(Path path, Duration flushInterval, int batchSize) {
+        this.path = path;
+        this.flushInterval = flushInterval;
+        this.batchSize = batchSize;
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            replay();
+            // Start the new run from a compacted log
+            compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open queue log " + path, e);
+        }
+        log.info("Queue log {}: recovered {} unfinished tasks, next task ID {}", path, recovered.size(), nextId);
+
+        writerThread = new Thread(this::runWriter, "QueueLogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public synchronized int nextId() {
+        if (nextId > reservedUpTo) {
+            // Records are written in order, so any ID used in a durable record has its reservation durable too
+            reservedUpTo = nextId + ID_BLOCK - 1;
+            pending.add("R " + reservedUpTo);
+        }
+        return nextId++;
+    }
+
+    @Override
+    public void add(DownloadTask task) {
+        live.put(task.getId(), task);
+        pending.add(addRecord(task));
+        if (!task.getMirrors().isEmpty()) {
+            pending.add(mirrorsRecord(task));
+        }
+        if (task.getExpectedDigest() != null) {
+            pending.add(digestRecord(task));
+        }
+    }
+
+    @Override
+    public void updateStatus(DownloadTask task) {
+        if (isFinished(task.getStatus())) {
+            live.remove(task.getId());
+        }
+        pending.add("S " + task.getId() + " " + task.getStatus().name());
+    }
+
+    @Override
+    public void updatePriority(DownloadTask task) {
+        pending.add(priorityRecord(task));
+    }
+
+    @Override
+    public void updateSources(DownloadTask task) {
+        if (!task.getMirrors().isEmpty()) {
+            pending.add(mirrorsRecord(task));
+        }
+        if (task.getExpectedDigest() != null) {
+            pending.add(digestRecord(task));
+        }
+    }
+
+    @Override
+    public List<DownloadTask> recover() {
+        List<DownloadTask> tasks = new ArrayList<>(recovered);
+        recovered.clear();
+        return tasks;
+    }
+
+    private static String addRecord(DownloadTask task) {
+        return "A " + task.getId() + " " + task.getUrl().replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String mirrorsRecord(DownloadTask task) {
+        StringBuilder record = new StringBuilder("M ").append(task.getId());
+        for (String mirror : task.getMirrors()) {
+            // Mirrors are separated by spaces, which a URL may only carry encoded
+            record.append(' ').append(mirror.replaceAll("\\s", "%20"));
+        }
+        return record.toString();
+    }
+
+    private static String digestRecord(DownloadTask task) {
+        return "H " + task.getId() + " " + task.getExpectedDigest().replaceAll("\\s", "");
+    }
+
+    private static String priorityRecord(DownloadTask task) {
+        return "P " + task.getId() + " " + task.getPriority();
+    }
+
+    private static boolean isFinished(DownloadTask.Status status) {
+        return status == DownloadTask.Status.COMPLETED
+                || status == DownloadTask.Status.FAILED
+                || status == DownloadTask.Status.CANCELLED;
+    }
+
+    /**
+     * Rebuilds the unfinished tasks and the ID reservation from the log.
+     */
+    private void replay() throws IOException {
+        Map<Integer, DownloadTask> tasks = new LinkedHashMap<>();
+        int maxId = 0;
+        if (Files.exists(path)) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(" ", 3);
+                    try {
+                        int id = Integer.parseInt(parts[1]);
+                        maxId = Math.max(maxId, id);
+                        switch (parts[0]) {
+                            case "A" -> tasks.put(id, new DownloadTask(id, parts[2]));
+                            case "S" -> {
+                                DownloadTask.Status status = DownloadTask.Status.valueOf(parts[2]);
+                                if (isFinished(status)) {
+                                    tasks.remove(id);
+                                } else if (tasks.containsKey(id)) {
+                                    tasks.get(id).setStatus(status == DownloadTask.Status.DOWNLOADING
+                                            ? DownloadTask.Status.QUEUED : status);
+                                }
+                            }
+                            case "M" -> {
+                                if (tasks.containsKey(id)) {
+                                    tasks.get(id).setMirrors(List.of(parts[2].split(" ")));
+                                }
+                            }
+                            case "H" -> {
+                                if (tasks.containsKey(id)) {
+                                    tasks.get(id).setExpectedDigest(parts[2]);
+                                }
+                            }
+                            case "P" -> {
+                                if (tasks.containsKey(id)) {
+                                    tasks.get(id).setPriority(Integer.parseInt(parts[2]));
+                                }
+                            }
+                            default -> {
+                                // Reservation, only the ID matters
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        // A crash can leave a torn last line
+                        log.warn("Skipping malformed queue log record: {}", line);
+                    }
+                }
+            }
+        }
+        recovered.addAll(tasks.values());
+        live.putAll(tasks);
+        nextId = maxId + 1;
+        reservedUpTo = maxId;
+    }
+
+    private void runWriter() {
+        List<String> batch = new ArrayList<>(batchSize);
+        int failures = 0;
+        while (running || !pending.isEmpty() || !batch.isEmpty()) {
+            try {
+                // A batch left over from a failed write goes first, records must stay in order
+                if (batch.isEmpty()) {
+                    String first = pending.poll(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    pending.drainTo(batch, batchSize - 1);
+                }
+                for (String record : batch) {
+                    writer.write(record);
+                    writer.write('\n');
+                }
+                writer.flush();
+                channel.force(false);
+                durableSize = channel.size();
+                recordsWritten += batch.size();
+                batch.clear();
+                failures = 0;
+
+                if (recordsWritten > COMPACT_MIN_RECORDS && recordsWritten > 4L * live.size()) {
+                    compact();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException e) {
+                failures++;
+                long delay = Math.min(MAX_RETRY_DELAY_MILLIS, failures * flushInterval.toMillis());
+                log.error("Failed to write queue log {}, {} records waiting, retrying in {} ms",
+                        path, batch.size() + pending.size(), delay, e);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                    reopen();
+                } catch (InterruptedException interrupted) {
+                    running = false;
+                } catch (IOException reopenFailure) {
+                    log.error("Failed to reopen queue log {}", path, reopenFailure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the log for appending again after a failed write, cut back to its
+     * last complete record so that a torn line cannot merge with the next one.
+     */
+    private void reopen() throws IOException {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            // Whatever it managed to flush is cut off below
+        }
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+        if (channel.size() > durableSize) {
+            channel.truncate(durableSize);
+            channel.force(false);
+        }
+        durableSize = channel.size();
+    }
+
+    /**
+     * Rewrites the log with only the ID reservation and the unfinished tasks
+     * (plus their priority and their status where it matters, e.g. paused),
+     * then switches appends over to the new file.
+     */
+    private void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            int reserved;
+            synchronized (this) {
+                reserved = reservedUpTo;
+            }
+            out.write("R " + reserved + "\n");
+            List<DownloadTask> tasks = new ArrayList<>(live.values());
+            tasks.sort(Comparator.comparingInt(DownloadTask::getId));
+            for (DownloadTask task : tasks) {
+                out.write(addRecord(task) + "\n");
+                if (!task.getMirrors().isEmpty()) {
+                    out.write(mirrorsRecord(task) + "\n");
+                }
+                if (task.getExpectedDigest() != null) {
+                    out.write(digestRecord(task) + "\n");
+                }
+                if (task.getPriority() != 0) {
+                    out.write(priorityRecord(task) + "\n");
+                }
+                DownloadTask.Status status = task.getStatus();
+                if (status != DownloadTask.Status.QUEUED && status != DownloadTask.Status.DOWNLOADING) {
+                    out.write("S " + task.getId() + " " + status.name() + "\n");
+                }
+            }
+        }
+        try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            tmpChannel.force(true);
+        }
+        if (writer != null) {
+            writer.close();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+        durableSize = channel.size();
+        recordsWritten = live.size() + 1;
+    }
+
+    /**
+     * Writes out all pending records and closes the log.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+            writer.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Failed to close queue log {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.downloadmanager.queue;
+
+import com.downloadmanager.model.DownloadTask;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Persistence for the download queue. Implementations record every task that
+ * is added and every status change, so that unfinished tasks can be recovered
+ * after a restart.
+ */
+public interface QueueStore extends Closeable {
+
+    /**
+     * Hands out a task ID that has not been used before, also not by earlier runs.
+     *
+     * @return A new task ID
+     */
+    int nextId();
+
+    /**
+     * Records a newly queued task.
+     *
+     * @param task The task
+     */
+    void add(DownloadTask task);
+
+    /**
+     * Records the current status of a task.
+     *
+     * @param task The task
+     */
+    void updateStatus(DownloadTask task);
+
+    /**
+     * Records the current priority of a task.
+     *
+     * @param task The task
+     */
+    void updatePriority(DownloadTask task);
+
+    /**
+     * Records the current mirrors and expected digest of a task.
+     *
+     * @param task The task
+     */
+    void updateSources(DownloadTask task);
+
+    /**
+     * Gets the tasks that had not finished when the previous run stopped, in the
+     * order they were added, with their last priority. Tasks that were downloading
+     * are returned as queued.
+     *
+     * @return The unfinished tasks
+     */
+    List<DownloadTask> recover();
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,46 @@
+package com.downloadmanager.queue;
+
+import com.downloadmanager.model.DownloadTask;
+
+import java.util.Comparator;
+
+/**
+ * Order in which {@link DownloadScheduler} hands out queued tasks. Tasks of
+ * equal rank run in the order they were added.
+ */
+public enum SchedulingPolicy {
+
+    /**
+     * Highest priority first.
+     */
+    STRICT_PRIORITY(Comparator.comparingInt(DownloadTask::getPriority).reversed()),
+
+    /**
+     * Highest priority first, then smallest expected size (from a HEAD request)
+     * first, so small files are not stuck behind large ones. Tasks of unknown
+     * size go after those of known size.
+     */
+    SHORTEST_FIRST(Comparator.comparingInt(DownloadTask::getPriority).reversed()
+            .thenComparingLong(task -> task.getFileSize() > 0 ? task.getFileSize() : Long.MAX_VALUE)),
+
+    /**
+     * Hosts take turns, with the host that has the fewest running downloads
+     * going first; within a host, highest priority first.
+     */
+    FAIR_SHARE(Comparator.comparingInt(DownloadTask::getPriority).reversed());
+
+    private final Comparator<DownloadTask> comparator;
+
+    SchedulingPolicy(Comparator<DownloadTask> order) {
+        this.comparator = order.thenComparingInt(DownloadTask::getId);
+    }
+
+    /**
+     * Gets the order of tasks within a group.
+     *
+     * @return The comparator, consistent with task identity
+     */
+    public Comparator<DownloadTask> comparator() {
+        return comparator;
+    }
+}
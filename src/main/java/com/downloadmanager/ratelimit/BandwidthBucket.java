@@ -0,0 +1,69 @@
+package com.downloadmanager.ratelimit;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket of bytes. Like {@link TokenBucket}, callers take what they need
+ * up front and sleep off any debt, but a caller takes a whole buffer at once
+ * and the rate can be raised as well as lowered at runtime. The bucket holds
+ * at most {@code burst} worth of transfer time, so an idle transfer cannot
+ * save up a large burst.
+ */
+public class BandwidthBucket {
+
+    private final double burstSeconds;
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param bytesPerSecond Refill rate, must be positive
+     * @param burst Transfer time the bucket holds when full
+     */
+    public BandwidthBucket(long bytesPerSecond, Duration burst) {
+        this.burstSeconds = burst.toNanos() / (double) TimeUnit.SECONDS.toNanos(1);
+        this.rate = bytesPerSecond;
+        this.tokens = capacity();
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes bytes, possibly going into debt, and returns how long the caller
+     * must wait before sending more.
+     *
+     * @param bytes Number of bytes transferred
+     * @return Nanoseconds to wait, 0 if the bucket had enough
+     */
+    public synchronized long reserve(long bytes) {
+        refill(System.nanoTime());
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private double capacity() {
+        return Math.max(1, rate * burstSeconds);
+    }
+
+    private void refill(long now) {
+        if (now - lastRefill > 0) {
+            tokens = Math.min(capacity(), tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * Changes the refill rate. Bytes already owed are paid off at the new rate.
+     *
+     * @param bytesPerSecond The new rate, must be positive
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        refill(System.nanoTime());
+        rate = Math.max(1, bytesPerSecond);
+        tokens = Math.min(capacity(), tokens);
+    }
+
+    public synchronized long getRate() {
+        return (long) rate;
+    }
+}
@@ -0,0 +1,45 @@
+package com.downloadmanager.ratelimit;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint {@code bandwidth} showing the bandwidth caps and the share
+ * of each running task, and changing the caps at runtime. The scope of a
+ * change is {@code total}, {@code per-task}, {@code host:<name>} or
+ * {@code task:<id>}; a rate of 0 removes the cap.
+ */
+@Component
+@Endpoint(id = "bandwidth")
+public class BandwidthEndpoint {
+
+    private final BandwidthScheduler scheduler;
+
+    public BandwidthEndpoint(BandwidthScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @ReadOperation
+    public BandwidthScheduler.Report bandwidth() {
+        return scheduler.report();
+    }
+
+    @WriteOperation
+    public BandwidthScheduler.Report limit(@Selector String scope, long bytesPerSecond) {
+        if (scope.equals("total")) {
+            scheduler.setTotal(bytesPerSecond);
+        } else if (scope.equals("per-task")) {
+            scheduler.setPerTask(bytesPerSecond);
+        } else if (scope.startsWith("host:")) {
+            scheduler.setHostLimit(scope.substring("host:".length()), bytesPerSecond);
+        } else if (scope.startsWith("task:")) {
+            scheduler.setTaskLimit(Integer.parseInt(scope.substring("task:".length())), bytesPerSecond);
+        } else {
+            throw new IllegalArgumentException("Unknown bandwidth scope: " + scope);
+        }
+        return scheduler.report();
+    }
+}
@@ -0,0 +1,363 @@
+package com.downloadmanager.ratelimit;
+
+import com.downloadmanager.config.BandwidthProperties;
+import com.downloadmanager.model.DownloadTask;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shapes the bandwidth of all running downloads. Every connection pays for
+ * each buffer it writes, before reading the next one, from up to three buckets:
+ * <ul>
+ * <li>the total bucket, shared by all downloads</li>
+ * <li>its task's bucket, whose rate is the task's share of the total</li>
+ * <li>its host's bucket, if that host has a cap</li>
+ * </ul>
+ * A background thread shares the total out again every rebalance interval,
+ * max-min fair: a task that used less than its share, because of its own cap or
+ * a slow server, keeps what it used plus some headroom, and the rest is split
+ * between the tasks that used all of theirs. Unused budget thus moves to the
+ * busy tasks within one interval, without pausing anyone, while the total
+ * bucket keeps the sum at the cap. Caps can be changed at runtime.
+ */
+@Component
+@EnableConfigurationProperties(BandwidthProperties.class)
+@Slf4j
+public class BandwidthScheduler {
+
+    // A task that used less than this part of its share, and never had to wait
+    // for it, is not held back by it
+    private static final double SATURATED = 0.9;
+    // Weight of the last interval in the measured rate, which smooths out
+    // whole buffers landing on either side of an interval boundary
+    private static final double RATE_WEIGHT = 0.5;
+    // How much faster than last interval such a task may go in the next one
+    private static final double HEADROOM = 1.25;
+    private static final long MIN_SHARE = 64 * 1024;
+
+    private final BandwidthProperties properties;
+    private final Set<Flow> flows = ConcurrentHashMap.newKeySet();
+    private final Map<String, BandwidthBucket> hostBuckets = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> taskLimits = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService rebalancer;
+    private volatile BandwidthBucket totalBucket;
+    private long lastRebalance = System.nanoTime();
+
+    public BandwidthScheduler(BandwidthProperties properties) {
+        this.properties = properties;
+        this.totalBucket = properties.getTotal() > 0
+                ? new BandwidthBucket(properties.getTotal(), properties.getBurst()) : null;
+        properties.getHosts().forEach((host, limit) -> {
+            if (limit > 0) {
+                hostBuckets.put(host, new BandwidthBucket(limit, properties.getBurst()));
+            }
+        });
+        this.rebalancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BandwidthRebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts sharing out the total every rebalance interval.
+     */
+    @PostConstruct
+    public void start() {
+        long interval = properties.getRebalanceInterval().toMillis();
+        rebalancer.scheduleWithFixedDelay(this::rebalance, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers a running download. The caller must close the flow when the
+     * download ends.
+     *
+     * @param task The task
+     * @return The flow its connections pay through
+     */
+    public Flow open(DownloadTask task) {
+        Flow flow = new Flow(task.getId());
+        if (properties.isEnabled()) {
+            synchronized (this) {
+                flows.add(flow);
+                // Start with an equal share; the next rebalance adjusts it
+                long total = properties.getTotal();
+                long cap = capOf(flow.taskId);
+                long share = total > 0 ? total / flows.size() : 0;
+                flow.applyShare(cap > 0 && (share == 0 || cap < share) ? cap : share);
+            }
+        }
+        return flow;
+    }
+
+    /**
+     * Changes the cap of all downloads together.
+     *
+     * @param bytesPerSecond The cap, 0 for unlimited
+     */
+    public synchronized void setTotal(long bytesPerSecond) {
+        properties.setTotal(Math.max(0, bytesPerSecond));
+        BandwidthBucket bucket = totalBucket;
+        if (bytesPerSecond <= 0) {
+            totalBucket = null;
+        } else if (bucket == null) {
+            totalBucket = new BandwidthBucket(bytesPerSecond, properties.getBurst());
+        } else {
+            bucket.setRate(bytesPerSecond);
+        }
+        log.info("Total bandwidth cap set to {} bytes/s", bytesPerSecond);
+        rebalancer.execute(this::rebalance);
+    }
+
+    /**
+     * Changes the default cap of each task.
+     *
+     * @param bytesPerSecond The cap, 0 for unlimited
+     */
+    public synchronized void setPerTask(long bytesPerSecond) {
+        properties.setPerTask(Math.max(0, bytesPerSecond));
+        log.info("Per-task bandwidth cap set to {} bytes/s", bytesPerSecond);
+        rebalancer.execute(this::rebalance);
+    }
+
+    /**
+     * Changes the cap of one task, overriding the per-task default.
+     *
+     * @param taskId The task ID
+     * @param bytesPerSecond The cap, 0 to go back to the default
+     */
+    public void setTaskLimit(int taskId, long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            taskLimits.remove(taskId);
+        } else {
+            taskLimits.put(taskId, bytesPerSecond);
+        }
+        log.info("Bandwidth cap of task {} set to {} bytes/s", taskId, bytesPerSecond);
+        rebalancer.execute(this::rebalance);
+    }
+
+    /**
+     * Changes the cap of one host.
+     *
+     * @param host The host name
+     * @param bytesPerSecond The cap, 0 for unlimited
+     */
+    public synchronized void setHostLimit(String host, long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            hostBuckets.remove(host);
+        } else {
+            BandwidthBucket bucket = hostBuckets.get(host);
+            if (bucket == null) {
+                hostBuckets.put(host, new BandwidthBucket(bytesPerSecond, properties.getBurst()));
+            } else {
+                bucket.setRate(bytesPerSecond);
+            }
+        }
+        log.info("Bandwidth cap of host {} set to {} bytes/s", host, bytesPerSecond);
+    }
+
+    private long capOf(int taskId) {
+        return taskLimits.getOrDefault(taskId, properties.getPerTask());
+    }
+
+    /**
+     * Shares the total out between the running tasks, max-min fair, based on
+     * what each used since the last rebalance.
+     */
+    synchronized void rebalance() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRebalance) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastRebalance = now;
+        List<Flow> active = new ArrayList<>(flows);
+        if (active.isEmpty() || seconds <= 0) {
+            return;
+        }
+        long total = properties.getTotal();
+
+        // The most each task can use: its cap, or what it used plus headroom
+        double[] limits = new double[active.size()];
+        double[] caps = new double[active.size()];
+        for (int i = 0; i < active.size(); i++) {
+            Flow flow = active.get(i);
+            double sample = flow.bytes.getAndSet(0) / seconds;
+            flow.rate = (long) (flow.measured ? RATE_WEIGHT * sample + (1 - RATE_WEIGHT) * flow.rate : sample);
+            boolean throttled = flow.throttled;
+            flow.throttled = false;
+            long cap = capOf(flow.taskId);
+            caps[i] = cap > 0 ? cap : Double.POSITIVE_INFINITY;
+            limits[i] = caps[i];
+            if (flow.measured && !throttled && flow.share > 0 && flow.rate < flow.share * SATURATED) {
+                limits[i] = Math.min(caps[i], Math.max(MIN_SHARE, flow.rate * HEADROOM));
+            }
+            flow.measured = true;
+        }
+        if (total <= 0) {
+            for (int i = 0; i < active.size(); i++) {
+                active.get(i).applyShare(Double.isInfinite(caps[i]) ? 0 : (long) caps[i]);
+            }
+            return;
+        }
+
+        // Water-filling: the smallest limits are met first, the rest split evenly
+        Integer[] order = new Integer[active.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> limits[i]));
+        double[] shares = new double[active.size()];
+        double remaining = total;
+        for (int k = 0; k < order.length; k++) {
+            int i = order[k];
+            shares[i] = Math.min(limits[i], remaining / (order.length - k));
+            remaining -= shares[i];
+        }
+        // Budget nobody could use goes to the tasks held back by their own usage,
+        // so that they can speed up without waiting for the next interval
+        if (remaining > 1) {
+            List<Integer> growable = new ArrayList<>();
+            for (int i = 0; i < shares.length; i++) {
+                if (shares[i] < caps[i]) {
+                    growable.add(i);
+                }
+            }
+            for (int i : growable) {
+                shares[i] = Math.min(caps[i], shares[i] + remaining / growable.size());
+            }
+        }
+        for (int i = 0; i < active.size(); i++) {
+            active.get(i).applyShare(Math.max(1, (long) shares[i]));
+        }
+    }
+
+    /**
+     * Reports the caps and the share and rate of each running task.
+     *
+     * @return The report
+     */
+    public Report report() {
+        Map<String, Long> hosts = new TreeMap<>();
+        hostBuckets.forEach((host, bucket) -> hosts.put(host, bucket.getRate()));
+        List<FlowState> tasks = new ArrayList<>();
+        for (Flow flow : flows) {
+            long cap = capOf(flow.taskId);
+            tasks.add(new FlowState(flow.taskId, cap, flow.share, flow.rate));
+        }
+        tasks.sort(Comparator.comparingInt(FlowState::taskId));
+        return new Report(properties.isEnabled(), properties.getTotal(), properties.getPerTask(), hosts, tasks);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebalancer.shutdownNow();
+    }
+
+    /**
+     * Caps in bytes per second, 0 meaning unlimited.
+     */
+    public record Report(boolean enabled, long total, long perTask, Map<String, Long> hosts,
+                         List<FlowState> tasks) {
+    }
+
+    /**
+     * @param limit The task's cap
+     * @param share The task's current share of the total
+     * @param bytesPerSecond What the task used recently
+     */
+    public record FlowState(int taskId, long limit, long share, long bytesPerSecond) {
+    }
+
+    /**
+     * The bandwidth account of one running download, shared by its connections.
+     */
+    public final class Flow implements AutoCloseable {
+
+        private final int taskId;
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile BandwidthBucket bucket;
+        private volatile long share;
+        private volatile long rate;
+        // Set when the total or the task's share made a connection wait
+        private volatile boolean throttled;
+        private boolean measured;
+
+        private Flow(int taskId) {
+            this.taskId = taskId;
+        }
+
+        /**
+         * Pays for bytes a connection has written, sleeping as long as any of
+         * the buckets involved is in debt.
+         *
+         * @param host The host the bytes came from
+         * @param count Number of bytes
+         * @throws InterruptedIOException if interrupted while waiting
+         */
+        public void acquire(String host, int count) throws InterruptedIOException {
+            if (!properties.isEnabled()) {
+                return;
+            }
+            bytes.addAndGet(count);
+            long waitNanos = 0;
+            BandwidthBucket total = totalBucket;
+            if (total != null) {
+                waitNanos = total.reserve(count);
+            }
+            BandwidthBucket own = bucket;
+            if (own != null) {
+                waitNanos = Math.max(waitNanos, own.reserve(count));
+            }
+            if (waitNanos > 0) {
+                throttled = true;
+            }
+            BandwidthBucket hostBucket = hostBuckets.isEmpty() ? null : hostBuckets.get(host);
+            if (hostBucket != null) {
+                waitNanos = Math.max(waitNanos, hostBucket.reserve(count));
+            }
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttled");
+                }
+            }
+        }
+
+        private void applyShare(long bytesPerSecond) {
+            share = bytesPerSecond;
+            BandwidthBucket current = bucket;
+            if (bytesPerSecond <= 0) {
+                bucket = null;
+            } else if (current == null) {
+                bucket = new BandwidthBucket(bytesPerSecond, properties.getBurst());
+            } else {
+                current.setRate(bytesPerSecond);
+            }
+        }
+
+        /**
+         * Unregisters the download; its share goes to the others at the next rebalance.
+         */
+        @Override
+        public void close() {
+            flows.remove(this);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.downloadmanager.ratelimit;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * OkHttp interceptor that makes every call wait for a token from its host's
+ * bucket and, for calls tagged with a {@link RequestOrg}, from the org's
+ * bucket. Calls also tagged with a {@link RateLimitKey} use that credential's
+ * bucket instead, with the org limits, so an org with several tokens gets
+ * each token's budget. Responses are read for rate limit headers: {@code Retry-After} pauses
+ * the bucket, and {@code X-RateLimit-Remaining}/{@code X-RateLimit-Reset} adjust
+ * its rate so the remaining budget lasts until the reset.
+ */
+@Component
+@Slf4j
+public class RateLimitInterceptor implements Interceptor {
+
+    private final RateLimiterRegistry registry;
+
+    public RateLimitInterceptor(RateLimiterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        if (!registry.isEnabled()) {
+            return chain.proceed(chain.request());
+        }
+
+        RequestOrg org = chain.request().tag(RequestOrg.class);
+        RateLimitKey key = chain.request().tag(RateLimitKey.class);
+        TokenBucket hostBucket = registry.forHost(chain.request().url().host());
+        TokenBucket orgBucket = null;
+        if (key != null) {
+            orgBucket = registry.forOrg(key.getKey());
+        } else if (org != null && org.getName() != null) {
+            orgBucket = registry.forOrg(org.getName());
+        }
+
+        try {
+            hostBucket.acquire();
+            if (orgBucket != null) {
+                orgBucket.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for rate limit");
+        }
+
+        Response response = chain.proceed(chain.request());
+
+        // API budgets are per org (its credentials), everything else is per host
+        TokenBucket limited = orgBucket != null ? orgBucket : hostBucket;
+        long retryAfter = retryAfterMillis(response.header("Retry-After"));
+        if (retryAfter > 0 && (response.code() == 429 || response.code() == 503 || response.code() == 403)) {
+            log.warn("HTTP {} from {}, backing off for {} ms",
+                    response.code(), chain.request().url().host(), retryAfter);
+            registry.backOff(limited, retryAfter);
+        }
+
+        String remaining = response.header("X-RateLimit-Remaining");
+        String reset = response.header("X-RateLimit-Reset");
+        if (remaining != null && reset != null) {
+            try {
+                registry.adapt(limited, Long.parseLong(remaining.trim()), Long.parseLong(reset.trim()));
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring malformed rate limit headers: {} / {}", remaining, reset);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Parses a {@code Retry-After} header, given either in seconds or as an HTTP date.
+     *
+     * @param value The header value, may be null
+     * @return The delay in milliseconds, or 0 if absent or malformed
+     */
+    public static long retryAfterMillis(String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+            } catch (DateTimeParseException ignored) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.downloadmanager.ratelimit;
+
+import lombok.Value;
+
+/**
+ * Request tag naming the credential an API request is made with. When present,
+ * the org rate limit applies per credential instead of per org.
+ */
+@Value
+public class RateLimitKey {
+    String key;
+}
@@ -0,0 +1,88 @@
+package com.downloadmanager.ratelimit;
+
+import com.downloadmanager.config.RateLimitProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds one token bucket per host and one per org, created on first use from
+ * the configured limits, and adapts them to what the server reports.
+ */
+@Component
+@EnableConfigurationProperties(RateLimitProperties.class)
+@Slf4j
+public class RateLimiterRegistry {
+
+    private final RateLimitProperties properties;
+    private final Map<String, TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> orgBuckets = new ConcurrentHashMap<>();
+
+    public RateLimiterRegistry(RateLimitProperties properties) {
+        this.properties = properties;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Gets the bucket of a host.
+     *
+     * @param host The host name
+     * @return The host's bucket
+     */
+    public TokenBucket forHost(String host) {
+        return hostBuckets.computeIfAbsent(host, h -> {
+            RateLimitProperties.Limit limit = properties.getHosts().getOrDefault(h, properties.getHost());
+            return new TokenBucket(limit.getPermitsPerSecond(), limit.getBurst());
+        });
+    }
+
+    /**
+     * Gets the bucket of an org.
+     *
+     * @param org The org name
+     * @return The org's bucket
+     */
+    public TokenBucket forOrg(String org) {
+        return orgBuckets.computeIfAbsent(org, o -> new TokenBucket(
+                properties.getOrg().getPermitsPerSecond(), properties.getOrg().getBurst()));
+    }
+
+    /**
+     * Spreads the remaining request budget evenly over the time left until the
+     * budget resets, so that it lasts until the reset instead of running out early.
+     *
+     * @param bucket The bucket the budget belongs to
+     * @param remaining Requests left in the current window
+     * @param resetEpochSeconds When the window resets, in epoch seconds
+     */
+    public void adapt(TokenBucket bucket, long remaining, long resetEpochSeconds) {
+        long secondsLeft = resetEpochSeconds - System.currentTimeMillis() / 1000;
+        if (secondsLeft <= 0) {
+            bucket.setRate(bucket.getMaxRate());
+            return;
+        }
+        if (remaining <= 0) {
+            log.warn("Rate limit budget exhausted, pausing for {}s", secondsLeft);
+            bucket.pauseUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(secondsLeft));
+            return;
+        }
+        bucket.setRate((double) remaining / secondsLeft);
+    }
+
+    /**
+     * Pauses a bucket for the delay the server asked for.
+     *
+     * @param bucket The bucket to pause
+     * @param delayMillis The requested delay
+     */
+    public void backOff(TokenBucket bucket, long delayMillis) {
+        bucket.pauseUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+}
@@ -0,0 +1,12 @@
+package com.downloadmanager.ratelimit;
+
+import lombok.Value;
+
+/**
+ * Request tag naming the org an API request is made for, so that the org's
+ * rate limit applies to it.
+ */
+@Value
+public class RequestOrg {
+    String name;
+}
@@ -0,0 +1,113 @@
+package com.downloadmanager.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiter. Callers take a token up front and, if the bucket is in
+ * debt, sleep until their token would have been refilled, so waiting callers
+ * are released one by one at the configured rate instead of all at once.
+ * The rate can be changed and the bucket paused at runtime.
+ */
+public class TokenBucket {
+
+    private final double maxRate;
+    private final double capacity;
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+
+    /**
+     * @param permitsPerSecond Refill rate, also the upper bound for {@link #setRate(double)}
+     * @param burst Number of tokens the bucket holds when full
+     */
+    public TokenBucket(double permitsPerSecond, double burst) {
+        this.maxRate = permitsPerSecond;
+        this.rate = permitsPerSecond;
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+        this.pausedUntil = lastRefill;
+    }
+
+    /**
+     * Takes one token, blocking until it is available.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long pausedNanos;
+        while ((pausedNanos = pauseRemaining()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(pausedNanos);
+        }
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a token if one is available right now.
+     *
+     * @return true if a token was taken
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        refill(now);
+        if (now - pausedUntil < 0 || tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Takes a token, possibly going into debt, and returns how long the caller
+     * must wait before using it.
+     */
+    private synchronized long reserve() {
+        refill(System.nanoTime());
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private synchronized long pauseRemaining() {
+        return pausedUntil - System.nanoTime();
+    }
+
+    private void refill(long now) {
+        if (now - lastRefill > 0) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * Stops handing out tokens until the given time.
+     *
+     * @param nanoTime Time in {@link System#nanoTime()} terms
+     */
+    public synchronized void pauseUntil(long nanoTime) {
+        if (nanoTime - pausedUntil > 0) {
+            pausedUntil = nanoTime;
+        }
+    }
+
+    /**
+     * Changes the refill rate, capped at the configured rate.
+     *
+     * @param permitsPerSecond The new rate
+     */
+    public synchronized void setRate(double permitsPerSecond) {
+        refill(System.nanoTime());
+        rate = Math.max(0.01, Math.min(maxRate, permitsPerSecond));
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public double getMaxRate() {
+        return maxRate;
+    }
+}
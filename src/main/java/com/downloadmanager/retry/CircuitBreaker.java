@@ -0,0 +1,91 @@
+package com.downloadmanager.retry;
+
+/**
+ * Circuit breaker of one host. After {@code failureThreshold} consecutive host
+ * failures the circuit opens and calls are rejected for {@code openDuration}.
+ * Then a single trial call is let through: its success closes the circuit, its
+ * failure opens it again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openNanos) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * Asks to make a call.
+     *
+     * @return true if the call may go ahead
+     */
+    public synchronized boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    synchronized boolean tryAcquire(long now) {
+        if (state == State.OPEN && now - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (trialInFlight) {
+                    yield false;
+                }
+                trialInFlight = true;
+                yield true;
+            }
+        };
+    }
+
+    /**
+     * Records a call that reached the host and got an answer.
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * Records a call that failed in a way that counts against the host.
+     *
+     * @return true if this failure opened the circuit
+     */
+    public synchronized boolean onFailure() {
+        long now = System.nanoTime();
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = now;
+            trialInFlight = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a call that ended without saying anything about the host, so a
+     * pending trial slot is given back.
+     */
+    public synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
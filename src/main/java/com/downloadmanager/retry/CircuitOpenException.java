@@ -0,0 +1,22 @@
+package com.downloadmanager.retry;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making a call to a host whose circuit is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+
+    public CircuitOpenException(String host) {
+        super("Circuit open for " + host + ", not calling it");
+        this.host = host;
+    }
+
+    public String getHost() {
+        return host;
+    }
+}
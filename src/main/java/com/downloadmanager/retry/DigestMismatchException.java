@@ -0,0 +1,16 @@
+package com.downloadmanager.retry;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a downloaded file does not match its expected digest. The part
+ * file is discarded before this is thrown, so a retry starts over.
+ */
+public class DigestMismatchException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DigestMismatchException(String algorithm, String expected, String actual) {
+        super(algorithm + " mismatch: expected " + expected + " but got " + actual);
+    }
+}
@@ -0,0 +1,86 @@
+package com.downloadmanager.retry;
+
+import okhttp3.internal.http2.StreamResetException;
+
+import java.io.EOFException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+/**
+ * What a failure says about the call and about the host it went to.
+ */
+public enum FailureClass {
+
+    /**
+     * The host is unreachable, too slow or broken: retried, and counted by the host's circuit breaker.
+     */
+    HOST,
+
+    /**
+     * The host works but refused for now (429), the connection broke off or the
+     * bytes arrived corrupted: retried only.
+     */
+    TRANSIENT,
+
+    /**
+     * Retrying cannot help, e.g. a 404, a TLS error, a full disk or an interrupt.
+     */
+    FATAL;
+
+    public boolean isRetryable() {
+        return this != FATAL;
+    }
+
+    /**
+     * Classifies a failure.
+     *
+     * @param error The failure
+     * @return The class of the failure
+     */
+    public static FailureClass of(Throwable error) {
+        if (error instanceof CircuitOpenException) {
+            return FATAL;
+        }
+        if (error instanceof HttpStatusException status) {
+            return ofStatus(status.getCode());
+        }
+        if (error instanceof SocketTimeoutException
+                || error instanceof ConnectException
+                || error instanceof NoRouteToHostException
+                || error instanceof UnknownHostException) {
+            return HOST;
+        }
+        // Okio reports its own timeouts as a plain InterruptedIOException("timeout")
+        if (error instanceof InterruptedIOException) {
+            return "timeout".equals(error.getMessage()) && !Thread.currentThread().isInterrupted() ? HOST : FATAL;
+        }
+        // A corrupted transfer is worth another try, which starts from scratch
+        if (error instanceof DigestMismatchException
+                || error instanceof StreamResetException
+                || error instanceof SocketException
+                || error instanceof EOFException
+                || error instanceof ProtocolException) {
+            return TRANSIENT;
+        }
+        return FATAL;
+    }
+
+    /**
+     * Classifies an unsuccessful status code.
+     *
+     * @param code The HTTP status code
+     * @return The class of the failure
+     */
+    public static FailureClass ofStatus(int code) {
+        return switch (code) {
+            case 408, 429 -> TRANSIENT;
+            case 500, 502, 503, 504 -> HOST;
+            default -> FATAL;
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package com.downloadmanager.retry;
+
+import com.downloadmanager.ratelimit.RateLimitInterceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * An unsuccessful HTTP response, with what is needed to decide on a retry.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+    private final long retryAfterMillis;
+
+    /**
+     * @param message The message, which should contain {@code HTTP <code>}
+     * @param code The status code
+     * @param retryAfterMillis The delay the server asked for with {@code Retry-After}, 0 if none
+     */
+    public HttpStatusException(String message, int code, long retryAfterMillis) {
+        super(message);
+        this.code = code;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Creates the exception for an unsuccessful response.
+     *
+     * @param prefix Context for the message, e.g. the page, may be empty
+     * @param response The response
+     * @return The exception
+     */
+    public static HttpStatusException from(String prefix, Response response) {
+        return new HttpStatusException(prefix + "HTTP " + response.code() + ": " + response.message(),
+                response.code(), RateLimitInterceptor.retryAfterMillis(response.header("Retry-After")));
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
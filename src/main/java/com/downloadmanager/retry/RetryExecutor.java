@@ -0,0 +1,186 @@
+package com.downloadmanager.retry;
+
+import com.downloadmanager.config.RetryProperties;
+import com.downloadmanager.metrics.DownloadMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs calls to a host with retries. Failures are classified by
+ * {@link FailureClass}; retryable ones are retried after an exponential backoff
+ * with full jitter, or after the server's {@code Retry-After} if that is longer.
+ * Each host has a {@link CircuitBreaker}: while it is open, calls to the host
+ * fail at once with a {@link CircuitOpenException} instead of holding a worker
+ * through timeouts and backoffs.
+ */
+@Component
+@EnableConfigurationProperties(RetryProperties.class)
+@Slf4j
+public class RetryExecutor {
+
+    private final RetryProperties properties;
+    private final DownloadMetrics metrics;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public RetryExecutor(RetryProperties properties, DownloadMetrics metrics) {
+        this.properties = properties;
+        this.metrics = metrics;
+    }
+
+    /**
+     * A call that may be attempted several times.
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+
+        /**
+         * @param attempt The attempt number, starting at 1
+         * @return The result
+         * @throws IOException if the attempt fails
+         */
+        T run(int attempt) throws IOException;
+    }
+
+    /**
+     * Runs a call, retrying it until it succeeds, fails in a way retrying cannot
+     * fix, or runs out of attempts. The backoff is spent on the calling thread.
+     * An unchecked exception from an attempt is passed on without a retry and
+     * says nothing about the host.
+     *
+     * @param host The host the call goes to
+     * @param call The call
+     * @return The call's result
+     * @throws IOException the last failure
+     */
+    public <T> T execute(String host, Attempt<T> call) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            checkCircuit(host);
+            try {
+                T result = call.run(attempt);
+                succeeded(host);
+                return result;
+            } catch (IOException e) {
+                long delay = backoff(host, attempt, e);
+                if (delay < 0) {
+                    throw e;
+                }
+                log.warn("Attempt {} for {} failed ({}), retrying in {} ms", attempt, host, e.getMessage(), delay);
+                sleep(delay);
+            } catch (RuntimeException | Error e) {
+                abandoned(host);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Throws if the host's circuit is open. Every call that passes must be
+     * followed by {@link #succeeded(String)}, {@link #backoff(String, int, IOException)}
+     * or {@link #abandoned(String)}, or a half-open circuit stays closed to calls.
+     *
+     * @param host The host
+     * @throws CircuitOpenException if calls to the host are rejected
+     */
+    public void checkCircuit(String host) throws CircuitOpenException {
+        if (properties.getCircuitBreaker().isEnabled() && !breaker(host).tryAcquire()) {
+            throw new CircuitOpenException(host);
+        }
+    }
+
+    /**
+     * Records a successful call to a host.
+     *
+     * @param host The host
+     */
+    public void succeeded(String host) {
+        if (properties.getCircuitBreaker().isEnabled()) {
+            breaker(host).onSuccess();
+        }
+    }
+
+    /**
+     * Records a call to a host that ended without an outcome, e.g. a bug in the
+     * caller or a cancellation, so that it neither counts for nor against the host.
+     *
+     * @param host The host
+     */
+    public void abandoned(String host) {
+        if (properties.getCircuitBreaker().isEnabled()) {
+            breaker(host).onIgnored();
+        }
+    }
+
+    /**
+     * Records a failed call to a host and decides whether to retry it.
+     *
+     * @param host The host
+     * @param attempt The attempt that failed, starting at 1
+     * @param error The failure
+     * @return The delay before the next attempt in milliseconds, or -1 to give up
+     */
+    public long backoff(String host, int attempt, IOException error) {
+        FailureClass failure = FailureClass.of(error);
+        if (properties.getCircuitBreaker().isEnabled() && !(error instanceof CircuitOpenException)) {
+            CircuitBreaker breaker = breaker(host);
+            if (failure == FailureClass.HOST) {
+                if (breaker.onFailure()) {
+                    log.warn("Circuit opened for {} after repeated failures, rejecting calls for {}",
+                            host, properties.getCircuitBreaker().getOpenDuration());
+                }
+            } else if (failure == FailureClass.TRANSIENT || error instanceof HttpStatusException) {
+                // The host answered or at least accepted the connection
+                breaker.onSuccess();
+            } else {
+                breaker.onIgnored();
+            }
+        }
+        if (!properties.isEnabled() || !failure.isRetryable() || attempt >= properties.getMaxAttempts()) {
+            return -1;
+        }
+
+        long retryAfter = error instanceof HttpStatusException status ? status.getRetryAfterMillis() : 0;
+        if (retryAfter > properties.getMaxRetryAfter().toMillis()) {
+            return -1;
+        }
+        long ceiling = (long) Math.min(properties.getMaxBackoff().toMillis(),
+                properties.getInitialBackoff().toMillis() * Math.pow(properties.getMultiplier(), attempt - 1));
+        // Full jitter, so clients failing together do not retry together
+        long delay = ThreadLocalRandom.current().nextLong(Math.max(1, ceiling) + 1);
+        metrics.recordRetry(error);
+        return Math.max(retryAfter, delay);
+    }
+
+    /**
+     * Gets the circuit state of a host.
+     *
+     * @param host The host
+     * @return The state, CLOSED for hosts never called
+     */
+    public CircuitBreaker.State getState(String host) {
+        CircuitBreaker breaker = breakers.get(host);
+        return breaker != null ? breaker.getState() : CircuitBreaker.State.CLOSED;
+    }
+
+    private CircuitBreaker breaker(String host) {
+        return breakers.computeIfAbsent(host, h -> new CircuitBreaker(
+                properties.getCircuitBreaker().getFailureThreshold(),
+                properties.getCircuitBreaker().getOpenDuration().toNanos()));
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package com.downloadmanager.service;
 
+import com.downloadmanager.cache.ConditionalCacheInterceptor;
 import com.downloadmanager.model.FetchDataCount;
+import com.downloadmanager.ratelimit.RequestOrg;
+import com.downloadmanager.retry.HttpStatusException;
+import com.downloadmanager.retry.RetryExecutor;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -13,22 +21,33 @@ import java.io.IOException;
 
 
 /**
- * Service that handles the actual downloading of data list.
+ * Service that fetches the total number of items behind a paginated list endpoint.
  */
 @Service
 @Slf4j
 public class DataCountFetchService {
+    static final String PAGE_PARAMETER = "page";
+    static final String PER_PAGE_PARAMETER = "per_page";
+
     private final OkHttpClient httpClient;
-    private final TokenService tokenService;
+    private final ObjectMapper objectMapper;
+    private final RetryExecutor retryExecutor;
 
     @Autowired
-    public DataCountFetchService(OkHttpClient client, TokenService tokenService) {
+    public DataCountFetchService(OkHttpClient client, ObjectMapper objectMapper, RetryExecutor retryExecutor) {
         this.httpClient = client;
-        this.tokenService = tokenService;
+        this.objectMapper = objectMapper;
+        this.retryExecutor = retryExecutor;
     }
     
     /**
-     * Downloads a count of items from the given job.
+     * Downloads a count of items from the given job. The request asks for one
+     * item per page, so the page number of the {@code rel="last"} link in the
+     * {@code Link} header is the item count and no body needs to be read. A
+     * response without a Link header fits on one page and its items are counted
+     * instead. A response the {@link ConditionalCacheInterceptor} revalidated
+     * is counted from the cached headers and body and logged as unchanged.
+     * Transient failures are retried by the {@link RetryExecutor}.
      * 
      * @param job The download job
      */
@@ -37,31 +56,47 @@ public class DataCountFetchService {
         
         // Mark job as started
         job.markStarted();
-
+        
+        HttpUrl url = HttpUrl.parse(job.getUrl());
+        if (url == null) {
+            job.markFailed("Invalid URL: " + job.getUrl());
+            throw new IOException("Invalid URL: " + job.getUrl());
+        }
+        
         // Create HTTP request
         Request request = new Request.Builder()
-                .url(job.getUrl())
+                .url(url.newBuilder().setQueryParameter(PER_PAGE_PARAMETER, "1").build())
                 .addHeader("User-Agent", "DownloadManager/1.0")
-                .addHeader("Authorization", "Bearer " + tokenService.getToken(job.getOrg()))
+                .tag(RequestOrg.class, new RequestOrg(job.getOrg()))
                 .build();
         
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("HTTP " + response.code() + ": " + response.message());
-            }
+        try {
+            boolean changed = retryExecutor.execute(url.host(), attempt -> {
+                try (Response response = httpClient.newCall(request).execute()) {
+                    if (!response.isSuccessful()) {
+                        throw HttpStatusException.from("", response);
+                    }
+                    
+                    ResponseBody body = response.body();
+                    if (body == null) {
+                        throw new IOException("No response body");
+                    }
+                    
+                    // read the response header and extract the LINK header
+                    long lastPage = LinkHeader.lastPage(response.header("Link"), PAGE_PARAMETER);
+                    job.setCount(lastPage >= 0 ? lastPage : countItems(body));
+                    return !"HIT".equals(response.header(ConditionalCacheInterceptor.CACHE_HEADER));
+                }
+            });
             
-            ResponseBody body = response.body();
-            if (body == null) {
-                throw new IOException("No response body");
-            }
-
-            // read the response header and extract the LINK header
-            
-
             // Mark as completed
             job.markCompleted();
-            log.info("Download completed for job {}: {}",
-                    job.getId(), job.getUrl());
+            if (changed) {
+                log.info("Download completed for job {}: {} ({} items)",
+                        job.getId(), job.getUrl(), job.getCount());
+            } else {
+                log.info("Count unchanged for job {}: {} ({} items)", job.getId(), job.getUrl(), job.getCount());
+            }
             
         } catch (Exception e) {
             log.error("Download failed for task {}: {}", job.getId(), job.getUrl(), e);
@@ -69,4 +104,38 @@ public class DataCountFetchService {
             throw e;
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Counts the items in a single-page response. A JSON array counts its
+     * elements; an object counts as its {@code total_count} field if it has one
+     * (search style responses), otherwise as one item (detail responses).
+     * 
+     * @param body The response body
+     * @return The number of items
+     */
+    private long countItems(ResponseBody body) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body.byteStream())) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                long count = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    parser.skipChildren();
+                    count++;
+                }
+                return count;
+            }
+            if (token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    if ("total_count".equals(field) && parser.currentToken().isNumeric()) {
+                        return parser.getLongValue();
+                    }
+                    parser.skipChildren();
+                }
+                return 1;
+            }
+            return 0;
+        }
+    }
+}
@@ -1,202 +1,482 @@
 package com.downloadmanager.service;
 
-import com.downloadmanager.model.DownloadTask;
+import com.downloadmanager.config.FetchProperties;
+import com.downloadmanager.io.ItemSink;
+import com.downloadmanager.model.FetchDataItems;
+import com.downloadmanager.ratelimit.RequestOrg;
+import com.downloadmanager.retry.CircuitOpenException;
+import com.downloadmanager.retry.HttpStatusException;
+import com.downloadmanager.retry.RetryExecutor;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import org.springframework.stereotype.Service;
 
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Service that handles the actual file downloads.
+ * Service that fetches the pages of list jobs, either as raw pages or as a
+ * stream of parsed items.
  */
 @Service
 @Slf4j
 public class DataItemsFetchService {
 
     private final OkHttpClient httpClient;
-    private final String downloadDirectory;
+    private final ObjectMapper objectMapper;
+    private final RetryExecutor retryExecutor;
+    private final int pageParallelism;
 
-    public DataItemsFetchService() {
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(60, TimeUnit.SECONDS)
-                .build();
-        
-        this.downloadDirectory = "downloads";
-        createDownloadDirectory();
+    public DataItemsFetchService(OkHttpClient client, ObjectMapper objectMapper,
+                                 FetchProperties fetchProperties, RetryExecutor retryExecutor) {
+        this.httpClient = client;
+        this.objectMapper = objectMapper;
+        this.retryExecutor = retryExecutor;
+        this.pageParallelism = fetchProperties.getPageParallelism();
     }
     
     /**
-     * Downloads a file from the given task.
+     * Fetches every page of a list job and hands the pages to the consumer in
+     * page order. If the job does not know its last page yet, page 1 is
+     * fetched first and the last page is read from its {@code Link} header.
+     * The remaining pages are then requested concurrently, at most
+     * {@code fetch.page-parallelism} at a time. The page due next is read
+     * straight from its response body; only pages that arrive early are read
+     * in full and wait in a small reorder buffer, and no page is requested
+     * more than twice the parallelism ahead of the next page to deliver, so
+     * memory stays bounded. A page that fails transiently is requested again
+     * after the {@link RetryExecutor}'s backoff, while the other pages keep going.
      * 
-     * @param task The download task
-     * @throws IOException if download fails
+     * @param job The list job
+     * @param consumer Receives each page, on the calling thread
+     * @throws IOException if any page fails
      */
-    public void downloadFile(DownloadTask task) throws IOException {
-        log.info("Starting download for task {}: {}", task.getId(), task.getUrl());
-        
-        // Mark task as started
-        task.markStarted();
-        
-        // Get filename from URL
-        String filename = getFilenameFromUrl(task.getUrl());
-        task.setFilename(filename);
-        
-        // Create download path
-        Path downloadPath = Paths.get(downloadDirectory, filename);
-        
-        // Ensure unique filename
-        downloadPath = ensureUniqueFilename(downloadPath);
-        task.setFilename(downloadPath.getFileName().toString());
-        
-        // Create HTTP request
-        Request request = new Request.Builder()
-                .url(task.getUrl())
-                .addHeader("User-Agent", "DownloadManager/1.0")
-                .build();
+    public void fetch(FetchDataItems job, PageConsumer consumer) throws IOException {
+        fetchPages(job, (page, body) -> consumer.accept(page, body.readAllBytes()));
+    }
+    
+    /**
+     * Fetches every page of a list job and streams its items to the sink in
+     * list order. Each page is parsed with a pull parser and its items are
+     * emitted one at a time, so no page is ever held as a parsed tree. A page
+     * whose body is an object rather than an array (detail endpoints) is
+     * emitted as a single item.
+     * 
+     * @param job The list job
+     * @param sink Receives each item; it is not closed by this method
+     * @throws IOException if any page fails or cannot be parsed
+     */
+    public void fetch(FetchDataItems job, ItemSink sink) throws IOException {
+        ItemStreamer streamer = new ItemStreamer(sink);
+        fetchPages(job, streamer);
+        job.setItemCount(streamer.items);
+    }
+    
+    private void fetchPages(FetchDataItems job, PageHandler handler) throws IOException {
+        log.info("Starting fetch for job {}: {}", job.getId(), job.getUrl());
+        job.markStarted();
         
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("HTTP " + response.code() + ": " + response.message());
-            }
-            
-            ResponseBody body = response.body();
-            if (body == null) {
-                throw new IOException("No response body");
+        try {
+            long firstPage = 1;
+            if (job.getLastPage() <= 0) {
+                Request request = pageRequest(job, 1);
+                String host = request.url().host();
+                Response first = retryExecutor.execute(host, attempt -> {
+                    Response response = httpClient.newCall(request).execute();
+                    try {
+                        pageBody(response, 1);
+                    } catch (IOException e) {
+                        response.close();
+                        throw e;
+                    }
+                    return response;
+                });
+                long lastPage = LinkHeader.lastPage(first.header("Link"), DataCountFetchService.PAGE_PARAMETER);
+                job.setLastPage(Math.max(1, lastPage));
+                IOException failure = deliver(new PageResult(1, host, null, first, null), handler);
+                if (failure == null) {
+                    firstPage = 2;
+                } else {
+                    log.warn("Page 1 of job {} broke off ({}), requesting it again", job.getId(), failure.getMessage());
+                }
             }
+            fetchPagesInParallel(job, firstPage, job.getLastPage(), handler);
             
-            long contentLength = body.contentLength();
-            task.updateProgress(0, contentLength);
-            
-            log.info("Downloading {} ({} bytes) to {}", filename, contentLength, downloadPath);
-            
-            // Download with progress tracking
-            try (InputStream inputStream = body.byteStream();
-                 FileOutputStream outputStream = new FileOutputStream(downloadPath.toFile())) {
+            job.markCompleted();
+            log.info("Fetch completed for job {}: {} ({} pages)", job.getId(), job.getUrl(), job.getLastPage());
+        } catch (Exception e) {
+            log.error("Fetch failed for job {}: {}", job.getId(), job.getUrl(), e);
+            job.markFailed(e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Requests pages {@code first..last} asynchronously and delivers them in order.
+     * Only the calling thread touches the bookkeeping; the HTTP callbacks just
+     * report finished pages through a queue. Failed pages wait in a retry queue
+     * until their backoff has passed and are requested before any new page.
+     * A page whose body breaks off while it is delivered is retried the same way.
+     * A page the host's circuit rejects while other pages are in flight, e.g.
+     * because one of them holds the half-open trial, waits until the next page
+     * finishes; with nothing in flight the rejection fails the job.
+     */
+    private void fetchPagesInParallel(FetchDataItems job, long first, long last, PageHandler handler) throws IOException {
+        int parallelism = Math.max(1, pageParallelism);
+        PageDelivery delivery = new PageDelivery(first);
+        Map<Long, PageResult> reorderBuffer = new HashMap<>();
+        Map<Long, Call> inFlight = new HashMap<>();
+        Map<Long, Integer> attempts = new HashMap<>();
+        PriorityQueue<PageRetry> retries = new PriorityQueue<>(Comparator.comparingLong(PageRetry::dueNanos));
+        List<Long> blocked = new ArrayList<>();
+        long nextToRequest = first;
+        long nextToDeliver = first;
+        
+        try {
+            while (nextToDeliver <= last) {
+                long now = System.nanoTime();
+                while (blocked.isEmpty() && inFlight.size() < parallelism
+                        && !retries.isEmpty() && retries.peek().dueNanos() <= now) {
+                    startPage(job, retries.poll().page(), delivery, inFlight, blocked);
+                }
+                while (blocked.isEmpty() && inFlight.size() < parallelism
+                        && nextToRequest <= last
+                        && nextToRequest - nextToDeliver < 2L * parallelism) {
+                    startPage(job, nextToRequest++, delivery, inFlight, blocked);
+                }
                 
-                byte[] buffer = new byte[8192];
-                long downloadedBytes = 0;
-                int bytesRead;
+                // Without a free slot a due retry has to wait for a page to finish anyway
+                PageResult result = retries.isEmpty() || !blocked.isEmpty() || inFlight.size() >= parallelism
+                        ? delivery.finished.take()
+                        : delivery.finished.poll(Math.max(0, retries.peek().dueNanos() - now), TimeUnit.NANOSECONDS);
+                if (result == null) {
+                    continue;
+                }
+                inFlight.remove(result.page());
+                for (long page : blocked) {
+                    retries.add(new PageRetry(page, now));
+                }
+                blocked.clear();
+                if (result.error() != null) {
+                    retryLater(job, result.page(), result.host(), result.error(), attempts, retries);
+                    continue;
+                }
+                if (result.body() != null) {
+                    retryExecutor.succeeded(result.host());
+                }
+                reorderBuffer.put(result.page(), result);
                 
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                    downloadedBytes += bytesRead;
-                    
-                    // Update progress
-                    task.updateProgress(downloadedBytes, contentLength);
-                    
-                    // Log progress every 1MB
-                    if (downloadedBytes % (1024 * 1024) == 0) {
-                        log.info("Task {}: {} / {} ({}%)", 
-                                task.getId(), 
-                                task.getFormattedFileSize(), 
-                                task.getFormattedSpeed(),
-                                task.getProgressString());
+                PageResult next;
+                while ((next = reorderBuffer.remove(nextToDeliver)) != null) {
+                    IOException failure;
+                    try {
+                        failure = deliver(next, handler);
+                    } catch (IOException | RuntimeException e) {
+                        if (next.response() != null) {
+                            // The handler gave up on a streamed page before its outcome was known
+                            retryExecutor.abandoned(next.host());
+                        }
+                        throw e;
+                    }
+                    if (failure != null) {
+                        retryLater(job, next.page(), next.host(), failure, attempts, retries);
+                        break;
+                    }
+                    if (next.response() != null) {
+                        // A streamed page only counts for the host once its body has been read
+                        retryExecutor.succeeded(next.host());
                     }
+                    delivery.next.set(++nextToDeliver);
                 }
-                
-                outputStream.flush();
             }
-            
-            // Mark as completed
-            task.markCompleted();
-            log.info("Download completed for task {}: {} -> {}", 
-                    task.getId(), task.getUrl(), downloadPath);
-            
-        } catch (Exception e) {
-            log.error("Download failed for task {}: {}", task.getId(), task.getUrl(), e);
-            task.markFailed(e.getMessage());
-            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching pages of " + job.getUrl());
+        } finally {
+            delivery.closed = true;
+            for (Call call : inFlight.values()) {
+                call.cancel();
+                // Their outcome is never looked at
+                retryExecutor.abandoned(call.request().url().host());
+            }
+            // Their calls are still in flight above, so closing them is all that is left
+            PageResult unused;
+            while ((unused = delivery.finished.poll()) != null) {
+                unused.close();
+            }
+        }
+    }
+    
+    /**
+     * Queues a failed page for another request after the host's backoff.
+     * 
+     * @throws IOException the failure, if the page must not be retried
+     */
+    private void retryLater(FetchDataItems job, long page, String host, IOException error,
+                            Map<Long, Integer> attempts, PriorityQueue<PageRetry> retries) throws IOException {
+        int attempt = attempts.merge(page, 1, Integer::sum);
+        long delay = retryExecutor.backoff(host, attempt, error);
+        if (delay < 0) {
+            throw error;
         }
+        log.warn("Page {} of job {} failed ({}), retrying in {} ms",
+                page, job.getId(), error.getMessage(), delay);
+        retries.add(new PageRetry(page, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
     }
     
     /**
-     * Extracts filename from URL.
+     * Hands one page to the handler, reading a streamed page straight from its
+     * response body.
      * 
-     * @param url The URL
-     * @return The filename
+     * @return The read error if the body broke off, in which case the page
+     *         should be requested again; {@code null} if the page was delivered
+     * @throws IOException if the handler fails for any other reason
+     */
+    private IOException deliver(PageResult result, PageHandler handler) throws IOException {
+        if (result.body() != null) {
+            handler.accept(result.page(), new ByteArrayInputStream(result.body()));
+            return null;
+        }
+        try (Response response = result.response()) {
+            FailureTrackingInputStream body = new FailureTrackingInputStream(response.body().byteStream());
+            try {
+                handler.accept(result.page(), body);
+            } catch (IOException e) {
+                if (body.failure == null) {
+                    throw e;
+                }
+                return body.failure;
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Starts the request for one page, or adds the page to {@code blocked} if
+     * the host's circuit rejects it while other pages are in flight.
      */
-    private String getFilenameFromUrl(String url) {
+    private void startPage(FetchDataItems job, long page, PageDelivery delivery,
+                           Map<Long, Call> inFlight, List<Long> blocked) throws IOException {
         try {
-            String path = new URL(url).getPath();
-            String filename = path.substring(path.lastIndexOf('/') + 1);
-            
-            if (filename.isEmpty()) {
-                filename = "download_" + System.currentTimeMillis();
+            inFlight.put(page, requestPage(job, page, delivery));
+        } catch (CircuitOpenException e) {
+            if (inFlight.isEmpty()) {
+                throw e;
             }
-            
-            return filename;
-        } catch (Exception e) {
-            return "download_" + System.currentTimeMillis();
+            blocked.add(page);
         }
     }
     
     /**
-     * Ensures the filename is unique by adding a number if necessary.
-     * 
-     * @param path The original path
-     * @return The unique path
+     * Starts the request for one page. The outcome is added to the delivery's
+     * queue: the open response if the page is due next, its body otherwise.
      */
-    private Path ensureUniqueFilename(Path path) {
-        if (!Files.exists(path)) {
-            return path;
+    private Call requestPage(FetchDataItems job, long page, PageDelivery delivery) throws IOException {
+        Request request = pageRequest(job, page);
+        String host = request.url().host();
+        retryExecutor.checkCircuit(host);
+        Call call = httpClient.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                boolean handedOver = false;
+                try {
+                    ResponseBody body = pageBody(response, page);
+                    if (page == delivery.next.get()) {
+                        delivery.finished.add(new PageResult(page, host, null, response, null));
+                        handedOver = true;
+                        if (delivery.closed) {
+                            // The fetch ended before it could take the response
+                            response.close();
+                        }
+                    } else {
+                        delivery.finished.add(new PageResult(page, host, body.bytes(), null, null));
+                    }
+                } catch (IOException e) {
+                    delivery.finished.add(new PageResult(page, host, null, null, e));
+                } finally {
+                    if (!handedOver) {
+                        response.close();
+                    }
+                }
+            }
+            
+            @Override
+            public void onFailure(Call call, IOException e) {
+                delivery.finished.add(new PageResult(page, host, null, null, e));
+            }
+        });
+        return call;
+    }
+    
+    private Request pageRequest(FetchDataItems job, long page) throws IOException {
+        HttpUrl url = HttpUrl.parse(job.getUrl());
+        if (url == null) {
+            throw new IOException("Invalid URL: " + job.getUrl());
+        }
+        return new Request.Builder()
+                .url(url.newBuilder()
+                        .setQueryParameter(DataCountFetchService.PAGE_PARAMETER, Long.toString(page))
+                        .setQueryParameter(DataCountFetchService.PER_PAGE_PARAMETER, Integer.toString(job.getPerPage()))
+                        .build())
+                .addHeader("User-Agent", "DownloadManager/1.0")
+                .tag(RequestOrg.class, new RequestOrg(job.getOrg()))
+                .build();
+    }
+    
+    private static ResponseBody pageBody(Response response, long page) throws IOException {
+        if (!response.isSuccessful()) {
+            throw HttpStatusException.from("Page " + page + ": ", response);
+        }
+        ResponseBody body = response.body();
+        if (body == null) {
+            throw new IOException("Page " + page + ": no response body");
         }
+        return body;
+    }
+    
+    /**
+     * Receives each page's body, on the calling thread and in page order. A
+     * page whose body broke off is handed over again once it has been
+     * requested again.
+     */
+    @FunctionalInterface
+    private interface PageHandler {
+        void accept(long page, InputStream body) throws IOException;
+    }
+    
+    /**
+     * Parses pages and emits their items. When a page is handed over again
+     * after its body broke off, the items already emitted from it are skipped.
+     */
+    private final class ItemStreamer implements PageHandler {
         
-        String baseName = path.getFileName().toString();
-        String extension = "";
-        String nameWithoutExtension = baseName;
+        private final ItemSink sink;
+        private long items;
+        private long page;
+        private long emittedFromPage;
         
-        int lastDot = baseName.lastIndexOf('.');
-        if (lastDot > 0) {
-            extension = baseName.substring(lastDot);
-            nameWithoutExtension = baseName.substring(0, lastDot);
+        ItemStreamer(ItemSink sink) {
+            this.sink = sink;
         }
         
-        int counter = 1;
-        Path uniquePath = path;
+        @Override
+        public void accept(long page, InputStream body) throws IOException {
+            if (page != this.page) {
+                this.page = page;
+                emittedFromPage = 0;
+            }
+            try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+                JsonToken token = parser.nextToken();
+                if (token == null) {
+                    return;
+                }
+                if (token != JsonToken.START_ARRAY) {
+                    emit(parser, 0);
+                    return;
+                }
+                long index = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    emit(parser, index++);
+                }
+            }
+        }
         
-        while (Files.exists(uniquePath)) {
-            String newName = nameWithoutExtension + " (" + counter + ")" + extension;
-            uniquePath = path.getParent().resolve(newName);
-            counter++;
+        private void emit(JsonParser parser, long index) throws IOException {
+            if (index < emittedFromPage) {
+                parser.skipChildren();
+                return;
+            }
+            sink.accept(objectMapper.readTree(parser));
+            emittedFromPage++;
+            items++;
         }
+    }
+    
+    /**
+     * State shared between the calling thread and the HTTP callbacks of one
+     * parallel fetch.
+     */
+    private static final class PageDelivery {
+        
+        final BlockingQueue<PageResult> finished = new LinkedBlockingQueue<>();
+        /** The page the calling thread delivers next; a callback for it hands over the open response */
+        final AtomicLong next;
+        /** Set once the fetch has ended, after which callbacks close what they hand over */
+        volatile boolean closed;
         
-        return uniquePath;
+        PageDelivery(long first) {
+            this.next = new AtomicLong(first);
+        }
     }
     
     /**
-     * Creates the download directory if it doesn't exist.
+     * Remembers the read error of a response body, so that a body that broke
+     * off can be told apart from a handler that gave up.
      */
-    private void createDownloadDirectory() {
-        try {
-            Path dir = Paths.get(downloadDirectory);
-            if (!Files.exists(dir)) {
-                Files.createDirectories(dir);
-                log.info("Created download directory: {}", dir.toAbsolutePath());
+    private static final class FailureTrackingInputStream extends FilterInputStream {
+        
+        private IOException failure;
+        
+        FailureTrackingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
             }
-        } catch (IOException e) {
-            log.error("Failed to create download directory", e);
         }
     }
     
     /**
-     * Gets the download directory path.
-     * 
-     * @return The download directory path
+     * One finished page: its buffered body, its open response, or its error.
      */
-    public String getDownloadDirectory() {
-        return downloadDirectory;
+    private record PageResult(long page, String host, byte[] body, Response response, IOException error) {
+        
+        void close() {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+    
+    private record PageRetry(long page, long dueNanos) {
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,325 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.io.Crc32cDigest;
+import com.downloadmanager.io.DigestAlgorithm;
+import com.downloadmanager.io.TransferDigest;
+import com.downloadmanager.retry.DigestMismatchException;
+import com.downloadmanager.retry.HttpStatusException;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks one download attempt against its expected digest. Bytes received in
+ * the attempt are hashed in the copy loop while they stream in, so the file is
+ * not read back afterwards:
+ * <ul>
+ * <li>a single-connection download keeps one sequential digest</li>
+ * <li>parallel segments and mirror chunks each keep a CRC32C, combined in file
+ * order at the end</li>
+ * </ul>
+ * Only bytes that an earlier attempt left on disk are read back, once. SHA-256
+ * and MD5 cannot be combined, so with parallel segments a {@link PrefixHasher}
+ * reads the file front to back on another thread as the written prefix grows,
+ * and only the bytes past the prefix are left to hash when the download ends.
+ *
+ * <p>A verifier can also compute the SHA-256 the content store files a
+ * download under, the same way and alongside the expected digest; without an
+ * expected digest it then only computes that.
+ */
+@Slf4j
+final class DigestVerifier {
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final DigestAlgorithm algorithm;
+    private final String expected;
+    private final List<RangeCrc> ranges = new ArrayList<>();
+    private TransferDigest sequential;
+    private PrefixHasher prefix;
+    // SHA-256 for the content store, when the algorithm is another one
+    private DigestVerifier content;
+    private String actual;
+
+    private record RangeCrc(long start, long length, long crc) {
+    }
+
+    private DigestVerifier(DigestAlgorithm algorithm, String expected) {
+        this.algorithm = algorithm;
+        this.expected = expected != null ? expected.toLowerCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * Creates the verifier for a digest spec: {@code <algorithm>:<hex>}, e.g.
+     * {@code sha256:9f86d0...}, or the URL of a sidecar file such as
+     * {@code https://example.com/file.iso.sha256} whose first word is the hex digest.
+     *
+     * @param spec The spec, may be null
+     * @param client Client to fetch a sidecar with
+     * @param hashContent Whether to compute the SHA-256 of the download as well
+     * @return The verifier, or null if there is neither a spec nor a SHA-256 to compute
+     * @throws IOException if the sidecar cannot be fetched
+     * @throws IllegalArgumentException if the spec is malformed
+     */
+    static DigestVerifier resolve(String spec, OkHttpClient client, boolean hashContent) throws IOException {
+        DigestVerifier verifier = resolve(spec, client);
+        if (!hashContent) {
+            return verifier;
+        }
+        if (verifier == null) {
+            return new DigestVerifier(DigestAlgorithm.SHA_256, null);
+        }
+        if (verifier.algorithm != DigestAlgorithm.SHA_256) {
+            verifier.content = new DigestVerifier(DigestAlgorithm.SHA_256, null);
+        }
+        return verifier;
+    }
+
+    private static DigestVerifier resolve(String spec, OkHttpClient client) throws IOException {
+        if (spec == null || spec.isBlank()) {
+            return null;
+        }
+        if (spec.startsWith("http://") || spec.startsWith("https://")) {
+            String path = spec.contains("?") ? spec.substring(0, spec.indexOf('?')) : spec;
+            DigestAlgorithm algorithm = DigestAlgorithm.fromName(path.substring(path.lastIndexOf('.') + 1));
+            return new DigestVerifier(algorithm, fetchSidecar(spec, client));
+        }
+        int colon = spec.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Digest must be <algorithm>:<hex> or a sidecar URL: " + spec);
+        }
+        return new DigestVerifier(DigestAlgorithm.fromName(spec.substring(0, colon)), spec.substring(colon + 1).trim());
+    }
+
+    private static String fetchSidecar(String url, OkHttpClient client) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .addHeader("User-Agent", "DownloadManager/1.0")
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw HttpStatusException.from("Digest sidecar: ", response);
+            }
+            ResponseBody body = response.body();
+            String content = body != null ? body.string().trim() : "";
+            if (content.isEmpty()) {
+                throw new IOException("Digest sidecar " + url + " is empty");
+            }
+            // Usual format is "<hex>  <filename>"
+            return content.split("\\s+", 2)[0];
+        }
+    }
+
+    /**
+     * Gets the expected digest, also when it came from a sidecar.
+     *
+     * @return The digest as {@code <algorithm>:<hex>}, or null if the verifier only computes a SHA-256
+     */
+    String spec() {
+        return expected != null ? algorithm.getName() + ":" + expected : null;
+    }
+
+    /**
+     * Gets the SHA-256 of the content, once {@link #verify} has passed.
+     *
+     * @return Lower-case hex, or null if the verifier does not compute it
+     */
+    String sha256() {
+        if (algorithm == DigestAlgorithm.SHA_256) {
+            return actual;
+        }
+        return content != null ? content.actual : null;
+    }
+
+    /**
+     * Starts the digest of a single-connection download. Bytes before the
+     * offset, left by an earlier attempt, are read from the part file.
+     *
+     * @param partPath The part file
+     * @param offset Where the transfer continues
+     * @return The digest to feed the transferred bytes to
+     * @throws IOException if the part file cannot be read
+     */
+    TransferDigest sequential(Path partPath, long offset) throws IOException {
+        ranges.clear();
+        prefix = null;
+        sequential = algorithm.newDigest();
+        TransferDigest feed = sequential;
+        if (content != null) {
+            feed = new BothDigests(sequential, content.sequential(partPath, 0));
+        }
+        if (offset > 0) {
+            readInto(partPath, 0, offset, feed);
+        }
+        return feed;
+    }
+
+    /**
+     * Starts the digest of one range of a parallel download.
+     *
+     * @return A CRC32C digest, or null if the algorithm cannot be combined
+     */
+    TransferDigest forRange() {
+        return algorithm.isCombinable() ? algorithm.newDigest() : null;
+    }
+
+    /**
+     * Records the digest of a range written by a parallel download.
+     *
+     * @param start First byte of the range
+     * @param length Bytes written
+     * @param digest The range's digest from {@link #forRange()}, may be null
+     */
+    synchronized void rangeDone(long start, long length, TransferDigest digest) {
+        if (digest instanceof Crc32cDigest crc && length > 0) {
+            ranges.add(new RangeCrc(start, length, crc.value()));
+        }
+        written(start, start + length);
+    }
+
+    /**
+     * Records bytes a parallel download has written so far, so that a digest
+     * that cannot be combined can be advanced over them.
+     *
+     * @param start First byte written
+     * @param end Byte just past the written ones
+     */
+    void written(long start, long end) {
+        if (prefix != null) {
+            prefix.written(start, end);
+        }
+        if (content != null) {
+            content.written(start, end);
+        }
+    }
+
+    /**
+     * Reads the ranges an earlier attempt left on disk, for a parallel download.
+     * A digest that cannot be combined starts hashing the file from its first
+     * byte instead.
+     *
+     * @param partPath The part file
+     * @param completed The completed ranges, [start, end] inclusive
+     * @throws IOException if the part file cannot be read
+     */
+    void existingRanges(Path partPath, List<long[]> completed) throws IOException {
+        sequential = null;
+        if (content != null) {
+            content.existingRanges(partPath, completed);
+        }
+        if (!algorithm.isCombinable()) {
+            prefix = new PrefixHasher(partPath, algorithm.newDigest());
+            for (long[] range : completed) {
+                prefix.written(range[0], range[1] + 1);
+            }
+            return;
+        }
+        for (long[] range : completed) {
+            TransferDigest digest = algorithm.newDigest();
+            readInto(partPath, range[0], range[1] + 1, digest);
+            rangeDone(range[0], range[1] - range[0] + 1, digest);
+        }
+    }
+
+    /**
+     * Compares the digest of the finished part file with the expected one,
+     * and completes the SHA-256 of the content if it is computed too.
+     *
+     * @param partPath The part file
+     * @param size The file size
+     * @throws DigestMismatchException if the digests differ
+     * @throws IOException if the part file cannot be read
+     */
+    void verify(Path partPath, long size) throws IOException {
+        actual = sequential != null ? sequential.hex()
+                : prefix != null ? prefix.finish(size) : combined(size);
+        if (actual == null) {
+            log.debug("Reading back {} to compute its {}", partPath, algorithm.getName());
+            TransferDigest digest = algorithm.newDigest();
+            readInto(partPath, 0, size, digest);
+            actual = digest.hex();
+        }
+        if (expected != null && !actual.equals(expected)) {
+            throw new DigestMismatchException(algorithm.getName(), expected, actual);
+        }
+        log.debug("Computed {} of {}: {}", algorithm.getName(), partPath, actual);
+        if (content != null) {
+            content.verify(partPath, size);
+        }
+    }
+
+    /**
+     * Combines the range CRCs in file order.
+     *
+     * @return The CRC of the whole file, or null if the ranges do not cover it
+     */
+    private synchronized String combined(long size) {
+        if (!algorithm.isCombinable()) {
+            return null;
+        }
+        ranges.sort(Comparator.comparingLong(RangeCrc::start));
+        long crc = 0;
+        long next = 0;
+        for (RangeCrc range : ranges) {
+            if (range.start() != next) {
+                return null;
+            }
+            crc = Crc32cDigest.combine(crc, range.crc(), range.length());
+            next += range.length();
+        }
+        return next == size ? Crc32cDigest.toHex(crc) : null;
+    }
+
+    /**
+     * Feeds a transfer to two digests; its result is the first one's.
+     */
+    private record BothDigests(TransferDigest first, TransferDigest second) implements TransferDigest {
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            first.update(buffer);
+            second.update(buffer);
+        }
+
+        @Override
+        public String hex() {
+            return first.hex();
+        }
+    }
+
+    private static void readInto(Path path, long from, long to, TransferDigest digest) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            readInto(channel, ByteBuffer.allocate(READ_BUFFER_SIZE), from, to, digest);
+        }
+    }
+
+    /**
+     * Feeds bytes {@code from..to-1} of a file to a digest.
+     */
+    static void readInto(FileChannel channel, ByteBuffer buffer, long from, long to,
+                         TransferDigest digest) throws IOException {
+        long position = from;
+        while (position < to) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Part file ends at byte " + position);
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+}
@@ -1,66 +1,376 @@
 package com.downloadmanager.service;
 
+import com.downloadmanager.config.DownloadProperties;
 import com.downloadmanager.model.DownloadTask;
+import com.downloadmanager.queue.DownloadScheduler;
+import com.downloadmanager.queue.QueueStore;
+import com.downloadmanager.queue.SchedulingPolicy;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service that manages the download queue and coordinates parallel downloads.
- * Uses queue management system.
+ * A dispatcher thread hands queued tasks to the download executor, holding one
+ * permit per running download so that at most {@code maxConcurrentDownloads}
+ * run at once. Tasks are started in the order of the configured
+ * {@link SchedulingPolicy}; queued tasks can be reprioritized, paused, resumed
+ * and cancelled. Every task and status change is recorded in the {@link QueueStore},
+ * and unfinished tasks from the previous run are queued again on startup.
  */
 @Service
 @Slf4j
 public class DownloadQueueService {
-    
-    private final BlockingQueue<DownloadTask> downloadQueue;
+
+    // Concurrent HEAD requests of the shortest-first size probes
+    private static final int SIZE_PROBES = 4;
+    private static final int SIZE_PROBES_PER_HOST = 2;
+
+    private final DownloadScheduler downloadQueue;
     private final DownloadService downloadService;
-    private final AtomicInteger taskIdCounter;
+    private final OkHttpClient probeClient;
+    private final ExecutorService downloadExecutor;
+    private final QueueStore queueStore;
+    private final AtomicInteger activeDownloads;
+    private final Map<Integer, DownloadTask> runningTasks = new ConcurrentHashMap<>();
+    private final Semaphore downloadSlots;
     private final int maxConcurrentDownloads;
-    
+    private final Duration shutdownTimeout;
+    private final List<String> recoveredUrls = new ArrayList<>();
+    private final AtomicInteger failedDownloads = new AtomicInteger();
+    private volatile boolean accepting = true;
+    private Thread processorThread;
+    private Thread recoveryThread;
+
     @Autowired
-    public DownloadQueueService(DownloadService downloadService) {
-        this.downloadQueue = new LinkedBlockingQueue<>();
+    public DownloadQueueService(DownloadService downloadService,
+                                OkHttpClient client,
+                                DownloadProperties properties,
+                                @Qualifier("downloadExecutor") ExecutorService downloadExecutor,
+                                QueueStore queueStore) {
+        this.downloadQueue = new DownloadScheduler(properties.getSchedulingPolicy(), properties.getQueueCapacity());
         this.downloadService = downloadService;
-        this.taskIdCounter = new AtomicInteger(1);
-        this.maxConcurrentDownloads = 3; // Configurable
-        
+        // A dispatcher of their own keeps a bulk enqueue's probes from queueing ahead of other requests
+        Dispatcher probeDispatcher = new Dispatcher();
+        probeDispatcher.setMaxRequests(SIZE_PROBES);
+        probeDispatcher.setMaxRequestsPerHost(SIZE_PROBES_PER_HOST);
+        this.probeClient = client.newBuilder().dispatcher(probeDispatcher).build();
+        this.downloadExecutor = downloadExecutor;
+        this.queueStore = queueStore;
+        this.activeDownloads = new AtomicInteger();
+        this.maxConcurrentDownloads = properties.getMaxConcurrent();
+        this.downloadSlots = new Semaphore(maxConcurrentDownloads);
+        this.shutdownTimeout = properties.getShutdownTimeout();
+
         // Start the download processor
         startDownloadProcessor();
+        requeueRecoveredTasks();
     }
-    
+
     /**
-     * Adds a URL to the download queue.
-     * 
+     * Adds a URL to the download queue with the default priority. Blocks while the queue is full.
+     *
      * @param url The URL to download
+     * @return The queued task
+     * @throws InterruptedException if interrupted while waiting for queue space
+     */
+    public DownloadTask addToQueue(String url) throws InterruptedException {
+        return addToQueue(url, 0);
+    }
+
+    /**
+     * Adds a URL to the download queue. Blocks while the queue is full.
+     *
+     * @param url The URL to download
+     * @param priority The priority, higher runs first
+     * @return The queued task
+     * @throws InterruptedException if interrupted while waiting for queue space
+     */
+    public DownloadTask addToQueue(String url, int priority) throws InterruptedException {
+        return addToQueue(url, List.of(), priority);
+    }
+
+    /**
+     * Adds a file that several equivalent URLs serve to the download queue.
+     * Blocks while the queue is full.
+     *
+     * @param url The primary URL
+     * @param mirrors Other URLs serving the same file
+     * @param priority The priority, higher runs first
+     * @return The queued task
+     * @throws InterruptedException if interrupted while waiting for queue space
+     */
+    public DownloadTask addToQueue(String url, List<String> mirrors, int priority) throws InterruptedException {
+        return addToQueue(url, mirrors, priority, null);
+    }
+
+    /**
+     * Adds a file with an expected digest to the download queue. Blocks while
+     * the queue is full.
+     *
+     * @param url The primary URL
+     * @param mirrors Other URLs serving the same file
+     * @param priority The priority, higher runs first
+     * @param expectedDigest {@code <algorithm>:<hex>} or a sidecar URL such as
+     *                       {@code https://example.com/f.iso.sha256}, null to skip the check
+     * @return The queued task
+     * @throws InterruptedException if interrupted while waiting for queue space
      */
-    public void addToQueue(String url) {
-        DownloadTask task = new DownloadTask(taskIdCounter.getAndIncrement(), url);
-        downloadQueue.offer(task);
+    public DownloadTask addToQueue(String url, List<String> mirrors, int priority, String expectedDigest)
+            throws InterruptedException {
+        if (!accepting) {
+            throw new IllegalStateException("Download queue is shutting down");
+        }
+        DownloadTask task = new DownloadTask(queueStore.nextId(), url);
+        task.setMirrors(List.copyOf(mirrors));
+        task.setExpectedDigest(expectedDigest);
+        task.setPriority(priority);
+        queueStore.add(task);
+        if (priority != 0) {
+            queueStore.updatePriority(task);
+        }
+        downloadQueue.put(task);
+        probeSize(task);
         log.info("Added download task {} to queue: {}", task.getId(), url);
+        return task;
+    }
+
+    /**
+     * Adds the mirrors and expected digest of an entry that repeats a URL to the
+     * URL's queued task. Mirrors are added to the task's own. A digest is only
+     * taken if the task has none; a different one is ignored with a warning, so
+     * the first entry for a URL decides what its file is checked against.
+     *
+     * @param url The primary URL
+     * @param mirrors Other URLs serving the same file
+     * @param expectedDigest The expected digest, may be null
+     * @return The task, or null if no task for the URL is queued, e.g. because it already started
+     */
+    public DownloadTask mergeSources(String url, List<String> mirrors, String expectedDigest) {
+        DownloadTask task = downloadQueue.update(url, queued -> {
+            LinkedHashSet<String> merged = new LinkedHashSet<>(queued.getMirrors());
+            merged.addAll(mirrors);
+            merged.remove(url);
+            queued.setMirrors(List.copyOf(merged));
+            if (expectedDigest == null) {
+                return;
+            }
+            if (queued.getExpectedDigest() == null) {
+                queued.setExpectedDigest(expectedDigest);
+            } else if (!queued.getExpectedDigest().equalsIgnoreCase(expectedDigest)) {
+                log.warn("Task {} already expects digest {}, ignoring {} from a repeated entry",
+                        queued.getId(), queued.getExpectedDigest(), expectedDigest);
+            }
+        });
+        if (task != null) {
+            queueStore.updateSources(task);
+        }
+        return task;
+    }
+
+    /**
+     * Changes the priority of a queued task.
+     *
+     * @param id The task ID
+     * @param priority The new priority, higher runs first
+     * @return true if the task was queued
+     */
+    public boolean reprioritize(int id, int priority) {
+        DownloadTask task = downloadQueue.reprioritize(id, priority);
+        if (task == null) {
+            return false;
+        }
+        queueStore.updatePriority(task);
+        log.info("Task {} reprioritized to {}", id, priority);
+        return true;
+    }
+
+    /**
+     * Holds a queued task back until it is resumed. The task keeps its place in
+     * the queue capacity and stays paused across restarts.
+     *
+     * @param id The task ID
+     * @return true if the task was queued
+     */
+    public boolean pause(int id) {
+        DownloadTask task = downloadQueue.pause(id);
+        if (task == null) {
+            return false;
+        }
+        queueStore.updateStatus(task);
+        log.info("Task {} paused", id);
+        return true;
+    }
+
+    /**
+     * Makes a paused task eligible to run again.
+     *
+     * @param id The task ID
+     * @return true if the task was queued
+     */
+    public boolean resume(int id) {
+        DownloadTask task = downloadQueue.resume(id);
+        if (task == null) {
+            return false;
+        }
+        queueStore.updateStatus(task);
+        log.info("Task {} resumed", id);
+        return true;
+    }
+
+    /**
+     * Removes a queued task without downloading it.
+     *
+     * @param id The task ID
+     * @return true if the task was queued
+     */
+    public boolean cancel(int id) {
+        DownloadTask task = downloadQueue.remove(id);
+        if (task == null) {
+            return false;
+        }
+        task.setStatus(DownloadTask.Status.CANCELLED);
+        queueStore.updateStatus(task);
+        log.info("Task {} cancelled", id);
+        return true;
+    }
+
+    /**
+     * Gets all queued tasks, including paused ones.
+     *
+     * @return A snapshot of the queued tasks
+     */
+    public List<DownloadTask> getQueuedTasks() {
+        return downloadQueue.snapshot();
     }
-    
+
+    /**
+     * Gets the tasks that are downloading right now.
+     *
+     * @return A snapshot of the running tasks
+     */
+    public List<DownloadTask> getRunningTasks() {
+        return new ArrayList<>(runningTasks.values());
+    }
+
+    /**
+     * Looks up the size of a queued file with a HEAD request, so that the
+     * shortest-first policy can place it. The request runs asynchronously on a
+     * small dispatcher of its own, sharing only the connection pool with the
+     * other requests; until it answers, the task ranks as unknown size.
+     *
+     * @param task The queued task
+     */
+    private void probeSize(DownloadTask task) {
+        if (downloadQueue.getPolicy() != SchedulingPolicy.SHORTEST_FIRST) {
+            return;
+        }
+        Request request = new Request.Builder().url(task.getUrl()).head().build();
+        probeClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    String length = response.header("Content-Length");
+                    if (response.isSuccessful() && length != null) {
+                        downloadQueue.updateExpectedSize(task.getId(), Long.parseLong(length));
+                    }
+                } catch (NumberFormatException ignored) {
+                    // Left as unknown size
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                log.debug("Size probe failed for task {}: {}", task.getId(), e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Gets the primary URLs of the tasks left unfinished by the previous run.
+     * They are complete as soon as this service is constructed, also while the
+     * tasks themselves are still being queued again in the background.
+     *
+     * @return The URLs, in the order the tasks were added
+     */
+    public List<String> getRecoveredUrls() {
+        return Collections.unmodifiableList(recoveredUrls);
+    }
+
+    /**
+     * Puts the tasks left unfinished by the previous run back into the queue.
+     * This runs on its own thread because there may be more of them than the
+     * queue holds, and the dispatcher has to be running to make room.
+     */
+    private void requeueRecoveredTasks() {
+        List<DownloadTask> recovered = queueStore.recover();
+        if (recovered.isEmpty()) {
+            return;
+        }
+        log.info("Recovered {} unfinished download tasks from the previous run", recovered.size());
+        // Known before any of them is queued, so callers can tell which URLs are already taken care of
+        for (DownloadTask task : recovered) {
+            recoveredUrls.add(task.getUrl());
+        }
+        recoveryThread = new Thread(() -> {
+            try {
+                for (DownloadTask task : recovered) {
+                    downloadQueue.put(task);
+                    probeSize(task);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "DownloadQueueRecovery");
+        recoveryThread.setDaemon(true);
+        recoveryThread.start();
+    }
+
     /**
      * Starts the download processor that continuously processes queued downloads.
+     * A worker slot is acquired before a task is taken, so tasks stay queued
+     * until they can actually start.
      */
     private void startDownloadProcessor() {
-        Thread processorThread = new Thread(() -> {
+        processorThread = new Thread(() -> {
             log.info("Starting download processor with max {} concurrent downloads", maxConcurrentDownloads);
-            
+
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    // Take a task from the queue (blocks if queue is empty)
-                    DownloadTask task = downloadQueue.take();
+                    downloadSlots.acquire();
+                    DownloadTask task;
+                    try {
+                        // Take a task from the queue (blocks if queue is empty)
+                        task = downloadQueue.take();
+                    } catch (InterruptedException e) {
+                        downloadSlots.release();
+                        throw e;
+                    }
                     log.info("Processing download task {}: {}", task.getId(), task.getUrl());
-                    
-                    // Process the download asynchronously
-                    processDownloadAsync(task);
-                    
+                    dispatch(task);
+
                 } catch (InterruptedException e) {
                     log.info("Download processor interrupted");
                     Thread.currentThread().interrupt();
@@ -70,54 +380,146 @@ public class DownloadQueueService {
                 }
             }
         });
-        
+
         processorThread.setName("DownloadProcessor");
         processorThread.setDaemon(true);
         processorThread.start();
     }
-    
+
     /**
-     * Processes a download task asynchronously.
-     * 
+     * Submits a task to the download executor. The worker slot held by the
+     * dispatcher is released when the download finishes.
+     *
+     * @param task The download task to run
+     */
+    private void dispatch(DownloadTask task) {
+        activeDownloads.incrementAndGet();
+        runningTasks.put(task.getId(), task);
+        try {
+            downloadExecutor.execute(() -> {
+                try {
+                    processDownload(task);
+                } finally {
+                    downloadQueue.finished(task);
+                    runningTasks.remove(task.getId());
+                    activeDownloads.decrementAndGet();
+                    downloadSlots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            downloadQueue.finished(task);
+            runningTasks.remove(task.getId());
+            activeDownloads.decrementAndGet();
+            downloadSlots.release();
+            // Left as queued, so the task is picked up again after a restart
+            log.warn("Download executor rejected task {}: {}", task.getId(), task.getUrl());
+        }
+    }
+
+    /**
+     * Processes a download task on the current worker thread.
+     *
      * @param task The download task to process
      */
-    @Async
-    public void processDownloadAsync(DownloadTask task) {
+    private void processDownload(DownloadTask task) {
         try {
             log.info("Starting download for task {}: {}", task.getId(), task.getUrl());
-            
+
             // Update task status
             task.setStatus(DownloadTask.Status.DOWNLOADING);
-            
+            queueStore.updateStatus(task);
+
             // Perform the actual download
             downloadService.downloadFile(task);
-            
+
             // Mark task as completed
             task.setStatus(DownloadTask.Status.COMPLETED);
+            queueStore.updateStatus(task);
             log.info("Download completed for task {}: {}", task.getId(), task.getUrl());
-            
+
         } catch (Exception e) {
             log.error("Download failed for task {}: {}", task.getId(), task.getUrl(), e);
             task.setStatus(DownloadTask.Status.FAILED);
             task.setErrorMessage(e.getMessage());
+            // A download cut off by shutdown stays unfinished in the store, so the next run resumes it
+            if (accepting) {
+                failedDownloads.incrementAndGet();
+                queueStore.updateStatus(task);
+            }
         }
     }
-    
+
+    /**
+     * Stops taking new tasks and waits up to the configured shutdown timeout for
+     * running downloads to finish. Downloads still running after that are interrupted.
+     */
+    @PreDestroy
+    public void shutdown() {
+        accepting = false;
+        processorThread.interrupt();
+        probeClient.dispatcher().cancelAll();
+        downloadExecutor.shutdown();
+
+        log.info("Waiting up to {} for {} running downloads ({} still queued)",
+                shutdownTimeout, activeDownloads.get(), downloadQueue.size());
+        try {
+            if (!downloadExecutor.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Downloads did not finish within {}, interrupting", shutdownTimeout);
+                downloadExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            downloadExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until every task queued so far, including those recovered from the
+     * previous run, has finished and no download is running. Paused tasks are
+     * left in the queue.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitIdle() throws InterruptedException {
+        if (recoveryThread != null) {
+            recoveryThread.join();
+        }
+        downloadQueue.awaitIdle();
+    }
+
+    /**
+     * Gets the number of downloads that failed in this run.
+     *
+     * @return Failed downloads
+     */
+    public int getFailedDownloads() {
+        return failedDownloads.get();
+    }
+
     /**
      * Gets the current queue size.
-     * 
-     * @return Number of tasks in the queue
+     *
+     * @return Number of tasks in the queue, including paused ones
      */
     public int getQueueSize() {
         return downloadQueue.size();
     }
-    
+
+    /**
+     * Gets the number of downloads currently running.
+     *
+     * @return Active downloads
+     */
+    public int getActiveDownloads() {
+        return activeDownloads.get();
+    }
+
     /**
      * Gets the maximum number of concurrent downloads.
-     * 
+     *
      * @return Max concurrent downloads
      */
     public int getMaxConcurrentDownloads() {
         return maxConcurrentDownloads;
     }
-} 
\ No newline at end of file
+}
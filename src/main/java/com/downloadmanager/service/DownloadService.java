@@ -1,19 +1,37 @@
 package com.downloadmanager.service;
 
+import com.downloadmanager.cache.ContentStore;
+import com.downloadmanager.config.DownloadProperties;
+import com.downloadmanager.config.HttpClientProperties;
+import com.downloadmanager.io.ChannelFileSink;
+import com.downloadmanager.io.StreamCopier;
+import com.downloadmanager.io.TransferDigest;
+import com.downloadmanager.metrics.DownloadMetrics;
 import com.downloadmanager.model.DownloadTask;
+import com.downloadmanager.model.RemoteFileInfo;
+import com.downloadmanager.model.TransferProgress;
+import com.downloadmanager.ratelimit.BandwidthScheduler;
+import com.downloadmanager.retry.DigestMismatchException;
+import com.downloadmanager.retry.HttpStatusException;
+import com.downloadmanager.retry.RetryExecutor;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Service that handles the actual file downloads.
@@ -22,22 +40,72 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class DownloadService {
     
+    private static final long PROGRESS_LOG_BYTES = 1024 * 1024;
+    private static final int FILENAME_HINTS = 10_000;
+    
     private final OkHttpClient httpClient;
     private final String downloadDirectory;
+    private final SegmentedDownloader segmentedDownloader;
+    private final MirrorDownloader mirrorDownloader;
+    private final StreamCopier streamCopier;
+    private final DownloadMetrics metrics;
+    private final RetryExecutor retryExecutor;
+    private final BandwidthScheduler bandwidth;
+    private final ContentStore contentStore;
+    private final Set<Path> activeDownloads = new HashSet<>();
+    // Highest "name (n).ext" number seen taken per name, guarded by activeDownloads
+    private final Map<Path, Integer> filenameHints = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Integer> eldest) {
+            return size() > FILENAME_HINTS;
+        }
+    };
     
-    public DownloadService() {
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(60, TimeUnit.SECONDS)
-                .build();
+    public DownloadService(OkHttpClient client,
+                           HttpClientProperties httpProperties,
+                           DownloadProperties properties,
+                           @Qualifier("segmentExecutor") ExecutorService segmentExecutor,
+                           StreamCopier streamCopier,
+                           DownloadMetrics metrics,
+                           RetryExecutor retryExecutor,
+                           BandwidthScheduler bandwidth,
+                           ContentStore contentStore) {
+        // Derived from the shared client, so downloads use the same connection pool
+        OkHttpClient.Builder builder = client.newBuilder();
+        HttpClientProperties.Download overrides = httpProperties.getDownload();
+        if (overrides.getReadTimeout() != null) {
+            builder.readTimeout(overrides.getReadTimeout());
+        }
+        if (!overrides.isPreferHttp2()) {
+            builder.protocols(List.of(Protocol.HTTP_1_1));
+        }
+        this.httpClient = builder.build();
         
-        this.downloadDirectory = "downloads";
+        this.downloadDirectory = properties.getDirectory();
+        this.streamCopier = streamCopier;
+        this.metrics = metrics;
+        this.retryExecutor = retryExecutor;
+        this.bandwidth = bandwidth;
+        this.contentStore = contentStore;
+        this.segmentedDownloader = new SegmentedDownloader(httpClient, segmentExecutor, streamCopier, properties, metrics);
+        this.mirrorDownloader = new MirrorDownloader(httpClient, segmentExecutor, streamCopier, properties, metrics);
         createDownloadDirectory();
     }
     
     /**
-     * Downloads a file from the given task.
+     * Downloads a file from the given task. Data is written to a {@code *.part}
+     * file next to the target and only moved into place once complete. A journal
+     * next to the part file records the completed byte ranges, so a download of
+     * the same URL after a crash or failure continues where the last one stopped.
+     * Transient failures are retried by the {@link RetryExecutor}; each retry
+     * reloads the journal, so only the missing bytes are fetched again. A task
+     * with mirrors is fetched from all mirrors that serve the same size at once.
+     * A task with an expected digest is verified before the part file is moved
+     * into place; on a mismatch the part file is discarded and the download retried.
+     * All connections of the task pay for their bytes through one
+     * {@link BandwidthScheduler.Flow}. Content the {@link ContentStore} already
+     * holds is placed from there instead of being downloaded, and finished
+     * downloads are added to it.
      * 
      * @param task The download task
      * @throws IOException if download fails
@@ -48,78 +116,297 @@ public class DownloadService {
         // Mark task as started
         task.markStarted();
         
-        // Get filename from URL
-        String filename = getFilenameFromUrl(task.getUrl());
-        task.setFilename(filename);
-        
-        // Create download path
-        Path downloadPath = Paths.get(downloadDirectory, filename);
-        
-        // Ensure unique filename
-        downloadPath = ensureUniqueFilename(downloadPath);
+        Path downloadPath = resolveDownloadPath(task.getUrl());
         task.setFilename(downloadPath.getFileName().toString());
+        Path partPath = PartFileJournal.partPath(downloadPath);
+        BandwidthScheduler.Flow flow = bandwidth.open(task);
+        boolean[] fromStore = {false};
+        String[] verified = {null, null}; // expected digest, SHA-256
+        
+        try {
+            HttpUrl url = HttpUrl.parse(task.getUrl());
+            String host = url != null ? url.host() : "";
+            PartFileJournal completed = retryExecutor.execute(host, attempt -> {
+                if (attempt > 1) {
+                    log.info("Retrying task {} (attempt {})", task.getId(), attempt);
+                }
+                // The content store files the download under its SHA-256, computed along the way
+                DigestVerifier verifier = DigestVerifier.resolve(task.getExpectedDigest(), httpClient,
+                        contentStore.isEnabled());
+                String digest = verifier != null ? verifier.spec() : null;
+                PartFileJournal journal = PartFileJournal.open(downloadPath, task.getUrl());
+                // An expected digest identifies the content without asking the server
+                if (digest != null && fromContentStore(task, digest, null, partPath)) {
+                    fromStore[0] = true;
+                    return journal;
+                }
+                RemoteFileInfo info = probe(task.getUrl());
+                // Now also by URL or ETag, which an expected digest must confirm
+                if (fromContentStore(task, digest, info, partPath)) {
+                    fromStore[0] = true;
+                    return journal;
+                }
+                if (!journal.validate(info)) {
+                    Files.deleteIfExists(partPath);
+                }
+                // A part file left linked to a stored file must not be written through
+                contentStore.unshare(partPath);
+                
+                List<MirrorDownloader.Mirror> sources = mirrorDownloader.usableSources(task, info, this::probe);
+                if (sources.size() > 1) {
+                    mirrorDownloader.download(task, sources, info.getContentLength(), partPath, journal, verifier, flow);
+                } else if (segmentedDownloader.shouldSegment(info)) {
+                    // Large files on servers that accept ranges are fetched over several connections
+                    segmentedDownloader.download(task, info, partPath, journal, verifier, flow);
+                } else {
+                    downloadSingleStream(task, partPath, journal, verifier, flow);
+                }
+                
+                if (verifier != null) {
+                    try {
+                        verifier.verify(partPath, Files.size(partPath));
+                    } catch (DigestMismatchException e) {
+                        // The bytes on disk are bad, so the retry must not resume from them
+                        Files.deleteIfExists(partPath);
+                        journal.reset();
+                        journal.delete();
+                        throw e;
+                    }
+                    verified[0] = digest;
+                    verified[1] = verifier.sha256();
+                }
+                return journal;
+            });
+            
+            if (fromStore[0] && Files.exists(downloadPath) && Files.isSameFile(partPath, downloadPath)) {
+                // Renaming a hard link onto another link of the same file leaves both in place
+                Files.delete(partPath);
+            } else {
+                Files.move(partPath, downloadPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            completed.delete();
+            if (!fromStore[0]) {
+                contentStore.add(task.getUrl(), completed.getEtag(), completed.getLastModified(),
+                        downloadPath, verified[1], verified[0]);
+            }
+            
+            // Mark as completed
+            task.markCompleted();
+            log.info("Download completed for task {}: {} -> {}", 
+                    task.getId(), task.getUrl(), downloadPath);
+            
+        } catch (Exception e) {
+            log.error("Download failed for task {}: {}", task.getId(), task.getUrl(), e);
+            task.markFailed(e.getMessage());
+            metrics.recordDownloadFailure(e);
+            throw e;
+        } finally {
+            flow.close();
+            synchronized (activeDownloads) {
+                activeDownloads.remove(downloadPath);
+            }
+        }
+    }
+    
+    /**
+     * Fills the part file from the content store if the store holds what the
+     * task would download.
+     * 
+     * @param task The download task
+     * @param digest The expected digest, may be null
+     * @param info The probed remote file info, may be null
+     * @param partPath The part file
+     * @return true if the part file now holds the content
+     * @throws IOException if the stored file cannot be placed
+     */
+    private boolean fromContentStore(DownloadTask task, String digest, RemoteFileInfo info,
+                                     Path partPath) throws IOException {
+        Path stored = contentStore.find(task.getUrl(), digest, info);
+        if (stored == null) {
+            return false;
+        }
+        contentStore.materialize(stored, partPath);
+        long size = Files.size(partPath);
+        task.updateProgress(size, size);
+        log.info("Task {}: {} is already in the content store, not downloading it", task.getId(), task.getFilename());
+        return true;
+    }
+    
+    /**
+     * Downloads the file over a single connection, continuing after the
+     * contiguous prefix the journal already records when the server allows it.
+     * 
+     * @param task The download task
+     * @param partPath The part file to write into
+     * @param journal The journal of the part file
+     * @param verifier Digest check of the download, may be null
+     * @param flow Bandwidth account of the task
+     * @throws IOException if download fails
+     */
+    private void downloadSingleStream(DownloadTask task, Path partPath, PartFileJournal journal,
+                                      DigestVerifier verifier, BandwidthScheduler.Flow flow) throws IOException {
+        long offset = journal.completedPrefix();
+        String validator = journal.ifRangeValidator();
+        if (offset > 0 && offset == journal.getContentLength()) {
+            task.updateProgress(offset, offset);
+            if (verifier != null) {
+                verifier.sequential(partPath, offset);
+            }
+            return;
+        }
         
         // Create HTTP request
-        Request request = new Request.Builder()
+        Request.Builder builder = new Request.Builder()
                 .url(task.getUrl())
-                .addHeader("User-Agent", "DownloadManager/1.0")
-                .build();
+                .addHeader("User-Agent", "DownloadManager/1.0");
+        // Without a validator there is no way to tell whether the partial data is still current
+        if (offset > 0 && validator != null) {
+            builder.addHeader("Range", "bytes=" + offset + "-")
+                    .addHeader("If-Range", validator);
+        }
         
+        Request request = builder.build();
+        long startNanos = System.nanoTime();
         try (Response response = httpClient.newCall(request).execute()) {
             if (!response.isSuccessful()) {
-                throw new IOException("HTTP " + response.code() + ": " + response.message());
+                throw HttpStatusException.from("", response);
             }
             
             ResponseBody body = response.body();
             if (body == null) {
                 throw new IOException("No response body");
             }
+            metrics.awaitFirstByte(request.url().host(), body.source(), startNanos);
+            
+            if (response.code() == 206) {
+                // Anything but the rest of the same file would be appended to the wrong bytes
+                long[] range = MirrorDownloader.parseContentRange(response.header("Content-Range"));
+                long expectedTotal = journal.getContentLength();
+                if (range == null || range[0] != offset
+                        || (range[2] >= 0 && range[1] != range[2] - 1)
+                        || (expectedTotal >= 0 && range[2] != expectedTotal)) {
+                    throw new IOException("Resuming at byte " + offset + " of " + expectedTotal
+                            + " answered with Content-Range: " + response.header("Content-Range"));
+                }
+                log.info("Resuming task {} at byte {}", task.getId(), offset);
+            } else {
+                // Server sent the whole file, so whatever is on disk is replaced
+                offset = 0;
+                journal.reset();
+                journal.setValidators(response.header("ETag"), response.header("Last-Modified"));
+            }
             
             long contentLength = body.contentLength();
-            task.updateProgress(0, contentLength);
+            long totalLength = contentLength >= 0 ? offset + contentLength : -1;
+            journal.setContentLength(totalLength);
+            task.updateProgress(offset, totalLength);
+            // Hashed as it streams in; only resumed bytes are read back
+            TransferDigest digest = verifier != null ? verifier.sequential(partPath, offset) : null;
             
-            log.info("Downloading {} ({} bytes) to {}", filename, contentLength, downloadPath);
+            log.info("Downloading {} ({} bytes) to {}", task.getFilename(), totalLength, partPath);
             
             // Download with progress tracking
-            try (InputStream inputStream = body.byteStream();
-                 FileOutputStream outputStream = new FileOutputStream(downloadPath.toFile())) {
-                
-                byte[] buffer = new byte[8192];
-                long downloadedBytes = 0;
-                int bytesRead;
+            try (ChannelFileSink sink = new ChannelFileSink(partPath)) {
+                sink.truncate(offset);
+                TransferProgress.Stripe progress = task.getTransfer().base();
                 
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                    downloadedBytes += bytesRead;
-                    
-                    // Update progress
-                    task.updateProgress(downloadedBytes, contentLength);
-                    
-                    // Log progress every 1MB
-                    if (downloadedBytes % (1024 * 1024) == 0) {
-                        log.info("Task {}: {} / {} ({}%)", 
-                                task.getId(), 
-                                task.getFormattedFileSize(), 
-                                task.getFormattedSpeed(),
-                                task.getProgressString());
+                long[] written = {offset, offset, offset + PROGRESS_LOG_BYTES}; // position, checkpoint, next log
+                try {
+                    streamCopier.copy(body.source(), sink, offset, digest, (position, bytes) -> {
+                        written[0] = position;
+                        metrics.recordBytes(bytes);
+                        
+                        // Update progress
+                        progress.add(bytes);
+                        
+                        if (position - written[1] >= SegmentedDownloader.CHECKPOINT_BYTES) {
+                            SegmentedDownloader.checkpoint(sink, journal, written[1], position);
+                            written[1] = position;
+                        }
+                        
+                        // Log progress every 1MB
+                        if (position >= written[2]) {
+                            written[2] = position + PROGRESS_LOG_BYTES;
+                            log.info("Task {}: {} / {} ({})", 
+                                    task.getId(), 
+                                    task.getFormattedFileSize(), 
+                                    task.getFormattedSpeed(),
+                                    task.getProgressString());
+                        }
+                        flow.acquire(request.url().host(), bytes);
+                    });
+                } finally {
+                    // Keep whatever was written, also when the transfer fails part way
+                    if (written[0] > written[1]) {
+                        SegmentedDownloader.checkpoint(sink, journal, written[1], written[0]);
                     }
                 }
                 
-                outputStream.flush();
+                if (contentLength >= 0 && written[0] != totalLength) {
+                    throw new EOFException("Connection closed after " + written[0] + " of " + totalLength + " bytes");
+                }
             }
-            
-            // Mark as completed
-            task.markCompleted();
-            log.info("Download completed for task {}: {} -> {}", 
-                    task.getId(), task.getUrl(), downloadPath);
-            
-        } catch (Exception e) {
-            log.error("Download failed for task {}: {}", task.getId(), task.getUrl(), e);
-            task.markFailed(e.getMessage());
-            throw e;
         }
     }
     
+    /**
+     * Sends a HEAD request to find the size and validators of the file and
+     * whether the server accepts range requests.
+     * 
+     * @param url The file URL
+     * @return The remote file info, or null if the server did not answer the HEAD request
+     */
+    private RemoteFileInfo probe(String url) {
+        Request request = new Request.Builder()
+                .url(url)
+                .head()
+                .addHeader("User-Agent", "DownloadManager/1.0")
+                .build();
+        
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                log.debug("HEAD {} returned HTTP {}", url, response.code());
+                return null;
+            }
+            long contentLength = -1;
+            String header = response.header("Content-Length");
+            if (header != null) {
+                try {
+                    contentLength = Long.parseLong(header.trim());
+                } catch (NumberFormatException ignored) {
+                    // Treated as unknown length
+                }
+            }
+            boolean acceptRanges = "bytes".equalsIgnoreCase(response.header("Accept-Ranges"));
+            return new RemoteFileInfo(contentLength, acceptRanges,
+                    response.header("ETag"), response.header("Last-Modified"));
+        } catch (IOException e) {
+            log.debug("HEAD {} failed: {}", url, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Picks the target path for a URL. A target with a journal from an earlier
+     * download of the same URL is reused so the download resumes, and so is a
+     * file the content store knows as an earlier download of the URL, which is
+     * then updated in place; unless another running task already owns it.
+     * 
+     * @param url The URL
+     * @return The target path, reserved for the calling task
+     */
+    private Path resolveDownloadPath(String url) {
+        Path path = Paths.get(downloadDirectory, getFilenameFromUrl(url));
+        synchronized (activeDownloads) {
+            boolean reusable = PartFileJournal.canResume(path, url) || contentStore.holds(url, path);
+            if (!reusable || activeDownloads.contains(path)) {
+                path = ensureUniqueFilename(path);
+            }
+            activeDownloads.add(path);
+        }
+        return path;
+    }
+
     /**
      * Extracts filename from URL.
      * 
@@ -142,13 +429,19 @@ public class DownloadService {
     }
     
     /**
-     * Ensures the filename is unique by adding a number if necessary.
+     * Ensures the filename is unique by adding a number if necessary. Names with a
+     * part file or a running download count as taken. Rather than trying
+     * {@code name (1).ext}, {@code name (2).ext}, ... in turn, the search
+     * gallops (n+1, n+2, n+4, ...) from the highest number seen taken for the
+     * name until a free number turns up, then bisects back to the lowest free
+     * one after it, so n existing copies cost O(log n) file checks instead of n.
+     * Package-private for the benchmarks.
      * 
      * @param path The original path
      * @return The unique path
      */
-    private Path ensureUniqueFilename(Path path) {
-        if (!Files.exists(path)) {
+    Path ensureUniqueFilename(Path path) {
+        if (isFreeName(path)) {
             return path;
         }
         
@@ -162,16 +455,42 @@ public class DownloadService {
             nameWithoutExtension = baseName.substring(0, lastDot);
         }
         
-        int counter = 1;
-        Path uniquePath = path;
-        
-        while (Files.exists(uniquePath)) {
-            String newName = nameWithoutExtension + " (" + counter + ")" + extension;
-            uniquePath = path.getParent().resolve(newName);
-            counter++;
+        // Numbers up to taken are in use, free is not
+        int taken = filenameHints.getOrDefault(path, 0);
+        int step = 1;
+        int free = taken + step;
+        while (!isFreeName(numberedName(path, nameWithoutExtension, free, extension))) {
+            taken = free;
+            step <<= 1;
+            free = taken + step;
+        }
+        while (free - taken > 1) {
+            int middle = (taken + free) >>> 1;
+            if (isFreeName(numberedName(path, nameWithoutExtension, middle, extension))) {
+                free = middle;
+            } else {
+                taken = middle;
+            }
+        }
+        filenameHints.put(path, taken);
+        return numberedName(path, nameWithoutExtension, free, extension);
+    }
+
+    private boolean isFreeName(Path path) {
+        return !activeDownloads.contains(path) && !Files.exists(path) && !Files.exists(PartFileJournal.partPath(path));
+    }
+
+    private static Path numberedName(Path path, String nameWithoutExtension, int number, String extension) {
+        return path.resolveSibling(nameWithoutExtension + " (" + number + ")" + extension);
+    }
+
+    /**
+     * Forgets the numbers remembered by {@link #ensureUniqueFilename}, for the benchmarks.
+     */
+    void clearFilenameHints() {
+        synchronized (activeDownloads) {
+            filenameHints.clear();
         }
-        
-        return uniquePath;
     }
     
     /**
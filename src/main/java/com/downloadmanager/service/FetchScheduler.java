@@ -0,0 +1,327 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.config.DownloadProperties;
+import com.downloadmanager.config.FetchProperties;
+import com.downloadmanager.io.ItemSink;
+import com.downloadmanager.metrics.DownloadMetrics;
+import com.downloadmanager.model.AbstractFetch;
+import com.downloadmanager.model.FetchDataCount;
+import com.downloadmanager.model.FetchDataItems;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs fetch jobs on a fixed set of workers, interleaving orgs round-robin so
+ * that an org with thousands of queued jobs cannot starve the others. Each org
+ * has its own FIFO queue; workers take one job from the org at the head of the
+ * rotation and move that org to the back.
+ *
+ * <p>With {@code fetch.executor: VIRTUAL} a dispatcher instead starts every job
+ * on its own virtual thread, up to {@code fetch.max-in-flight} at once, so that
+ * thousands of slow API calls can block at the cost of a few KB each. Jobs
+ * submitted through a {@link FetchSweep} can be awaited and cancelled together.
+ */
+@Service
+@EnableConfigurationProperties(FetchProperties.class)
+@Slf4j
+public class FetchScheduler {
+
+    private final DataCountFetchService dataCountFetchService;
+    private final DataItemsFetchService dataItemsFetchService;
+    private final DownloadMetrics metrics;
+    private final Map<String, Deque<Job<?>>> queuesByOrg = new HashMap<>();
+    private final Deque<String> rotation = new ArrayDeque<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final Set<Job<?>> runningJobs = ConcurrentHashMap.newKeySet();
+    private final ThreadFactory virtualThreads = Thread.ofVirtual().name("FetchJob-", 1).factory();
+    private final Semaphore inFlight;
+    private int pendingJobs;
+
+    public FetchScheduler(DataCountFetchService dataCountFetchService,
+                          DataItemsFetchService dataItemsFetchService,
+                          FetchProperties properties,
+                          DownloadMetrics metrics) {
+        this.dataCountFetchService = dataCountFetchService;
+        this.dataItemsFetchService = dataItemsFetchService;
+        this.metrics = metrics;
+        this.inFlight = new Semaphore(properties.getMaxInFlight());
+        if (properties.getExecutor() == DownloadProperties.ExecutorType.VIRTUAL) {
+            Thread dispatcher = new Thread(this::runDispatcher, "FetchDispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            workers.add(dispatcher);
+            log.info("Fetch jobs run on virtual threads, at most {} at once", properties.getMaxInFlight());
+            return;
+        }
+        for (int i = 1; i <= properties.getWorkers(); i++) {
+            Thread worker = new Thread(this::runWorker, "FetchWorker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Starts a sweep, a group of jobs that are awaited and cancelled together.
+     *
+     * @return A new sweep, to be closed when done
+     */
+    public FetchSweep newSweep() {
+        return new FetchSweep(this);
+    }
+
+    /**
+     * Schedules a count job.
+     *
+     * @param job The job
+     * @return Future completed with the job once it has run
+     */
+    public CompletableFuture<FetchDataCount> submit(FetchDataCount job) {
+        return schedule(job, countWork(job)).future;
+    }
+
+    /**
+     * Schedules a list job. Its pages are fetched concurrently once the job
+     * starts and handed to the consumer in page order.
+     *
+     * @param job The job
+     * @param consumer Receives each page
+     * @return Future completed with the job once all pages are consumed
+     */
+    public CompletableFuture<FetchDataItems> submit(FetchDataItems job, PageConsumer consumer) {
+        return schedule(job, pageWork(job, consumer)).future;
+    }
+
+    /**
+     * Schedules a list job whose items are streamed to a sink.
+     *
+     * @param job The job
+     * @param sink Receives each item in list order
+     * @return Future completed with the job once all items are emitted
+     */
+    public CompletableFuture<FetchDataItems> submit(FetchDataItems job, ItemSink sink) {
+        return schedule(job, itemWork(job, sink)).future;
+    }
+
+    /**
+     * Schedules work on behalf of a job's org.
+     *
+     * @param job The job the work belongs to
+     * @param work The work to run
+     * @return Future completed with the work's result
+     */
+    public <T> CompletableFuture<T> submit(AbstractFetch job, Callable<T> work) {
+        return schedule(job, work).future;
+    }
+
+    Callable<FetchDataCount> countWork(FetchDataCount job) {
+        return () -> {
+            dataCountFetchService.fetch(job);
+            return job;
+        };
+    }
+
+    Callable<FetchDataItems> pageWork(FetchDataItems job, PageConsumer consumer) {
+        return () -> {
+            dataItemsFetchService.fetch(job, consumer);
+            return job;
+        };
+    }
+
+    Callable<FetchDataItems> itemWork(FetchDataItems job, ItemSink sink) {
+        return () -> {
+            dataItemsFetchService.fetch(job, sink);
+            return job;
+        };
+    }
+
+    <T> Job<T> schedule(AbstractFetch fetch, Callable<T> work) {
+        Job<T> job = new Job<>(work, metrics);
+        String org = fetch.getOrg() != null ? fetch.getOrg() : "";
+        fetch.markPending();
+
+        synchronized (this) {
+            Deque<Job<?>> queue = queuesByOrg.computeIfAbsent(org, o -> new ArrayDeque<>());
+            if (queue.isEmpty()) {
+                rotation.addLast(org);
+            }
+            queue.addLast(job);
+            pendingJobs++;
+            notify();
+        }
+        return job;
+    }
+
+    /**
+     * Takes the next job in round-robin order across orgs, blocking while none are queued.
+     */
+    private synchronized Job<?> next() throws InterruptedException {
+        while (rotation.isEmpty()) {
+            wait();
+        }
+        String org = rotation.pollFirst();
+        Deque<Job<?>> queue = queuesByOrg.get(org);
+        Job<?> job = queue.pollFirst();
+        if (queue.isEmpty()) {
+            queuesByOrg.remove(org);
+        } else {
+            rotation.addLast(org);
+        }
+        pendingJobs--;
+        return job;
+    }
+
+    private void runWorker() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                next().run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Error in fetch worker", e);
+            }
+        }
+    }
+
+    /**
+     * Starts each job on its own virtual thread, in the same round-robin order
+     * as the platform workers. A permit is taken before a job is dequeued, so
+     * jobs wait in their org queues rather than as parked threads once the cap
+     * is reached.
+     */
+    private void runDispatcher() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                inFlight.acquire();
+                Job<?> job;
+                try {
+                    job = next();
+                } catch (InterruptedException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                runningJobs.add(job);
+                virtualThreads.newThread(() -> {
+                    try {
+                        job.run();
+                    } finally {
+                        runningJobs.remove(job);
+                        inFlight.release();
+                    }
+                }).start();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Error in fetch dispatcher", e);
+            }
+        }
+    }
+
+    /**
+     * A scheduled piece of work and the thread running it, so that it can be
+     * cancelled while queued or interrupted while running.
+     */
+    static final class Job<T> implements Runnable {
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Callable<T> work;
+        private final DownloadMetrics metrics;
+        private Thread runner;
+        private boolean interruptedByCancel;
+
+        Job(Callable<T> work, DownloadMetrics metrics) {
+            this.work = work;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (future.isDone()) {
+                    // Cancelled while queued
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                future.complete(work.call());
+            } catch (Exception e) {
+                if (!future.isCancelled()) {
+                    metrics.recordFetchFailure(e);
+                }
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // Do not leak a cancel interrupt into the worker's next job
+                    if (interruptedByCancel) {
+                        Thread.interrupted();
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Cancels the job. A running job is interrupted; blocking calls on
+         * virtual threads, including socket reads, give up on interrupt.
+         */
+        void cancel() {
+            future.cancel(false);
+            synchronized (this) {
+                if (runner != null) {
+                    interruptedByCancel = true;
+                    runner.interrupt();
+                }
+            }
+        }
+
+        /**
+         * Waits until no thread is running the job.
+         */
+        synchronized void awaitExit() throws InterruptedException {
+            while (runner != null) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of jobs waiting to run.
+     *
+     * @return Pending jobs across all orgs
+     */
+    public synchronized int getPendingJobs() {
+        return pendingJobs;
+    }
+
+    /**
+     * Gets the number of jobs running on virtual threads.
+     *
+     * @return Running jobs, 0 on platform workers
+     */
+    public int getRunningJobs() {
+        return runningJobs.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.forEach(Thread::interrupt);
+        runningJobs.forEach(Job::cancel);
+    }
+}
@@ -0,0 +1,158 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.io.ItemSink;
+import com.downloadmanager.model.AbstractFetch;
+import com.downloadmanager.model.FetchDataCount;
+import com.downloadmanager.model.FetchDataItems;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A group of fetch jobs with a shared lifetime, e.g. one refresh of all orgs.
+ * {@link #join()} waits for every job and fails fast, cancelling the rest of
+ * the sweep on the first failure. {@link #close()} cancels whatever is still
+ * queued or running and waits for running jobs to exit, so no job of the sweep
+ * outlives the block it was started in:
+ *
+ * <pre>
+ * try (FetchSweep sweep = fetchScheduler.newSweep()) {
+ *     jobs.forEach(sweep::submit);
+ *     sweep.join();
+ * }
+ * </pre>
+ */
+public class FetchSweep implements AutoCloseable {
+
+    private final FetchScheduler scheduler;
+    private final List<FetchScheduler.Job<?>> jobs = new ArrayList<>();
+    private final CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+    private boolean cancelled;
+
+    FetchSweep(FetchScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Schedules a count job as part of this sweep.
+     *
+     * @param job The job
+     * @return Future completed with the job once it has run
+     */
+    public CompletableFuture<FetchDataCount> submit(FetchDataCount job) {
+        return add(job, scheduler.countWork(job));
+    }
+
+    /**
+     * Schedules a list job whose pages go to a consumer as part of this sweep.
+     *
+     * @param job The job
+     * @param consumer Receives each page
+     * @return Future completed with the job once all pages are consumed
+     */
+    public CompletableFuture<FetchDataItems> submit(FetchDataItems job, PageConsumer consumer) {
+        return add(job, scheduler.pageWork(job, consumer));
+    }
+
+    /**
+     * Schedules a list job whose items go to a sink as part of this sweep.
+     *
+     * @param job The job
+     * @param sink Receives each item in list order
+     * @return Future completed with the job once all items are emitted
+     */
+    public CompletableFuture<FetchDataItems> submit(FetchDataItems job, ItemSink sink) {
+        return add(job, scheduler.itemWork(job, sink));
+    }
+
+    /**
+     * Schedules work on behalf of a job's org as part of this sweep.
+     *
+     * @param job The job the work belongs to
+     * @param work The work to run
+     * @return Future completed with the work's result
+     */
+    public <T> CompletableFuture<T> submit(AbstractFetch job, Callable<T> work) {
+        return add(job, work);
+    }
+
+    private synchronized <T> CompletableFuture<T> add(AbstractFetch fetch, Callable<T> work) {
+        if (cancelled) {
+            throw new IllegalStateException("Sweep is cancelled");
+        }
+        FetchScheduler.Job<T> job = scheduler.schedule(fetch, work);
+        jobs.add(job);
+        job.future.whenComplete((result, error) -> {
+            if (error != null && !(error instanceof CancellationException)) {
+                firstFailure.completeExceptionally(error);
+            }
+        });
+        return job.future;
+    }
+
+    /**
+     * Waits until every job has finished. On the first failure the remaining
+     * jobs are cancelled and the failure is thrown.
+     *
+     * @throws IOException the first job failure
+     * @throws InterruptedException if interrupted while waiting; the sweep is cancelled
+     */
+    public void join() throws IOException, InterruptedException {
+        CompletableFuture<?>[] futures;
+        synchronized (this) {
+            futures = jobs.stream().map(job -> job.future).toArray(CompletableFuture[]::new);
+        }
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(futures), firstFailure).get();
+        } catch (InterruptedException e) {
+            cancel();
+            throw e;
+        } catch (ExecutionException e) {
+            cancel();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Fetch sweep failed", cause);
+        } catch (CancellationException e) {
+            throw new IOException("Fetch sweep was cancelled", e);
+        }
+    }
+
+    /**
+     * Cancels every job that has not finished. Queued jobs never start, and
+     * running jobs are interrupted.
+     */
+    public void cancel() {
+        List<FetchScheduler.Job<?>> snapshot;
+        synchronized (this) {
+            cancelled = true;
+            snapshot = new ArrayList<>(jobs);
+        }
+        snapshot.forEach(FetchScheduler.Job::cancel);
+    }
+
+    /**
+     * Cancels unfinished jobs and waits until none of them is running any more.
+     */
+    @Override
+    public void close() {
+        cancel();
+        List<FetchScheduler.Job<?>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(jobs);
+        }
+        try {
+            for (FetchScheduler.Job<?> job : snapshot) {
+                job.awaitExit();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.downloadmanager.service;
+
+import okhttp3.HttpUrl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parser for RFC 8288 {@code Link} headers as used by paginated APIs, e.g.
+ * {@code <https://api.example.com/orgs/x/repos?page=2>; rel="next", <...?page=50>; rel="last"}.
+ */
+public final class LinkHeader {
+
+    private LinkHeader() {
+    }
+
+    /**
+     * Parses a Link header into a map from relation to URL.
+     *
+     * @param header The header value, may be null
+     * @return URLs keyed by rel, empty if the header is absent
+     */
+    public static Map<String, String> parse(String header) {
+        Map<String, String> links = new HashMap<>();
+        if (header == null) {
+            return links;
+        }
+        int i = 0;
+        int length = header.length();
+        while (i < length) {
+            int open = header.indexOf('<', i);
+            if (open < 0) {
+                break;
+            }
+            int close = header.indexOf('>', open);
+            if (close < 0) {
+                break;
+            }
+            String url = header.substring(open + 1, close);
+
+            // Parameters run until the next comma outside of quotes
+            int end = close + 1;
+            boolean quoted = false;
+            while (end < length && (quoted || header.charAt(end) != ',')) {
+                if (header.charAt(end) == '"') {
+                    quoted = !quoted;
+                }
+                end++;
+            }
+            String rel = relation(header.substring(close + 1, end));
+            if (rel != null) {
+                // A rel may list several space separated relation types
+                for (String type : rel.split(" ")) {
+                    if (!type.isEmpty()) {
+                        links.put(type, url);
+                    }
+                }
+            }
+            i = end + 1;
+        }
+        return links;
+    }
+
+    /**
+     * Gets the page number of the {@code rel="last"} link.
+     *
+     * @param header The header value, may be null
+     * @param pageParameter Name of the page query parameter, usually "page"
+     * @return The last page number, or -1 if there is no parsable last link
+     */
+    public static long lastPage(String header, String pageParameter) {
+        String last = parse(header).get("last");
+        if (last == null) {
+            return -1;
+        }
+        HttpUrl url = HttpUrl.parse(last);
+        String page = url != null ? url.queryParameter(pageParameter) : null;
+        if (page == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(page);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String relation(String params) {
+        for (String param : params.split(";")) {
+            int eq = param.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            if (param.substring(0, eq).trim().equalsIgnoreCase("rel")) {
+                String value = param.substring(eq + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value.trim();
+            }
+        }
+        return null;
+    }
+}
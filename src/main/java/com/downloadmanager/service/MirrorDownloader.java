@@ -0,0 +1,639 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.config.DownloadProperties;
+import com.downloadmanager.io.ChannelFileSink;
+import com.downloadmanager.io.FileSink;
+import com.downloadmanager.io.MappedFileSink;
+import com.downloadmanager.io.StreamCopier;
+import com.downloadmanager.io.TransferDigest;
+import com.downloadmanager.metrics.DownloadMetrics;
+import com.downloadmanager.model.DownloadTask;
+import com.downloadmanager.model.RemoteFileInfo;
+import com.downloadmanager.model.TransferProgress;
+import com.downloadmanager.ratelimit.BandwidthScheduler;
+import com.downloadmanager.retry.HttpStatusException;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Downloads one file from several equivalent URLs at once. The missing bytes
+ * are cut into chunks that connections to every mirror take from a shared
+ * queue, so a fast mirror simply ends up serving more chunks. A connection
+ * that finds the queue empty takes the second half of the largest unfinished
+ * chunk of a slower mirror, and a mirror whose measured throughput falls below
+ * {@code slow-ratio} of the fastest one gets no new chunks at all. The slowest
+ * mirror therefore no longer decides when the download finishes.
+ *
+ * <p>Mirrors are only combined when they all report the same size and accept
+ * range requests, and when both a mirror and the primary URL have a strong ETag,
+ * only if the two are equal. Each chunk is requested with {@code If-Range} on the
+ * validator its own mirror reported, so a file that changes on a mirror during
+ * the download comes back whole and is rejected. The {@code Content-Range} of
+ * every response must name exactly the requested bytes of a file of the agreed
+ * size. A mirror that fails any of these checks is dropped and its bytes go to
+ * the others; without a digest this is what keeps a different file from being
+ * spliced in.
+ */
+@Slf4j
+class MirrorDownloader {
+
+    // How long an idle connection waits for work that a failing connection may give back
+    private static final long IDLE_POLL_MILLIS = 50;
+
+    private final OkHttpClient httpClient;
+    private final ExecutorService segmentExecutor;
+    private final StreamCopier streamCopier;
+    private final DownloadMetrics metrics;
+    private final DownloadProperties.Mirrors settings;
+    private final DownloadProperties.Io io;
+
+    /**
+     * A URL that can serve the download.
+     *
+     * @param url The URL
+     * @param validator Strong ETag, else Last-Modified, sent as {@code If-Range}; may be null
+     */
+    record Mirror(String url, String validator) {
+    }
+
+    MirrorDownloader(OkHttpClient httpClient,
+                     ExecutorService segmentExecutor,
+                     StreamCopier streamCopier,
+                     DownloadProperties properties,
+                     DownloadMetrics metrics) {
+        this.httpClient = httpClient;
+        this.segmentExecutor = segmentExecutor;
+        this.streamCopier = streamCopier;
+        this.metrics = metrics;
+        this.settings = properties.getMirrors();
+        this.io = properties.getIo();
+    }
+
+    /**
+     * Picks the sources that can share a download: those that answer the probe,
+     * accept range requests, report the same size as the primary URL and, where
+     * both have a strong ETag, the same ETag.
+     *
+     * @param task The download task
+     * @param primary The probed info of the task's own URL, may be null
+     * @param probe Probes one URL, returning null if it does not answer
+     * @return The usable sources, primary first; fewer than two if mirroring does not apply
+     */
+    List<Mirror> usableSources(DownloadTask task, RemoteFileInfo primary, Function<String, RemoteFileInfo> probe) {
+        if (!settings.isEnabled() || task.getMirrors().isEmpty()
+                || primary == null || !primary.supportsRanges() || primary.getContentLength() <= 0) {
+            return List.of(new Mirror(task.getUrl(), null));
+        }
+        List<Future<RemoteFileInfo>> probes = new ArrayList<>();
+        for (String mirror : task.getMirrors()) {
+            probes.add(segmentExecutor.submit(() -> probe.apply(mirror)));
+        }
+        List<Mirror> usable = new ArrayList<>();
+        usable.add(new Mirror(task.getUrl(), validator(primary)));
+        for (int i = 0; i < probes.size(); i++) {
+            String mirror = task.getMirrors().get(i);
+            try {
+                RemoteFileInfo info = probes.get(i).get();
+                if (info == null || !info.supportsRanges()) {
+                    log.info("Task {}: mirror {} is unavailable or does not accept ranges", task.getId(), mirror);
+                } else if (info.getContentLength() != primary.getContentLength()) {
+                    log.warn("Task {}: mirror {} reports {} bytes instead of {}, not using it",
+                            task.getId(), mirror, info.getContentLength(), primary.getContentLength());
+                } else if (isStrong(info.getEtag()) && isStrong(primary.getEtag())
+                        && !info.getEtag().equals(primary.getEtag())) {
+                    log.warn("Task {}: mirror {} reports ETag {} instead of {}, not using it",
+                            task.getId(), mirror, info.getEtag(), primary.getEtag());
+                } else {
+                    usable.add(new Mirror(mirror, validator(info)));
+                }
+            } catch (ExecutionException e) {
+                log.info("Task {}: probing mirror {} failed: {}", task.getId(), mirror, e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return List.of(new Mirror(task.getUrl(), null));
+            }
+        }
+        return usable;
+    }
+
+    /**
+     * Only strong ETags identify content; weak ones ({@code W/"..."}) cannot be used in {@code If-Range}.
+     */
+    static boolean isStrong(String etag) {
+        return etag != null && etag.startsWith("\"") && etag.length() > 2;
+    }
+
+    private static String validator(RemoteFileInfo info) {
+        return isStrong(info.getEtag()) ? info.getEtag() : info.getLastModified();
+    }
+
+    /**
+     * Parses a {@code Content-Range: bytes <first>-<last>/<total>} header.
+     *
+     * @param header The header value, may be null
+     * @return first, last and total (-1 if given as {@code *}), or null if the header is missing or malformed
+     */
+    static long[] parseContentRange(String header) {
+        if (header == null || !header.startsWith("bytes ")) {
+            return null;
+        }
+        int dash = header.indexOf('-', 6);
+        int slash = header.indexOf('/', dash + 1);
+        if (dash < 0 || slash < 0) {
+            return null;
+        }
+        try {
+            String total = header.substring(slash + 1).trim();
+            return new long[]{
+                    Long.parseLong(header.substring(6, dash).trim()),
+                    Long.parseLong(header.substring(dash + 1, slash).trim()),
+                    "*".equals(total) ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Downloads the file from all sources into the given part file. Ranges the
+     * journal already records as complete are skipped.
+     *
+     * @param task The download task
+     * @param sources The usable sources, see {@link #usableSources}
+     * @param size The file size all sources agree on
+     * @param partPath The part file to write into
+     * @param journal The journal of the part file
+     * @param verifier Digest check of the download, may be null
+     * @param flow Bandwidth account of the task
+     * @throws IOException if every source fails, or the finished file is incomplete
+     */
+    void download(DownloadTask task, List<Mirror> sources, long size, Path partPath, PartFileJournal journal,
+                  DigestVerifier verifier, BandwidthScheduler.Flow flow) throws IOException {
+        long resumedBytes = journal.completedBytes();
+        log.info("Downloading {} ({} bytes) to {} from {} sources{}",
+                task.getFilename(), size, partPath, sources.size(),
+                resumedBytes > 0 ? ", resuming after " + resumedBytes + " bytes" : "");
+        journal.setContentLength(size);
+        task.updateProgress(resumedBytes, size);
+        if (verifier != null) {
+            verifier.existingRanges(partPath, journal.completedRanges());
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(partPath.toFile(), "rw")) {
+            if (file.length() != size) {
+                file.setLength(size);
+            }
+        }
+
+        try (FileSink sink = io.getSink() == DownloadProperties.SinkType.MAPPED
+                ? new MappedFileSink(partPath, io.getMappedWindowSize())
+                : new ChannelFileSink(partPath)) {
+            MirrorRun run = new MirrorRun(task, size, sink, journal, verifier, flow);
+            for (long[] range : journal.missingRanges(0, size - 1)) {
+                for (long start = range[0]; start <= range[1]; start += settings.getChunkSize()) {
+                    run.addPending(new long[]{start, Math.min(range[1], start + settings.getChunkSize() - 1)});
+                }
+            }
+            List<MirrorSource> mirrors = sources.stream().map(MirrorSource::new).toList();
+            run.sources.addAll(mirrors);
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (MirrorSource source : mirrors) {
+                for (int i = 0; i < Math.max(1, settings.getConnectionsPerSource()); i++) {
+                    futures.add(segmentExecutor.submit(() -> {
+                        run.work(source);
+                        return null;
+                    }));
+                }
+            }
+            run.awaitAll(futures);
+            mirrors.forEach(source -> log.info("Task {}: {} served {} bytes at {} bytes/s{}",
+                    task.getId(), source.host, source.bytes.get(), source.rate(System.nanoTime()),
+                    source.dropped ? " (dropped as slow)" : source.failure != null ? " (failed)" : ""));
+        }
+
+        if (!journal.missingRanges(0, size - 1).isEmpty()) {
+            throw new IOException("Download from mirrors ended incomplete: " + journal.completedBytes() + " of " + size + " bytes");
+        }
+    }
+
+    /**
+     * One mirror and what it has delivered so far.
+     */
+    private static final class MirrorSource {
+
+        final String url;
+        final String validator;
+        final String host;
+        final AtomicLong bytes = new AtomicLong();
+        final long startNanos = System.nanoTime();
+        volatile boolean dropped;
+        volatile IOException failure;
+
+        MirrorSource(Mirror source) {
+            this.url = source.url();
+            this.validator = source.validator();
+            HttpUrl parsed = HttpUrl.parse(url);
+            this.host = parsed != null ? parsed.host() : url;
+        }
+
+        long rate(long now) {
+            long elapsed = now - startNanos;
+            return elapsed > 0 ? (long) (bytes.get() * 1e9 / elapsed) : 0;
+        }
+
+        boolean usable() {
+            return !dropped && failure == null;
+        }
+    }
+
+    /**
+     * A byte range being fetched by one connection. Its end can move down while
+     * it runs, when an idle connection takes over the tail. Bytes are claimed
+     * before they are read, so the owner and the thief never write the same byte.
+     */
+    private static final class Chunk {
+
+        final MirrorSource owner;
+        final long start;
+        private long end; // inclusive
+        private long claimed; // next byte not yet claimed by the owner
+        private long written; // next byte not yet written by the owner
+        private boolean finished;
+
+        Chunk(MirrorSource owner, long start, long end) {
+            this.owner = owner;
+            this.start = start;
+            this.end = end;
+            this.claimed = start;
+            this.written = start;
+        }
+
+        synchronized long claim(long max) {
+            long count = Math.min(max, end + 1 - claimed);
+            claimed += count;
+            return count;
+        }
+
+        synchronized void unclaim(long count) {
+            claimed -= count;
+        }
+
+        synchronized long end() {
+            return end;
+        }
+
+        synchronized long unclaimed() {
+            return end + 1 - claimed;
+        }
+
+        synchronized void written(long position) {
+            written = position;
+        }
+
+        /**
+         * Stops the chunk from being split further.
+         *
+         * @return The range the owner did not write, or null if it wrote everything
+         */
+        synchronized long[] finish() {
+            finished = true;
+            return written <= end ? new long[]{written, end} : null;
+        }
+
+        /**
+         * Gives up the second half of the unclaimed bytes.
+         *
+         * @return The range given up, or null if too little is left
+         */
+        synchronized long[] splitTail(long minSize) {
+            long left = end + 1 - claimed;
+            if (finished || left < 2 * minSize) {
+                return null;
+            }
+            long[] tail = {claimed + left / 2, end};
+            end = tail[0] - 1;
+            return tail;
+        }
+    }
+
+    /**
+     * Response body source that ends where its chunk currently ends.
+     */
+    private static final class ChunkSource extends ForwardingSource {
+
+        private final Chunk chunk;
+
+        ChunkSource(Source delegate, Chunk chunk) {
+            super(delegate);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long allowed = chunk.claim(byteCount);
+            if (allowed == 0) {
+                return -1;
+            }
+            long read = super.read(sink, allowed);
+            if (read < allowed) {
+                chunk.unclaim(read == -1 ? allowed : allowed - read);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * State shared by the connections of one download.
+     */
+    private class MirrorRun {
+
+        private final DownloadTask task;
+        private final long size;
+        private final FileSink sink;
+        private final PartFileJournal journal;
+        private final DigestVerifier verifier;
+        private final BandwidthScheduler.Flow flow;
+        private final LinkedBlockingDeque<long[]> pending = new LinkedBlockingDeque<>();
+        final List<MirrorSource> sources = new ArrayList<>();
+        private final Set<Chunk> active = ConcurrentHashMap.newKeySet();
+        // Ranges pending plus chunks active, counted up before a range is added and
+        // down only after a chunk's leftover is back, so it is never 0 while work remains
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        private final Queue<Call> calls = new ConcurrentLinkedQueue<>();
+
+        MirrorRun(DownloadTask task, long size, FileSink sink, PartFileJournal journal, DigestVerifier verifier,
+                  BandwidthScheduler.Flow flow) {
+            this.task = task;
+            this.size = size;
+            this.sink = sink;
+            this.journal = journal;
+            this.verifier = verifier;
+            this.flow = flow;
+        }
+
+        void addPending(long[] range) {
+            outstanding.incrementAndGet();
+            pending.add(range);
+        }
+
+        /**
+         * Runs one connection to a source until no work is left or the source
+         * is dropped or fails.
+         */
+        void work(MirrorSource source) throws IOException {
+            TransferProgress.Stripe progress = task.getTransfer().newStripe();
+            while (!aborted.get() && source.usable()) {
+                if (isSlow(source)) {
+                    source.dropped = true;
+                    log.info("Task {}: mirror {} is slow ({} bytes/s), moving its work to faster mirrors",
+                            task.getId(), source.host, source.rate(System.nanoTime()));
+                    return;
+                }
+                Chunk chunk = nextChunk(source);
+                if (chunk == null) {
+                    if (outstanding.get() == 0) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    fetch(source, chunk, progress);
+                } catch (IOException e) {
+                    source.failure = e;
+                    log.warn("Task {}: mirror {} failed: {}", task.getId(), source.host, e.getMessage());
+                    if (sources.stream().noneMatch(MirrorSource::usable)) {
+                        abort();
+                        throw e;
+                    }
+                    return;
+                } finally {
+                    // Whatever the connection did not write goes back for the others
+                    long[] rest = chunk.finish();
+                    if (rest != null) {
+                        outstanding.incrementAndGet();
+                        pending.addFirst(rest);
+                    }
+                    active.remove(chunk);
+                    outstanding.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Takes a chunk from the queue, or else the tail of the unfinished chunk
+         * that would take longest at its owner's rate. Waits briefly if neither
+         * is available, in case a failing connection gives work back.
+         */
+        private Chunk nextChunk(MirrorSource source) throws InterruptedIOException {
+            long[] range = pending.pollFirst();
+            if (range == null) {
+                range = stealFrom(source);
+                if (range != null) {
+                    // The victim's chunk keeps its own count, the tail is new work
+                    outstanding.incrementAndGet();
+                }
+            }
+            if (range == null) {
+                try {
+                    range = pending.pollFirst(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for work");
+                }
+            }
+            if (range == null) {
+                return null;
+            }
+            Chunk chunk = new Chunk(source, range[0], range[1]);
+            active.add(chunk);
+            return chunk;
+        }
+
+        private long[] stealFrom(MirrorSource thief) {
+            long now = System.nanoTime();
+            long thiefRate = thief.rate(now);
+            Chunk victim = null;
+            double longest = 0;
+            for (Chunk chunk : active) {
+                if (chunk.owner == thief) {
+                    continue;
+                }
+                long ownerRate = chunk.owner.rate(now);
+                if (chunk.owner.usable() && ownerRate >= thiefRate && ownerRate > 0) {
+                    continue;
+                }
+                double remaining = chunk.unclaimed() / (double) Math.max(1, ownerRate);
+                if (remaining > longest) {
+                    victim = chunk;
+                    longest = remaining;
+                }
+            }
+            return victim != null ? victim.splitTail(settings.getMinStealSize()) : null;
+        }
+
+        /**
+         * Checks whether a source is far slower than the fastest one. The last
+         * usable source is never dropped.
+         */
+        private boolean isSlow(MirrorSource source) {
+            if (source.bytes.get() < settings.getEvaluateAfter()) {
+                return false;
+            }
+            long now = System.nanoTime();
+            long best = 0;
+            boolean others = false;
+            for (MirrorSource other : sources) {
+                if (other != source && other.usable()) {
+                    others = true;
+                    best = Math.max(best, other.rate(now));
+                }
+            }
+            return others && source.rate(now) < best * settings.getSlowRatio();
+        }
+
+        /**
+         * Fetches one chunk and writes it at its offset, checkpointing completed
+         * bytes into the journal as it goes.
+         */
+        private void fetch(MirrorSource source, Chunk chunk, TransferProgress.Stripe progress) throws IOException {
+            // The chunk's end can move down while the request runs, the response must still match the request
+            long end = chunk.end();
+            Request.Builder builder = new Request.Builder()
+                    .url(source.url)
+                    .addHeader("User-Agent", "DownloadManager/1.0")
+                    .addHeader("Range", "bytes=" + chunk.start + "-" + end);
+            // If the file changed on the mirror the server sends it whole, which is rejected below
+            if (source.validator != null) {
+                builder.addHeader("If-Range", source.validator);
+            }
+            Call call = httpClient.newCall(builder.build());
+            calls.add(call);
+            long startNanos = System.nanoTime();
+            try (Response response = call.execute()) {
+                if (!response.isSuccessful()) {
+                    throw HttpStatusException.from("Mirror " + source.host + ": ", response);
+                }
+                if (response.code() != 206) {
+                    throw new IOException("Mirror " + source.host + " ignored the range request or the file changed");
+                }
+                long[] range = parseContentRange(response.header("Content-Range"));
+                if (range == null || range[0] != chunk.start || range[1] != end || range[2] != size) {
+                    throw new IOException("Mirror " + source.host + " answered bytes " + chunk.start + "-" + end
+                            + " of " + size + " with Content-Range: " + response.header("Content-Range"));
+                }
+                ResponseBody body = response.body();
+                if (body == null) {
+                    throw new IOException("No response body");
+                }
+                metrics.awaitFirstByte(source.host, body.source(), startNanos);
+
+                long[] written = {chunk.start, chunk.start}; // position, checkpoint
+                TransferDigest digest = verifier != null ? verifier.forRange() : null;
+                try (BufferedSource limited = Okio.buffer(new ChunkSource(body.source(), chunk))) {
+                    streamCopier.copy(limited, sink, chunk.start, digest, (position, bytes) -> {
+                        written[0] = position;
+                        chunk.written(position);
+                        metrics.recordBytes(bytes);
+                        progress.add(bytes);
+                        source.bytes.addAndGet(bytes);
+                        if (aborted.get()) {
+                            throw new IOException("Mirror download aborted");
+                        }
+                        if (position - written[1] >= SegmentedDownloader.CHECKPOINT_BYTES) {
+                            SegmentedDownloader.checkpoint(sink, journal, written[1], position);
+                            if (verifier != null) {
+                                verifier.written(written[1], position);
+                            }
+                            written[1] = position;
+                        }
+                        flow.acquire(source.host, bytes);
+                    });
+                } finally {
+                    if (written[0] > written[1]) {
+                        SegmentedDownloader.checkpoint(sink, journal, written[1], written[0]);
+                    }
+                    if (verifier != null) {
+                        verifier.rangeDone(chunk.start, written[0] - chunk.start, digest);
+                    }
+                }
+                if (written[0] != chunk.end() + 1) {
+                    throw new EOFException("Mirror " + source.host + " ended chunk " + chunk.start + "-" + chunk.end()
+                            + " early at byte " + written[0]);
+                }
+            } finally {
+                calls.remove(call);
+            }
+        }
+
+        void awaitAll(List<Future<?>> futures) throws IOException {
+            IOException failure = null;
+            boolean interrupted = false;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            Throwable cause = e.getCause();
+                            failure = cause instanceof IOException ioException
+                                    ? ioException : new IOException("Mirror download failed", cause);
+                        }
+                        abort();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        if (failure == null) {
+                            failure = new IOException("Mirror download interrupted", e);
+                        }
+                        abort();
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void abort() {
+            if (aborted.compareAndSet(false, true)) {
+                calls.forEach(Call::cancel);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.downloadmanager.service;
+
+import java.io.IOException;
+
+/**
+ * Receives the pages of a list fetch, one at a time and in page order.
+ */
+@FunctionalInterface
+public interface PageConsumer {
+
+    /**
+     * @param page The page number, starting at 1
+     * @param body The page's response body
+     * @throws IOException to abort the fetch
+     */
+    void accept(long page, byte[] body) throws IOException;
+}
@@ -0,0 +1,325 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.model.RemoteFileInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Sidecar journal for a {@code *.part} file. Records which byte ranges of the
+ * part file hold data that has been flushed to disk, together with the
+ * validators (ETag, Last-Modified) of the remote file they came from, so that an
+ * interrupted download can continue where it stopped.
+ *
+ * <p>The journal is a small properties file written next to the part file as
+ * {@code <name>.part.journal}. Saves go through a temporary file that is forced
+ * to disk before an atomic move, so a crash or power loss leaves either the old
+ * or the new journal, never a torn one.
+ */
+@Slf4j
+class PartFileJournal {
+
+    static final String PART_SUFFIX = ".part";
+    static final String JOURNAL_SUFFIX = ".part.journal";
+
+    private final Path journalPath;
+    private final String url;
+    private String etag;
+    private String lastModified;
+    private long contentLength = -1;
+    // Sorted, non-overlapping, non-adjacent [start, end] inclusive ranges
+    private final List<long[]> ranges = new ArrayList<>();
+
+    private PartFileJournal(Path journalPath, String url) {
+        this.journalPath = journalPath;
+        this.url = url;
+    }
+
+    /**
+     * Gets the part file path for a target file.
+     *
+     * @param target The final download path
+     * @return The part file path
+     */
+    static Path partPath(Path target) {
+        return target.resolveSibling(target.getFileName() + PART_SUFFIX);
+    }
+
+    /**
+     * Gets the journal path for a target file.
+     *
+     * @param target The final download path
+     * @return The journal path
+     */
+    static Path journalPath(Path target) {
+        return target.resolveSibling(target.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Checks whether the target has a journal left by an earlier download of the same URL.
+     *
+     * @param target The final download path
+     * @param url The download URL
+     * @return true if a matching journal and part file exist
+     */
+    static boolean canResume(Path target, String url) {
+        Path journal = journalPath(target);
+        if (!Files.exists(journal) || !Files.exists(partPath(target))) {
+            return false;
+        }
+        try {
+            return url.equals(readProperties(journal).getProperty("url"));
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable journal {}: {}", journal, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Loads the journal of a target file, or starts an empty one if there is no
+     * usable journal for the URL.
+     *
+     * @param target The final download path
+     * @param url The download URL
+     * @return The journal
+     */
+    static PartFileJournal open(Path target, String url) {
+        PartFileJournal journal = new PartFileJournal(journalPath(target), url);
+        if (!canResume(target, url)) {
+            return journal;
+        }
+        try {
+            Properties props = readProperties(journal.journalPath);
+            journal.etag = props.getProperty("etag");
+            journal.lastModified = props.getProperty("lastModified");
+            journal.contentLength = Long.parseLong(props.getProperty("contentLength", "-1"));
+            String ranges = props.getProperty("ranges", "");
+            for (String range : ranges.split(",")) {
+                if (!range.isBlank()) {
+                    int dash = range.indexOf('-');
+                    journal.addRange(Long.parseLong(range.substring(0, dash)),
+                            Long.parseLong(range.substring(dash + 1)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring corrupt journal {}: {}", journal.journalPath, e.getMessage());
+            journal.reset();
+        }
+        return journal;
+    }
+
+    /**
+     * Compares the journal against what the server reports now. If the remote
+     * file has changed, the recorded ranges are dropped and the validators are
+     * replaced with the new ones.
+     *
+     * @param info The probed remote file info, may be null
+     * @return true if the recorded ranges are still valid
+     */
+    synchronized boolean validate(RemoteFileInfo info) {
+        if (info == null) {
+            return true;
+        }
+        boolean valid = ranges.isEmpty()
+                || (Objects.equals(etag, info.getEtag())
+                && Objects.equals(lastModified, info.getLastModified())
+                && (contentLength < 0 || contentLength == info.getContentLength()));
+        if (!valid) {
+            log.info("Remote file changed since the partial download of {}, starting over", url);
+            ranges.clear();
+        }
+        etag = info.getEtag();
+        lastModified = info.getLastModified();
+        contentLength = info.getContentLength();
+        return valid;
+    }
+
+    /**
+     * Gets the validator to send in an {@code If-Range} header.
+     *
+     * @return The strong ETag, else Last-Modified, else null
+     */
+    synchronized String ifRangeValidator() {
+        return MirrorDownloader.isStrong(etag) ? etag : lastModified;
+    }
+
+    synchronized String getEtag() {
+        return etag;
+    }
+
+    synchronized String getLastModified() {
+        return lastModified;
+    }
+
+    synchronized void setValidators(String etag, String lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    synchronized long getContentLength() {
+        return contentLength;
+    }
+
+    synchronized void setContentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Records a byte range as written and flushed.
+     *
+     * @param start First byte, inclusive
+     * @param end Last byte, inclusive
+     */
+    synchronized void addRange(long start, long end) {
+        if (end < start) {
+            return;
+        }
+        int i = 0;
+        while (i < ranges.size() && ranges.get(i)[1] + 1 < start) {
+            i++;
+        }
+        // Merge with every range that overlaps or touches [start, end]
+        while (i < ranges.size() && ranges.get(i)[0] <= end + 1) {
+            long[] existing = ranges.remove(i);
+            start = Math.min(start, existing[0]);
+            end = Math.max(end, existing[1]);
+        }
+        ranges.add(i, new long[]{start, end});
+    }
+
+    /**
+     * Gets the number of bytes that are already on disk.
+     *
+     * @return Completed bytes
+     */
+    synchronized long completedBytes() {
+        long total = 0;
+        for (long[] range : ranges) {
+            total += range[1] - range[0] + 1;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the completed ranges.
+     *
+     * @return Completed [start, end] ranges in order
+     */
+    synchronized List<long[]> completedRanges() {
+        List<long[]> completed = new ArrayList<>(ranges.size());
+        for (long[] range : ranges) {
+            completed.add(range.clone());
+        }
+        return completed;
+    }
+
+    /**
+     * Gets the length of the contiguous completed region at the start of the file.
+     *
+     * @return Offset of the first missing byte
+     */
+    synchronized long completedPrefix() {
+        return !ranges.isEmpty() && ranges.get(0)[0] == 0 ? ranges.get(0)[1] + 1 : 0;
+    }
+
+    /**
+     * Gets the parts of {@code [start, end]} that are not completed yet.
+     *
+     * @param start First byte, inclusive
+     * @param end Last byte, inclusive
+     * @return Missing [start, end] ranges in order
+     */
+    synchronized List<long[]> missingRanges(long start, long end) {
+        List<long[]> missing = new ArrayList<>();
+        long cursor = start;
+        for (long[] range : ranges) {
+            if (range[1] < cursor) {
+                continue;
+            }
+            if (range[0] > end) {
+                break;
+            }
+            if (range[0] > cursor) {
+                missing.add(new long[]{cursor, range[0] - 1});
+            }
+            cursor = range[1] + 1;
+        }
+        if (cursor <= end) {
+            missing.add(new long[]{cursor, end});
+        }
+        return missing;
+    }
+
+    /**
+     * Drops all recorded ranges.
+     */
+    synchronized void reset() {
+        ranges.clear();
+    }
+
+    /**
+     * Writes the journal to disk.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void save() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        if (etag != null) {
+            props.setProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            props.setProperty("lastModified", lastModified);
+        }
+        props.setProperty("contentLength", Long.toString(contentLength));
+        StringBuilder sb = new StringBuilder();
+        for (long[] range : ranges) {
+            if (!sb.isEmpty()) {
+                sb.append(',');
+            }
+            sb.append(range[0]).append('-').append(range[1]);
+        }
+        props.setProperty("ranges", sb.toString());
+
+        Path tmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+            props.store(writer, null);
+            writer.flush();
+            // Otherwise the rename can reach the disk before the data it names
+            channel.force(true);
+        }
+        Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes the journal once the part file has been moved into place.
+     *
+     * @throws IOException if the journal cannot be deleted
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(journalPath);
+    }
+
+    private static Properties readProperties(Path path) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        return props;
+    }
+}
@@ -0,0 +1,124 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.io.TransferDigest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Hashes a file front to back while a parallel download is still writing it,
+ * for digests such as SHA-256 that cannot be computed per range and combined.
+ * Writers report the ranges they have written; whenever that extends the
+ * contiguous written prefix, a background thread reads the new bytes, most
+ * likely still in the page cache, into the digest. When the last range is
+ * written only what lies after the prefix is left to hash.
+ */
+final class PrefixHasher {
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path path;
+    private final TransferDigest digest;
+    // Written ranges past the prefix, start -> end (exclusive); they may overlap
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+    private long writtenTo;
+    private long hashedTo;
+    private boolean hashing;
+    private IOException failure;
+
+    /**
+     * @param path The part file
+     * @param digest The digest to feed, from the first byte on
+     */
+    PrefixHasher(Path path, TransferDigest digest) {
+        this.path = path;
+        this.digest = digest;
+    }
+
+    /**
+     * Records that a range of the file is on disk.
+     *
+     * @param start First byte of the range
+     * @param end Byte just past the range
+     */
+    synchronized void written(long start, long end) {
+        if (end <= start) {
+            return;
+        }
+        ranges.merge(start, end, Math::max);
+        Map.Entry<Long, Long> first;
+        while ((first = ranges.firstEntry()) != null && first.getKey() <= writtenTo) {
+            writtenTo = Math.max(writtenTo, first.getValue());
+            ranges.pollFirstEntry();
+        }
+        if (writtenTo > hashedTo && !hashing && failure == null) {
+            hashing = true;
+            Thread.ofVirtual().name("digest-" + path.getFileName()).start(this::hash);
+        }
+    }
+
+    /**
+     * Waits until the whole file has been hashed.
+     *
+     * @param size The file size; all of it must be on disk
+     * @return The digest of the file
+     * @throws IOException if the file could not be read
+     */
+    synchronized String finish(long size) throws IOException {
+        written(0, size);
+        try {
+            while (hashing) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing " + path);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return digest.hex();
+    }
+
+    /**
+     * Hashes the written prefix until it has caught up, then ends.
+     */
+    private void hash() {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (true) {
+                long from;
+                long to;
+                synchronized (this) {
+                    if (hashedTo >= writtenTo) {
+                        hashing = false;
+                        notifyAll();
+                        return;
+                    }
+                    from = hashedTo;
+                    to = writtenTo;
+                }
+                DigestVerifier.readInto(channel, buffer, from, to, digest);
+                synchronized (this) {
+                    hashedTo = to;
+                }
+            }
+        } catch (IOException e) {
+            failed(e);
+        } catch (RuntimeException e) {
+            failed(new IOException("Failed to hash " + path, e));
+        }
+    }
+
+    private synchronized void failed(IOException e) {
+        failure = e;
+        hashing = false;
+        notifyAll();
+    }
+}
@@ -0,0 +1,301 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.config.DownloadProperties;
+import com.downloadmanager.io.ChannelFileSink;
+import com.downloadmanager.io.FileSink;
+import com.downloadmanager.io.MappedFileSink;
+import com.downloadmanager.io.StreamCopier;
+import com.downloadmanager.io.TransferDigest;
+import com.downloadmanager.metrics.DownloadMetrics;
+import com.downloadmanager.model.DownloadTask;
+import com.downloadmanager.model.RemoteFileInfo;
+import com.downloadmanager.model.TransferProgress;
+import com.downloadmanager.ratelimit.BandwidthScheduler;
+import com.downloadmanager.retry.HttpStatusException;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads a file over several connections at once. The file is split into
+ * byte ranges that are fetched in parallel on a shared pool, and each range is
+ * written at its own offset into a preallocated part file whose journal records
+ * the completed ranges. Writes go through a {@link FileSink}, either positional
+ * channel writes or memory-mapped windows.
+ */
+@Slf4j
+class SegmentedDownloader {
+
+    static final long CHECKPOINT_BYTES = 8L * 1024 * 1024;
+
+    private final OkHttpClient httpClient;
+    private final ExecutorService segmentExecutor;
+    private final StreamCopier streamCopier;
+    private final DownloadMetrics metrics;
+    private final DownloadProperties.Segments settings;
+    private final DownloadProperties.Io io;
+
+    SegmentedDownloader(OkHttpClient httpClient,
+                        ExecutorService segmentExecutor,
+                        StreamCopier streamCopier,
+                        DownloadProperties properties,
+                        DownloadMetrics metrics) {
+        this.httpClient = httpClient;
+        this.segmentExecutor = segmentExecutor;
+        this.streamCopier = streamCopier;
+        this.metrics = metrics;
+        this.settings = properties.getSegments();
+        this.io = properties.getIo();
+    }
+
+    /**
+     * Checks whether a file should be downloaded in segments.
+     *
+     * @param info The probed remote file info, may be null
+     * @return true if segmenting is enabled, supported and worthwhile
+     */
+    boolean shouldSegment(RemoteFileInfo info) {
+        return settings.isEnabled()
+                && settings.getCount() > 1
+                && info != null
+                && info.supportsRanges()
+                && info.getContentLength() >= settings.getMinSize();
+    }
+
+    /**
+     * Downloads the file as parallel byte ranges into the given part file.
+     * Ranges the journal already records as complete are skipped, and each
+     * segment checkpoints its progress into the journal as it goes.
+     *
+     * @param task The download task
+     * @param info The probed remote file info
+     * @param partPath The part file to write into
+     * @param journal The journal of the part file
+     * @param verifier Digest check of the download, may be null
+     * @param flow Bandwidth account of the task
+     * @throws IOException if any segment fails
+     */
+    void download(DownloadTask task, RemoteFileInfo info, Path partPath, PartFileJournal journal,
+                  DigestVerifier verifier, BandwidthScheduler.Flow flow) throws IOException {
+        long size = info.getContentLength();
+        int count = (int) Math.min(settings.getCount(), size);
+        long segmentSize = size / count;
+
+        // Split the file into equal segments, then fetch only the parts of each not already on disk
+        List<long[]> pending = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long start = i * segmentSize;
+            long end = (i == count - 1) ? size - 1 : start + segmentSize - 1;
+            pending.addAll(journal.missingRanges(start, end));
+        }
+
+        long resumedBytes = journal.completedBytes();
+        log.info("Downloading {} ({} bytes) to {} using {} segments{}",
+                task.getFilename(), size, partPath, pending.size(),
+                resumedBytes > 0 ? ", resuming after " + resumedBytes + " bytes" : "");
+        task.updateProgress(resumedBytes, size);
+        if (verifier != null) {
+            verifier.existingRanges(partPath, journal.completedRanges());
+        }
+
+        // Preallocate so that every segment can write at its own offset
+        try (RandomAccessFile file = new RandomAccessFile(partPath.toFile(), "rw")) {
+            if (file.length() != size) {
+                file.setLength(size);
+            }
+        }
+
+        try (FileSink sink = io.getSink() == DownloadProperties.SinkType.MAPPED
+                ? new MappedFileSink(partPath, io.getMappedWindowSize())
+                : new ChannelFileSink(partPath)) {
+            SegmentRun run = new SegmentRun(task, sink, journal, verifier, flow);
+            List<Future<?>> futures = new ArrayList<>(pending.size());
+            for (long[] range : pending) {
+                futures.add(segmentExecutor.submit(() -> {
+                    run.downloadSegment(range[0], range[1]);
+                    return null;
+                }));
+            }
+            run.awaitAll(futures);
+        }
+    }
+
+    /**
+     * State shared by the segments of one download. When one segment fails the
+     * others are stopped by cancelling their HTTP calls rather than interrupting
+     * their threads, because an interrupt would close the shared file channel
+     * before the segments could checkpoint what they had written.
+     */
+    private class SegmentRun {
+
+        private final DownloadTask task;
+        private final FileSink sink;
+        private final PartFileJournal journal;
+        private final DigestVerifier verifier;
+        private final BandwidthScheduler.Flow flow;
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        private final Queue<Call> calls = new ConcurrentLinkedQueue<>();
+
+        SegmentRun(DownloadTask task, FileSink sink, PartFileJournal journal, DigestVerifier verifier,
+                   BandwidthScheduler.Flow flow) {
+            this.task = task;
+            this.sink = sink;
+            this.journal = journal;
+            this.verifier = verifier;
+            this.flow = flow;
+        }
+
+        /**
+         * Fetches one byte range and writes it at its offset in the file,
+         * checkpointing completed bytes into the journal as it goes.
+         */
+        void downloadSegment(long start, long end) throws IOException {
+            if (aborted.get()) {
+                return;
+            }
+            Request.Builder builder = new Request.Builder()
+                    .url(task.getUrl())
+                    .addHeader("User-Agent", "DownloadManager/1.0")
+                    .addHeader("Range", "bytes=" + start + "-" + end);
+            // If the file changed since the probe the server sends it whole, which is rejected below
+            String validator = journal.ifRangeValidator();
+            if (validator != null) {
+                builder.addHeader("If-Range", validator);
+            }
+
+            Call call = httpClient.newCall(builder.build());
+            calls.add(call);
+            long startNanos = System.nanoTime();
+            try (Response response = call.execute()) {
+                if (!response.isSuccessful()) {
+                    throw HttpStatusException.from("Segment " + start + "-" + end + ": ", response);
+                }
+                if (response.code() != 206) {
+                    throw new IOException("Segment " + start + "-" + end + " expected HTTP 206 but got "
+                            + response.code() + ": " + response.message());
+                }
+                // Bytes of another range, or a multipart body, would land at this segment's offset
+                long[] range = MirrorDownloader.parseContentRange(response.header("Content-Range"));
+                if (range == null || range[0] != start || range[1] != end || range[2] != journal.getContentLength()) {
+                    throw new IOException("Segment " + start + "-" + end + " of " + journal.getContentLength()
+                            + " answered with Content-Range: " + response.header("Content-Range"));
+                }
+                ResponseBody body = response.body();
+                if (body == null) {
+                    throw new IOException("No response body");
+                }
+                String host = call.request().url().host();
+                metrics.awaitFirstByte(host, body.source(), startNanos);
+
+                long[] written = {start, start}; // position, checkpoint
+                // Each segment counts into its own stripe, so segments never contend on progress
+                TransferProgress.Stripe progress = task.getTransfer().newStripe();
+                TransferDigest digest = verifier != null ? verifier.forRange() : null;
+                try {
+                    streamCopier.copy(body.source(), sink, start, digest, (position, bytes) -> {
+                        written[0] = position;
+                        metrics.recordBytes(bytes);
+                        progress.add(bytes);
+                        if (aborted.get()) {
+                            throw new IOException("Segment aborted");
+                        }
+                        if (position - written[1] >= CHECKPOINT_BYTES) {
+                            checkpoint(sink, journal, written[1], position);
+                            if (verifier != null) {
+                                verifier.written(written[1], position);
+                            }
+                            written[1] = position;
+                        }
+                        flow.acquire(host, bytes);
+                    });
+                } finally {
+                    // Keep whatever was written, also when the segment fails part way
+                    if (written[0] > written[1]) {
+                        checkpoint(sink, journal, written[1], written[0]);
+                    }
+                    if (verifier != null) {
+                        verifier.rangeDone(start, written[0] - start, digest);
+                    }
+                }
+
+                long position = written[0];
+                if (position != end + 1) {
+                    throw new EOFException("Segment " + start + "-" + end + " ended early at byte " + position);
+                }
+            } finally {
+                calls.remove(call);
+            }
+            log.debug("Task {}: segment {}-{} done", task.getId(), start, end);
+        }
+
+        /**
+         * Waits for all segments. After the first failure the remaining segments
+         * are cancelled, and this still waits for them so that they have
+         * checkpointed before the channel is closed.
+         */
+        void awaitAll(List<Future<?>> futures) throws IOException {
+            IOException failure = null;
+            boolean interrupted = false;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            Throwable cause = e.getCause();
+                            failure = cause instanceof IOException ioException
+                                    ? ioException : new IOException("Segment download failed", cause);
+                        }
+                        abort();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        if (failure == null) {
+                            failure = new IOException("Segmented download interrupted", e);
+                        }
+                        abort();
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void abort() {
+            if (aborted.compareAndSet(false, true)) {
+                calls.forEach(Call::cancel);
+            }
+        }
+    }
+
+    /**
+     * Flushes written bytes to disk before recording them in the journal, so the
+     * journal never claims data that a crash could lose.
+     */
+    static void checkpoint(FileSink sink, PartFileJournal journal, long from, long to) throws IOException {
+        sink.force();
+        journal.addRange(from, to - 1);
+        journal.save();
+    }
+}
@@ -1,7 +0,0 @@
-package com.downloadmanager.service;
-
-public class TokenService {
-    String getToken(String orgName){
-        return "token";
-    }
-}
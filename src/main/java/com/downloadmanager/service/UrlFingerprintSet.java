@@ -0,0 +1,90 @@
+package com.downloadmanager.service;
+
+/**
+ * Set of 64-bit URL fingerprints for deduplicating large URL lists. Only the
+ * fingerprint is kept, in an open-addressing table of longs, so a URL costs
+ * 11 to 21 bytes however long it is. The chance that any two of n URLs share
+ * a fingerprint is about n²/2⁶⁵, roughly one in 400,000 for 10 million URLs.
+ * Not thread-safe.
+ */
+final class UrlFingerprintSet {
+
+    private static final double LOAD_FACTOR = 0.75;
+    private static final long EMPTY = 0;
+
+    private long[] slots;
+    private int size;
+
+    /**
+     * @param expected Number of URLs to size the table for
+     */
+    UrlFingerprintSet(int expected) {
+        int capacity = Integer.highestOneBit((int) Math.max(16, expected / LOAD_FACTOR) - 1) << 1;
+        this.slots = new long[capacity];
+    }
+
+    /**
+     * Adds a URL.
+     *
+     * @param url The URL
+     * @return true if the URL was not in the set yet
+     */
+    boolean add(String url) {
+        long fingerprint = fingerprint(url);
+        if (!insert(slots, fingerprint)) {
+            return false;
+        }
+        if (++size > slots.length * LOAD_FACTOR) {
+            grow();
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static boolean insert(long[] table, long fingerprint) {
+        int mask = table.length - 1;
+        int index = (int) fingerprint & mask;
+        while (table[index] != EMPTY) {
+            if (table[index] == fingerprint) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = fingerprint;
+        return true;
+    }
+
+    private void grow() {
+        long[] larger = new long[slots.length << 1];
+        for (long fingerprint : slots) {
+            if (fingerprint != EMPTY) {
+                insert(larger, fingerprint);
+            }
+        }
+        slots = larger;
+    }
+
+    /**
+     * Hashes a URL to 64 bits: FNV-1a over its characters, then the MurmurHash3
+     * finalizer so that the low bits used as table index are well mixed.
+     *
+     * @param url The URL
+     * @return The fingerprint, never 0
+     */
+    static long fingerprint(CharSequence url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash != EMPTY ? hash : 1;
+    }
+}
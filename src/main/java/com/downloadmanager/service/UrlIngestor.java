@@ -0,0 +1,224 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.model.DownloadTask;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Feeds URL lists into the download queue. Lists are read line by line and
+ * every entry is queued as soon as it is read; {@link DownloadQueueService}
+ * blocks while its queue is full, so reading waits for the downloads to catch
+ * up and memory stays flat however long the list is. Entries already seen are
+ * skipped using their 64-bit fingerprints. The first entry for a URL makes its
+ * task; mirrors and a digest carried by a repeat are merged into that task as
+ * long as it is still queued, see {@link DownloadQueueService#mergeSources}.
+ *
+ * <p>An entry is a URL, or several URLs of the same file separated by
+ * {@code |} (the first is the primary, the others mirrors), optionally with a
+ * {@code digest=<spec>} element. In list files, blank lines and lines starting
+ * with {@code #} are ignored.
+ */
+@Service
+@Slf4j
+public class UrlIngestor {
+
+    private static final String DIGEST_PREFIX = "digest=";
+    private static final int PROGRESS_LOG_LINES = 100_000;
+
+    private final DownloadQueueService queueService;
+    private final UrlFingerprintSet seen = new UrlFingerprintSet(1024);
+
+    public UrlIngestor(DownloadQueueService queueService) {
+        this.queueService = queueService;
+        // Tasks recovered from the queue log count as seen, so re-reading a list after a restart adds nothing twice.
+        // They are queued again in the background, so the queue itself may not hold them all yet.
+        for (String url : queueService.getRecoveredUrls()) {
+            seen.add(url);
+        }
+    }
+
+    /**
+     * Queues one entry unless its primary URL was queued before, in which case
+     * its mirrors and digest are merged into the earlier task. Blocks while the
+     * queue is full.
+     *
+     * @param entry The entry
+     * @return true if the entry was queued as a new task
+     * @throws InterruptedException if interrupted while waiting for queue space
+     */
+    public boolean submit(String entry) throws InterruptedException {
+        return submit(entry, seen, true) != null;
+    }
+
+    private DownloadTask submit(String entry, UrlFingerprintSet seen, boolean logDuplicates)
+            throws InterruptedException {
+        List<String> urls = new ArrayList<>(1);
+        String digest = null;
+        for (String part : entry.trim().split("\\|")) {
+            part = part.trim();
+            if (part.startsWith(DIGEST_PREFIX)) {
+                digest = part.substring(DIGEST_PREFIX.length());
+            } else if (!part.isEmpty()) {
+                urls.add(part);
+            }
+        }
+        if (urls.isEmpty()) {
+            return null;
+        }
+        boolean added;
+        synchronized (seen) {
+            added = seen.add(urls.get(0));
+        }
+        if (!added) {
+            duplicate(urls.get(0), urls.subList(1, urls.size()), digest, logDuplicates);
+            return null;
+        }
+        return queueService.addToQueue(urls.get(0), urls.subList(1, urls.size()), 0, digest);
+    }
+
+    private void duplicate(String url, List<String> mirrors, String digest, boolean logDuplicates) {
+        if (mirrors.isEmpty() && digest == null) {
+            if (logDuplicates) {
+                log.info("Skipping duplicate URL {}", url);
+            } else {
+                log.debug("Skipping duplicate URL {}", url);
+            }
+            return;
+        }
+        DownloadTask task = queueService.mergeSources(url, mirrors, digest);
+        if (task != null) {
+            log.info("Duplicate URL {}: merged its mirrors and digest into queued task {}", url, task.getId());
+        } else {
+            log.warn("Skipping duplicate URL {}: its task already started or finished, "
+                    + "so the mirrors and digest of the repeat are not used", url);
+        }
+    }
+
+    /**
+     * Queues the entries of URL lists. An input is a file, {@code -} for
+     * standard input, or a glob such as {@code lists/*.txt}, whose matches are
+     * read in name order.
+     *
+     * @param inputs The inputs
+     * @return Number of entries queued
+     * @throws IOException if an input cannot be read
+     * @throws InterruptedException if interrupted while waiting for queue space
+     */
+    public long ingest(List<String> inputs) throws IOException, InterruptedException {
+        long queued = 0;
+        for (String input : inputs) {
+            if (input.equals("-")) {
+                // Not closed, standard input belongs to the process
+                queued += ingest("stdin", new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                        seen, task -> { });
+                continue;
+            }
+            for (Path path : resolve(input)) {
+                try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    queued += ingest(path.toString(), reader, seen, task -> { });
+                }
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Queues the entries of one list, skipping duplicates within that list only.
+     * Used for the batches a running daemon receives, which may repeat URLs of
+     * earlier batches on purpose.
+     *
+     * @param name Name of the list, for logging
+     * @param reader The list
+     * @param onQueued Called with each queued task
+     * @return Number of entries queued
+     * @throws IOException if the list cannot be read
+     * @throws InterruptedException if interrupted while waiting for queue space
+     */
+    public long ingest(String name, BufferedReader reader, Consumer<DownloadTask> onQueued)
+            throws IOException, InterruptedException {
+        return ingest(name, reader, new UrlFingerprintSet(1024), onQueued);
+    }
+
+    private long ingest(String name, BufferedReader reader, UrlFingerprintSet seen, Consumer<DownloadTask> onQueued)
+            throws IOException, InterruptedException {
+        long lines = 0;
+        long queued = 0;
+        long skipped = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines++;
+            String entry = line.trim();
+            if (entry.isEmpty() || entry.startsWith("#")) {
+                continue;
+            }
+            // Duplicates are only counted here, a list may repeat millions of URLs
+            DownloadTask task = submit(entry, seen, false);
+            if (task != null) {
+                onQueued.accept(task);
+                queued++;
+            } else {
+                skipped++;
+            }
+            if (lines % PROGRESS_LOG_LINES == 0) {
+                log.info("Read {} lines from {}, {} queued", lines, name, queued);
+            }
+        }
+        int distinct;
+        synchronized (seen) {
+            distinct = seen.size();
+        }
+        log.info("Queued {} of {} lines from {}, skipped {} duplicates ({} distinct URLs so far)",
+                queued, lines, name, skipped, distinct);
+        return queued;
+    }
+
+    /**
+     * Expands an input to the files it names.
+     */
+    static List<Path> resolve(String input) throws IOException {
+        int wildcard = indexOfWildcard(input);
+        if (wildcard < 0) {
+            return List.of(Paths.get(input));
+        }
+        // Walk from the deepest directory before the first wildcard
+        int slash = input.lastIndexOf('/', wildcard);
+        Path base = Paths.get(slash < 0 ? "." : input.substring(0, slash + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:"
+                + (slash < 0 ? input : input.substring(slash + 1)));
+        try (Stream<Path> files = Files.walk(base)) {
+            List<Path> matches = files
+                    .filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(base.relativize(path)))
+                    .sorted()
+                    .toList();
+            if (matches.isEmpty()) {
+                log.warn("No files match {}", input);
+            }
+            return matches;
+        }
+    }
+
+    private static int indexOfWildcard(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
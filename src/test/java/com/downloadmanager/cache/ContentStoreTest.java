@@ -0,0 +1,173 @@
+package com.downloadmanager.cache;
+
+import com.downloadmanager.config.ContentStoreProperties;
+import com.downloadmanager.model.RemoteFileInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentStoreTest {
+
+    private static final String URL = "https://cdn.example.com/a/file.bin";
+    private static final String ETAG = "\"abc123\"";
+
+    @TempDir
+    Path directory;
+
+    private ContentStore open(long maxSize, boolean hardLinks, boolean matchEtag) {
+        ContentStoreProperties properties = new ContentStoreProperties();
+        properties.setDirectory(directory.resolve("store").toString());
+        properties.setMaxSize(maxSize);
+        properties.setHardLinks(hardLinks);
+        properties.setMatchEtag(matchEtag);
+        return new ContentStore(properties);
+    }
+
+    private ContentStore open() {
+        return open(1024 * 1024, false, false);
+    }
+
+    private Path download(String name, String content) throws IOException {
+        Path file = directory.resolve("downloads").resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, content);
+    }
+
+    private static String hex(String algorithm, String content) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance(algorithm)
+                .digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void add(ContentStore store, String url, String etag, Path file)
+            throws IOException, NoSuchAlgorithmException {
+        store.add(url, etag, null, file, hex("SHA-256", Files.readString(file)), null);
+    }
+
+    private static RemoteFileInfo info(String etag, long size) {
+        return new RemoteFileInfo(size, true, etag, null);
+    }
+
+    @Test
+    void urlHitSurvivesRestartAndNeedsSameValidators() throws Exception {
+        ContentStore store = open();
+        add(store, URL, ETAG, download("file.bin", "0123456789"));
+        store.close();
+
+        ContentStore reopened = open();
+        Path stored = reopened.find(URL, null, info(ETAG, 10));
+
+        assertThat(stored).isNotNull();
+        assertThat(Files.readString(stored)).isEqualTo("0123456789");
+        assertThat(reopened.getSize()).isEqualTo(10);
+        assertThat(reopened.find(URL, null, info("\"changed\"", 10))).isNull();
+        assertThat(reopened.find(URL, null, info(ETAG, 11))).isNull();
+        assertThat(reopened.getHits()).isEqualTo(1);
+        assertThat(reopened.getMisses()).isEqualTo(2);
+    }
+
+    @Test
+    void restartCompactsIndexToLiveEntries() throws Exception {
+        ContentStore store = open();
+        Path file = download("file.bin", "0123456789");
+        for (int i = 0; i < 100; i++) {
+            add(store, URL, "\"v" + i + "\"", file);
+        }
+        store.close();
+        Path index = directory.resolve("store").resolve("index.bin");
+        long before = Files.size(index);
+
+        ContentStore reopened = open();
+
+        assertThat(Files.size(index)).isLessThan(before / 10);
+        assertThat(reopened.find(URL, null, info("\"v99\"", 10))).isNotNull();
+        assertThat(reopened.find(URL, null, info("\"v0\"", 10))).isNull();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxSize() throws Exception {
+        ContentStore store = open(25, false, false);
+        add(store, "https://example.com/a", ETAG, download("a", "aaaaaaaaaa"));
+        add(store, "https://example.com/b", ETAG, download("b", "bbbbbbbbbb"));
+        assertThat(store.find("https://example.com/a", null, info(ETAG, 10))).isNotNull();
+
+        add(store, "https://example.com/c", ETAG, download("c", "cccccccccc"));
+
+        assertThat(store.getEvictions()).isEqualTo(1);
+        assertThat(store.getSize()).isEqualTo(20);
+        assertThat(store.find("https://example.com/b", null, info(ETAG, 10))).isNull();
+        store.close();
+
+        ContentStore reopened = open(25, false, false);
+        assertThat(reopened.getSize()).isEqualTo(20);
+        assertThat(reopened.find("https://example.com/a", null, info(ETAG, 10))).isNotNull();
+        assertThat(reopened.find("https://example.com/b", null, info(ETAG, 10))).isNull();
+        assertThat(reopened.find("https://example.com/c", null, info(ETAG, 10))).isNotNull();
+    }
+
+    @Test
+    void materializeCopiesByDefault() throws Exception {
+        ContentStore store = open();
+        add(store, URL, ETAG, download("file.bin", "0123456789"));
+        Path stored = store.find(URL, null, info(ETAG, 10));
+        Path target = directory.resolve("downloads").resolve("copy.bin.part");
+
+        store.materialize(stored, target);
+
+        assertThat(Files.readString(target)).isEqualTo("0123456789");
+        assertThat(Files.isSameFile(target, stored)).isFalse();
+    }
+
+    @Test
+    void hardLinksShareDuplicateDownloadsAndUnshareBreaksTheLink() throws Exception {
+        ContentStore store = open(1024 * 1024, true, false);
+        Path first = download("first.bin", "0123456789");
+        Path second = download("second.bin", "0123456789");
+        add(store, URL, ETAG, first);
+        add(store, "https://other.example.com/file.bin", null, second);
+        assertThat(Files.isSameFile(first, second)).isTrue();
+
+        Path stored = store.find(URL, null, info(ETAG, 10));
+        Path part = directory.resolve("downloads").resolve("third.bin.part");
+        store.materialize(stored, part);
+        assertThat(Files.isSameFile(part, stored)).isTrue();
+
+        store.unshare(part);
+
+        assertThat(Files.isSameFile(part, stored)).isFalse();
+        assertThat(Files.readString(part)).isEqualTo("0123456789");
+    }
+
+    @Test
+    void etagUnderAnotherUrlNeedsSameHostAndConfirmingDigest() throws Exception {
+        ContentStore store = open(1024 * 1024, false, true);
+        add(store, URL, ETAG, download("file.bin", "0123456789"));
+        String otherPath = "https://cdn.example.com/b/file.bin";
+        String md5 = "md5:" + hex("MD5", "0123456789");
+
+        assertThat(store.find(otherPath, null, info(ETAG, 10))).isNull();
+        assertThat(store.find("https://mirror.example.org/a/file.bin", md5, info(ETAG, 10))).isNull();
+        assertThat(store.find(otherPath, "md5:" + hex("MD5", "9876543210"), info(ETAG, 10))).isNull();
+
+        assertThat(store.find(otherPath, md5, info(ETAG, 10))).isNotNull();
+        // The confirmed digest is remembered and found without the server's answer
+        assertThat(store.find("https://mirror.example.org/a/file.bin", md5, null)).isNotNull();
+    }
+
+    @Test
+    void etagUnderAnotherUrlIsIgnoredByDefault() throws Exception {
+        ContentStore store = open();
+        add(store, URL, ETAG, download("file.bin", "0123456789"));
+
+        String md5 = "md5:" + hex("MD5", "0123456789");
+        assertThat(store.find("https://cdn.example.com/b/file.bin", md5, info(ETAG, 10))).isNull();
+    }
+}
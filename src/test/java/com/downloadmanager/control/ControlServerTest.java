@@ -0,0 +1,25 @@
+package com.downloadmanager.control;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ControlServerTest {
+
+    @Test
+    void acceptsLoopbackHosts() {
+        assertThat(ControlServer.isLoopbackHost("127.0.0.1:9465")).isTrue();
+        assertThat(ControlServer.isLoopbackHost("localhost:9465")).isTrue();
+        assertThat(ControlServer.isLoopbackHost("LOCALHOST")).isTrue();
+        assertThat(ControlServer.isLoopbackHost("[::1]:9465")).isTrue();
+    }
+
+    @Test
+    void rejectsOtherHosts() {
+        assertThat(ControlServer.isLoopbackHost(null)).isFalse();
+        assertThat(ControlServer.isLoopbackHost("attacker.example:9465")).isFalse();
+        assertThat(ControlServer.isLoopbackHost("127.0.0.1.attacker.example")).isFalse();
+        assertThat(ControlServer.isLoopbackHost("localhost.attacker.example")).isFalse();
+        assertThat(ControlServer.isLoopbackHost("192.168.1.10:9465")).isFalse();
+    }
+}
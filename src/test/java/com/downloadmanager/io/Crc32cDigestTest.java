@@ -0,0 +1,71 @@
+package com.downloadmanager.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Crc32cDigestTest {
+
+    private static long crc(byte[] data, int from, int to) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, from, to - from);
+        return crc.getValue();
+    }
+
+    @Test
+    void matchesKnownCheckValue() {
+        Crc32cDigest digest = new Crc32cDigest();
+        digest.update(ByteBuffer.wrap("123456789".getBytes(StandardCharsets.US_ASCII)));
+
+        assertThat(digest.hex()).isEqualTo("e3069283");
+    }
+
+    @Test
+    void updateLeavesBufferPositionUnchanged() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        buffer.position(1);
+
+        new Crc32cDigest().update(buffer);
+
+        assertThat(buffer.position()).isEqualTo(1);
+    }
+
+    @Test
+    void combineEqualsCrcOfConcatenation() {
+        byte[] data = new byte[100_000];
+        new Random(42).nextBytes(data);
+        long whole = crc(data, 0, data.length);
+
+        for (int split : new int[]{1, 7, 4096, 65_537, data.length - 1}) {
+            long combined = Crc32cDigest.combine(crc(data, 0, split), crc(data, split, data.length), data.length - split);
+            assertThat(combined).as("split at %d", split).isEqualTo(whole);
+        }
+    }
+
+    @Test
+    void combineFoldsManySegmentsInOrder() {
+        byte[] data = new byte[1 << 20];
+        new Random(7).nextBytes(data);
+        int[] bounds = {0, 3, 1000, 250_000, 250_001, 800_000, data.length};
+
+        long combined = crc(data, 0, 0);
+        for (int i = 1; i < bounds.length; i++) {
+            combined = Crc32cDigest.combine(combined, crc(data, bounds[i - 1], bounds[i]), bounds[i] - bounds[i - 1]);
+        }
+
+        assertThat(combined).isEqualTo(crc(data, 0, data.length));
+    }
+
+    @Test
+    void combineWithEmptySecondRangeKeepsFirstCrc() {
+        byte[] data = "abc".getBytes(StandardCharsets.US_ASCII);
+        long first = crc(data, 0, data.length);
+
+        assertThat(Crc32cDigest.combine(first, crc(data, 0, 0), 0)).isEqualTo(first);
+    }
+}
@@ -0,0 +1,166 @@
+package com.downloadmanager.queue;
+
+import com.downloadmanager.model.DownloadTask;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DownloadSchedulerTest {
+
+    private static DownloadTask task(int id, String url, int priority, long size) {
+        DownloadTask task = new DownloadTask(id, url);
+        task.setPriority(priority);
+        if (size > 0) {
+            task.setFileSize(size);
+        }
+        return task;
+    }
+
+    private static List<Integer> takeAll(DownloadScheduler scheduler) throws InterruptedException {
+        List<Integer> ids = new ArrayList<>();
+        while (scheduler.size() > 0) {
+            ids.add(scheduler.take().getId());
+        }
+        return ids;
+    }
+
+    @Test
+    void strictPriorityTakesHighestPriorityFirstThenInOrderAdded() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(SchedulingPolicy.STRICT_PRIORITY, 10);
+        scheduler.put(task(1, "https://a.example.com/1", 0, 500));
+        scheduler.put(task(2, "https://a.example.com/2", 5, 100));
+        scheduler.put(task(3, "https://b.example.com/3", 0, 10));
+        scheduler.put(task(4, "https://b.example.com/4", 5, 900));
+
+        assertThat(takeAll(scheduler)).containsExactly(2, 4, 1, 3);
+    }
+
+    @Test
+    void shortestFirstOrdersBySizeWithinPriorityAndUnknownSizesLast() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(SchedulingPolicy.SHORTEST_FIRST, 10);
+        scheduler.put(task(1, "https://a.example.com/1", 0, 0));
+        scheduler.put(task(2, "https://a.example.com/2", 0, 900));
+        scheduler.put(task(3, "https://a.example.com/3", 0, 100));
+        scheduler.put(task(4, "https://a.example.com/4", 1, 5000));
+
+        assertThat(takeAll(scheduler)).containsExactly(4, 3, 2, 1);
+    }
+
+    @Test
+    void shortestFirstReordersOnExpectedSize() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(SchedulingPolicy.SHORTEST_FIRST, 10);
+        scheduler.put(task(1, "https://a.example.com/1", 0, 100));
+        scheduler.put(task(2, "https://a.example.com/2", 0, 0));
+
+        assertThat(scheduler.updateExpectedSize(2, 50)).isNotNull();
+
+        assertThat(takeAll(scheduler)).containsExactly(2, 1);
+    }
+
+    @Test
+    void fairShareServesHostWithFewestRunningDownloads() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(SchedulingPolicy.FAIR_SHARE, 10);
+        scheduler.put(task(1, "https://a.example.com/1", 0, 0));
+        scheduler.put(task(2, "https://a.example.com/2", 0, 0));
+        scheduler.put(task(3, "https://a.example.com/3", 9, 0));
+        scheduler.put(task(4, "https://b.example.com/4", 0, 0));
+
+        List<DownloadTask> hostA = new ArrayList<>();
+        hostA.add(scheduler.take());
+        assertThat(hostA.get(0).getId()).isEqualTo(3);
+        assertThat(scheduler.take().getId()).isEqualTo(4);
+        hostA.add(scheduler.take());
+        assertThat(hostA.get(1).getId()).isEqualTo(1);
+
+        // Host a runs two downloads, host b one
+        scheduler.put(task(5, "https://b.example.com/5", 0, 0));
+        assertThat(scheduler.take().getId()).isEqualTo(5);
+
+        // Both hosts run two downloads, and host a was served longer ago
+        scheduler.put(task(6, "https://b.example.com/6", 0, 0));
+        hostA.add(scheduler.take());
+        assertThat(hostA.get(2).getId()).isEqualTo(2);
+
+        // Host b is next in turn, but host a has nothing running anymore
+        for (DownloadTask task : hostA) {
+            scheduler.finished(task);
+        }
+        scheduler.put(task(7, "https://a.example.com/7", 0, 0));
+        assertThat(scheduler.take().getId()).isEqualTo(7);
+    }
+
+    @Test
+    void reprioritizeMovesQueuedTaskAhead() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(SchedulingPolicy.STRICT_PRIORITY, 10);
+        scheduler.put(task(1, "https://a.example.com/1", 0, 0));
+        scheduler.put(task(2, "https://a.example.com/2", 0, 0));
+        scheduler.put(task(3, "https://a.example.com/3", 0, 0));
+
+        assertThat(scheduler.reprioritize(3, 10).getPriority()).isEqualTo(10);
+        assertThat(scheduler.reprioritize(42, 10)).isNull();
+
+        assertThat(takeAll(scheduler)).containsExactly(3, 1, 2);
+    }
+
+    @Test
+    void pausedTaskIsSkippedUntilResumed() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(SchedulingPolicy.STRICT_PRIORITY, 10);
+        scheduler.put(task(1, "https://a.example.com/1", 5, 0));
+        scheduler.put(task(2, "https://a.example.com/2", 0, 0));
+
+        assertThat(scheduler.pause(1).getStatus()).isEqualTo(DownloadTask.Status.PAUSED);
+        assertThat(scheduler.take().getId()).isEqualTo(2);
+        assertThat(scheduler.size()).isEqualTo(1);
+
+        assertThat(scheduler.resume(1).getStatus()).isEqualTo(DownloadTask.Status.QUEUED);
+        assertThat(scheduler.take().getId()).isEqualTo(1);
+    }
+
+    @Test
+    void pausedTaskKeepsItsPlaceInTheCapacityButNotIdleWait() throws Exception {
+        DownloadScheduler scheduler = new DownloadScheduler(SchedulingPolicy.STRICT_PRIORITY, 1);
+        DownloadTask paused = task(1, "https://a.example.com/1", 0, 0);
+        paused.setStatus(DownloadTask.Status.PAUSED);
+        scheduler.put(paused);
+
+        // Paused tasks wait for a resume, so they do not keep the scheduler busy
+        CompletableFuture.runAsync(() -> {
+            try {
+                scheduler.awaitIdle();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(1, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+            try {
+                scheduler.put(task(2, "https://a.example.com/2", 0, 0));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertThat(blocked).isNotDone();
+
+        assertThat(scheduler.remove(1)).isSameAs(paused);
+        blocked.get(1, TimeUnit.SECONDS);
+        assertThat(scheduler.take().getId()).isEqualTo(2);
+    }
+
+    @Test
+    void updateByUrlFindsFirstQueuedTaskOfUrl() throws InterruptedException {
+        DownloadScheduler scheduler = new DownloadScheduler(SchedulingPolicy.STRICT_PRIORITY, 10);
+        scheduler.put(task(1, "https://a.example.com/1", 0, 0));
+        scheduler.put(task(2, "https://a.example.com/1", 0, 0));
+
+        assertThat(scheduler.update("https://a.example.com/1", task -> task.setPriority(3)).getId()).isEqualTo(1);
+        assertThat(scheduler.take().getId()).isEqualTo(1);
+        assertThat(scheduler.take().getId()).isEqualTo(2);
+        assertThat(scheduler.update("https://a.example.com/1", task -> task.setPriority(3))).isNull();
+    }
+}
@@ -0,0 +1,133 @@
+package com.downloadmanager.queue;
+
+import com.downloadmanager.model.DownloadTask;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JournalQueueStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private JournalQueueStore open(Path log) {
+        return new JournalQueueStore(log, Duration.ofMillis(5), 64);
+    }
+
+    private static DownloadTask addTask(JournalQueueStore store, String url) {
+        DownloadTask task = new DownloadTask(store.nextId(), url);
+        store.add(task);
+        return task;
+    }
+
+    private static Map<String, DownloadTask> byUrl(List<DownloadTask> tasks) {
+        return tasks.stream().collect(Collectors.toMap(DownloadTask::getUrl, Function.identity()));
+    }
+
+    @Test
+    void replayRecoversUnfinishedTasksWithTheirSettings() {
+        Path log = directory.resolve("queue.log");
+        JournalQueueStore store = open(log);
+        DownloadTask queued = new DownloadTask(store.nextId(), "https://example.com/a.bin");
+        queued.setMirrors(List.of("https://mirror.example.com/a.bin"));
+        queued.setExpectedDigest("sha256:abcd");
+        store.add(queued);
+        DownloadTask running = addTask(store, "https://example.com/b.bin");
+        running.setStatus(DownloadTask.Status.DOWNLOADING);
+        store.updateStatus(running);
+        DownloadTask paused = addTask(store, "https://example.com/c.bin");
+        paused.setPriority(5);
+        store.updatePriority(paused);
+        paused.setStatus(DownloadTask.Status.PAUSED);
+        store.updateStatus(paused);
+        DownloadTask completed = addTask(store, "https://example.com/d.bin");
+        completed.setStatus(DownloadTask.Status.COMPLETED);
+        store.updateStatus(completed);
+        store.close();
+
+        JournalQueueStore reopened = open(log);
+        Map<String, DownloadTask> recovered = byUrl(reopened.recover());
+        reopened.close();
+
+        assertThat(recovered).containsOnlyKeys("https://example.com/a.bin", "https://example.com/b.bin",
+                "https://example.com/c.bin");
+        DownloadTask a = recovered.get("https://example.com/a.bin");
+        assertThat(a.getId()).isEqualTo(queued.getId());
+        assertThat(a.getMirrors()).containsExactly("https://mirror.example.com/a.bin");
+        assertThat(a.getExpectedDigest()).isEqualTo("sha256:abcd");
+        // A download cut short by the restart is queued again
+        assertThat(recovered.get("https://example.com/b.bin").getStatus()).isEqualTo(DownloadTask.Status.QUEUED);
+        DownloadTask c = recovered.get("https://example.com/c.bin");
+        assertThat(c.getStatus()).isEqualTo(DownloadTask.Status.PAUSED);
+        assertThat(c.getPriority()).isEqualTo(5);
+    }
+
+    @Test
+    void idsStayUniqueAcrossRestarts() {
+        Path log = directory.resolve("queue.log");
+        JournalQueueStore store = open(log);
+        int first = store.nextId();
+        int second = store.nextId();
+        store.close();
+
+        JournalQueueStore reopened = open(log);
+        int third = reopened.nextId();
+        reopened.close();
+
+        assertThat(second).isGreaterThan(first);
+        assertThat(third).isGreaterThan(second);
+    }
+
+    @Test
+    void replaySkipsTornLastRecord() throws IOException {
+        Path log = directory.resolve("queue.log");
+        JournalQueueStore store = open(log);
+        addTask(store, "https://example.com/a.bin");
+        store.close();
+        Files.writeString(log, "A 12", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        JournalQueueStore reopened = open(log);
+        List<DownloadTask> recovered = reopened.recover();
+        reopened.close();
+
+        assertThat(recovered).extracting(DownloadTask::getUrl).containsExactly("https://example.com/a.bin");
+    }
+
+    @Test
+    void startupCompactionKeepsOnlyUnfinishedTasks() throws IOException {
+        Path log = directory.resolve("queue.log");
+        JournalQueueStore store = open(log);
+        DownloadTask kept = addTask(store, "https://example.com/kept.bin");
+        for (int i = 0; i < 50; i++) {
+            DownloadTask done = addTask(store, "https://example.com/done-" + i + ".bin");
+            done.setStatus(DownloadTask.Status.COMPLETED);
+            store.updateStatus(done);
+        }
+        store.close();
+
+        JournalQueueStore reopened = open(log);
+        reopened.close();
+        List<String> records = Files.readAllLines(log, StandardCharsets.UTF_8);
+
+        assertThat(records).containsExactly(records.get(0), "A " + kept.getId() + " https://example.com/kept.bin");
+        assertThat(records.get(0)).startsWith("R ");
+        assertThat(Files.exists(directory.resolve("queue.log.compact"))).isFalse();
+
+        JournalQueueStore again = open(log);
+        List<DownloadTask> recovered = again.recover();
+        again.close();
+        assertThat(recovered).extracting(DownloadTask::getId).containsExactly(kept.getId());
+    }
+}
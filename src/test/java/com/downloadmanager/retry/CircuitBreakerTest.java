@@ -0,0 +1,94 @@
+package com.downloadmanager.retry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_NANOS);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        return breaker;
+    }
+
+    private static long afterOpenDuration() {
+        return System.nanoTime() + OPEN_NANOS;
+    }
+
+    @Test
+    void opensAfterThresholdOfConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_NANOS);
+
+        assertThat(breaker.onFailure()).isFalse();
+        assertThat(breaker.onFailure()).isFalse();
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.onFailure()).isTrue();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void successResetsConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_NANOS);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void letsOneTrialThroughAfterOpenDuration() {
+        CircuitBreaker breaker = openBreaker();
+        long later = afterOpenDuration();
+
+        assertThat(breaker.tryAcquire(later)).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire(later)).isFalse();
+    }
+
+    @Test
+    void successfulTrialClosesCircuit() {
+        CircuitBreaker breaker = openBreaker();
+        breaker.tryAcquire(afterOpenDuration());
+
+        breaker.onSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void failedTrialOpensCircuitAgain() {
+        CircuitBreaker breaker = openBreaker();
+        breaker.tryAcquire(afterOpenDuration());
+
+        assertThat(breaker.onFailure()).isTrue();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void ignoredTrialGivesSlotBack() {
+        CircuitBreaker breaker = openBreaker();
+        long later = afterOpenDuration();
+        breaker.tryAcquire(later);
+
+        breaker.onIgnored();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire(later)).isTrue();
+    }
+}
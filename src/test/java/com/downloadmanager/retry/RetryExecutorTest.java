@@ -0,0 +1,89 @@
+package com.downloadmanager.retry;
+
+import com.downloadmanager.config.RetryProperties;
+import com.downloadmanager.metrics.DownloadMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RetryExecutorTest {
+
+    private static final String HOST = "example.com";
+
+    private static RetryExecutor retryExecutor(int maxAttempts, int failureThreshold, Duration openDuration) {
+        RetryProperties properties = new RetryProperties();
+        properties.setMaxAttempts(maxAttempts);
+        properties.setInitialBackoff(Duration.ofMillis(1));
+        properties.setMaxBackoff(Duration.ofMillis(1));
+        properties.getCircuitBreaker().setFailureThreshold(failureThreshold);
+        properties.getCircuitBreaker().setOpenDuration(openDuration);
+        return new RetryExecutor(properties, new DownloadMetrics(new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void retriesRetryableFailuresUntilSuccess() throws IOException {
+        RetryExecutor retryExecutor = retryExecutor(5, 10, Duration.ofSeconds(30));
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = retryExecutor.execute(HOST, attempt -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new ConnectException("refused");
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(attempts).hasValue(3);
+        assertThat(retryExecutor.getState(HOST)).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void doesNotRetryFatalFailures() {
+        RetryExecutor retryExecutor = retryExecutor(5, 10, Duration.ofSeconds(30));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> retryExecutor.execute(HOST, attempt -> {
+            attempts.incrementAndGet();
+            throw new HttpStatusException("404 Not Found", 404, 0);
+        })).isInstanceOf(HttpStatusException.class);
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void repeatedHostFailuresOpenCircuit() {
+        RetryExecutor retryExecutor = retryExecutor(2, 2, Duration.ofSeconds(30));
+
+        assertThatThrownBy(() -> retryExecutor.execute(HOST, attempt -> {
+            throw new ConnectException("refused");
+        })).isInstanceOf(ConnectException.class);
+
+        assertThat(retryExecutor.getState(HOST)).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThatThrownBy(() -> retryExecutor.execute(HOST, attempt -> "never"))
+                .isInstanceOf(CircuitOpenException.class);
+    }
+
+    @Test
+    void uncheckedExceptionInTrialDoesNotLeaveCircuitStuck() throws IOException {
+        RetryExecutor retryExecutor = retryExecutor(1, 1, Duration.ZERO);
+        assertThatThrownBy(() -> retryExecutor.execute(HOST, attempt -> {
+            throw new ConnectException("refused");
+        })).isInstanceOf(ConnectException.class);
+        assertThat(retryExecutor.getState(HOST)).isEqualTo(CircuitBreaker.State.OPEN);
+
+        // The trial call fails in the caller, before the host says anything
+        assertThatThrownBy(() -> retryExecutor.execute(HOST, attempt -> {
+            throw new IllegalArgumentException("malformed digest");
+        })).isInstanceOf(IllegalArgumentException.class);
+
+        String result = retryExecutor.execute(HOST, attempt -> "ok");
+        assertThat(result).isEqualTo("ok");
+        assertThat(retryExecutor.getState(HOST)).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+}
@@ -0,0 +1,165 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.config.FetchProperties;
+import com.downloadmanager.config.RetryProperties;
+import com.downloadmanager.metrics.DownloadMetrics;
+import com.downloadmanager.model.FetchDataItems;
+import com.downloadmanager.retry.RetryExecutor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DataItemsFetchServiceTest {
+
+    private static final String URL = "https://api.example.com/items";
+
+    /**
+     * Answers page requests without a network: the first attempt of each page
+     * in {@code failingPages} gets a 503, every other attempt a page after
+     * {@code latency}.
+     */
+    private static OkHttpClient client(List<Long> failingPages, Duration latency) {
+        Map<Long, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        return new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    Request request = chain.request();
+                    long page = Long.parseLong(request.url().queryParameter(DataCountFetchService.PAGE_PARAMETER));
+                    int attempt = attempts.computeIfAbsent(page, p -> new AtomicInteger()).incrementAndGet();
+                    Response.Builder response = new Response.Builder()
+                            .request(request)
+                            .protocol(Protocol.HTTP_1_1);
+                    if (attempt == 1 && failingPages.contains(page)) {
+                        return response.code(503).message("Service Unavailable")
+                                .body(ResponseBody.create("", null))
+                                .build();
+                    }
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(latency.toMillis());
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("cancelled");
+                    }
+                    return response.code(200).message("OK")
+                            .body(ResponseBody.create("[" + page + "]", MediaType.get("application/json")))
+                            .build();
+                })
+                .build();
+    }
+
+    private static DataItemsFetchService service(OkHttpClient client, int parallelism,
+                                                 Duration backoff, int failureThreshold) {
+        FetchProperties fetchProperties = new FetchProperties();
+        fetchProperties.setPageParallelism(parallelism);
+        RetryProperties retryProperties = new RetryProperties();
+        retryProperties.setMaxAttempts(5);
+        retryProperties.setInitialBackoff(backoff);
+        retryProperties.setMaxBackoff(backoff);
+        retryProperties.getCircuitBreaker().setFailureThreshold(failureThreshold);
+        retryProperties.getCircuitBreaker().setOpenDuration(Duration.ZERO);
+        RetryExecutor retryExecutor = new RetryExecutor(retryProperties, new DownloadMetrics(new SimpleMeterRegistry()));
+        return new DataItemsFetchService(client, new ObjectMapper(), fetchProperties, retryExecutor);
+    }
+
+    private static FetchDataItems job(long lastPage) {
+        FetchDataItems job = new FetchDataItems();
+        job.setId("job-1");
+        job.setOrg("org");
+        job.setUrl(URL);
+        job.setLastPage(lastPage);
+        return job;
+    }
+
+    @Test
+    void dueRetryWaitsForFreeSlotWithoutSpinning() throws IOException {
+        // Page 1 fails at once; its retry comes due while pages 2 and 3 fill both slots
+        DataItemsFetchService service = service(client(List.of(1L), Duration.ofMillis(600)), 2,
+                Duration.ofMillis(50), 100);
+        List<Long> delivered = new CopyOnWriteArrayList<>();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long cpuBefore = threads.getCurrentThreadCpuTime();
+        service.fetch(job(3), (page, body) -> delivered.add(page));
+        long cpuNanos = threads.getCurrentThreadCpuTime() - cpuBefore;
+
+        assertThat(delivered).containsExactly(1L, 2L, 3L);
+        assertThat(cpuNanos).isLessThan(TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    @Test
+    void pageRejectedByHalfOpenCircuitWaitsForTrial() throws IOException {
+        // The first 503 opens the circuit; one retry becomes the trial and the other is rejected
+        DataItemsFetchService service = service(client(List.of(1L, 2L), Duration.ofMillis(200)), 3,
+                Duration.ofMillis(1), 1);
+        List<Long> delivered = new CopyOnWriteArrayList<>();
+
+        service.fetch(job(3), (page, body) -> delivered.add(page));
+
+        assertThat(delivered).containsExactly(1L, 2L, 3L);
+    }
+
+    @Test
+    void streamedPageThatBreaksOffIsNotEmittedTwice() throws IOException {
+        // The first response for page 1 ends after two of its three items
+        AtomicBoolean brokenOnce = new AtomicBoolean();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    Request request = chain.request();
+                    long page = Long.parseLong(request.url().queryParameter(DataCountFetchService.PAGE_PARAMETER));
+                    String json = "[" + page + "0," + page + "1," + page + "2]";
+                    ResponseBody body = ResponseBody.create(json, MediaType.get("application/json"));
+                    if (page == 1 && brokenOnce.compareAndSet(false, true)) {
+                        Buffer prefix = new Buffer().writeUtf8("[10,11,");
+                        body = ResponseBody.create(Okio.buffer(new ForwardingSource(prefix) {
+                            @Override
+                            public long read(Buffer sink, long byteCount) throws IOException {
+                                long read = super.read(sink, byteCount);
+                                if (read == -1) {
+                                    throw new EOFException("unexpected end of stream");
+                                }
+                                return read;
+                            }
+                        }), MediaType.get("application/json"), json.length());
+                    }
+                    return new Response.Builder()
+                            .request(request)
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200).message("OK")
+                            .body(body)
+                            .build();
+                })
+                .build();
+        DataItemsFetchService service = service(client, 1, Duration.ofMillis(1), 100);
+        List<Integer> items = new CopyOnWriteArrayList<>();
+        FetchDataItems job = job(2);
+
+        service.fetch(job, item -> items.add(item.asInt()));
+
+        assertThat(brokenOnce).isTrue();
+        assertThat(items).containsExactly(10, 11, 12, 20, 21, 22);
+        assertThat(job.getItemCount()).isEqualTo(6);
+    }
+}
@@ -0,0 +1,22 @@
+package com.downloadmanager.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MirrorDownloaderTest {
+
+    @Test
+    void parsesContentRange() {
+        assertThat(MirrorDownloader.parseContentRange("bytes 0-499/1234")).containsExactly(0, 499, 1234);
+        assertThat(MirrorDownloader.parseContentRange("bytes 500-999/*")).containsExactly(500, 999, -1);
+    }
+
+    @Test
+    void rejectsMissingOrMalformedContentRange() {
+        assertThat(MirrorDownloader.parseContentRange(null)).isNull();
+        assertThat(MirrorDownloader.parseContentRange("bytes */1234")).isNull();
+        assertThat(MirrorDownloader.parseContentRange("items 0-1/2")).isNull();
+        assertThat(MirrorDownloader.parseContentRange("bytes 0-x/2")).isNull();
+    }
+}
@@ -0,0 +1,129 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.model.RemoteFileInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PartFileJournalTest {
+
+    private static final String URL = "https://example.com/file.bin";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void addRangeMergesOverlappingAndAdjacentRanges() {
+        PartFileJournal journal = PartFileJournal.open(directory.resolve("file.bin"), URL);
+
+        journal.addRange(100, 199);
+        journal.addRange(0, 49);
+        journal.addRange(300, 399);
+        journal.addRange(50, 99);
+        journal.addRange(350, 449);
+
+        assertThat(journal.completedRanges()).containsExactly(new long[]{0, 199}, new long[]{300, 449});
+        assertThat(journal.completedBytes()).isEqualTo(350);
+        assertThat(journal.completedPrefix()).isEqualTo(200);
+    }
+
+    @Test
+    void addRangeSpanningSeveralRangesMergesThemAll() {
+        PartFileJournal journal = PartFileJournal.open(directory.resolve("file.bin"), URL);
+
+        journal.addRange(10, 19);
+        journal.addRange(30, 39);
+        journal.addRange(50, 59);
+        journal.addRange(15, 52);
+
+        assertThat(journal.completedRanges()).containsExactly(new long[]{10, 59});
+        assertThat(journal.completedPrefix()).isZero();
+    }
+
+    @Test
+    void addRangeIgnoresEmptyRange() {
+        PartFileJournal journal = PartFileJournal.open(directory.resolve("file.bin"), URL);
+
+        journal.addRange(10, 9);
+
+        assertThat(journal.completedRanges()).isEmpty();
+    }
+
+    @Test
+    void missingRangesReturnsGapsWithinBounds() {
+        PartFileJournal journal = PartFileJournal.open(directory.resolve("file.bin"), URL);
+        journal.addRange(0, 99);
+        journal.addRange(200, 299);
+        journal.addRange(500, 599);
+
+        List<long[]> missing = journal.missingRanges(50, 549);
+
+        assertThat(missing).containsExactly(new long[]{100, 199}, new long[]{300, 499});
+    }
+
+    @Test
+    void missingRangesOfEmptyJournalIsWholeRange() {
+        PartFileJournal journal = PartFileJournal.open(directory.resolve("file.bin"), URL);
+
+        assertThat(journal.missingRanges(0, 999)).containsExactly(new long[]{0, 999});
+    }
+
+    @Test
+    void missingRangesOfCompletedRangeIsEmpty() {
+        PartFileJournal journal = PartFileJournal.open(directory.resolve("file.bin"), URL);
+        journal.addRange(0, 999);
+
+        assertThat(journal.missingRanges(100, 899)).isEmpty();
+    }
+
+    @Test
+    void savedJournalIsResumedForSameUrlOnly() throws IOException {
+        Path target = directory.resolve("file.bin");
+        Files.createFile(PartFileJournal.partPath(target));
+        PartFileJournal journal = PartFileJournal.open(target, URL);
+        journal.setValidators("\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT");
+        journal.setContentLength(1000);
+        journal.addRange(0, 99);
+        journal.addRange(500, 599);
+        journal.save();
+
+        PartFileJournal resumed = PartFileJournal.open(target, URL);
+
+        assertThat(resumed.completedRanges()).containsExactly(new long[]{0, 99}, new long[]{500, 599});
+        assertThat(resumed.getEtag()).isEqualTo("\"v1\"");
+        assertThat(resumed.getContentLength()).isEqualTo(1000);
+        assertThat(PartFileJournal.canResume(target, "https://example.com/other.bin")).isFalse();
+        assertThat(PartFileJournal.open(target, "https://example.com/other.bin").completedRanges()).isEmpty();
+        assertThat(Files.exists(directory.resolve("file.bin.part.journal.tmp"))).isFalse();
+    }
+
+    @Test
+    void validateDropsRangesWhenRemoteFileChanged() throws IOException {
+        Path target = directory.resolve("file.bin");
+        PartFileJournal journal = PartFileJournal.open(target, URL);
+        journal.validate(new RemoteFileInfo(1000, true, "\"v1\"", null));
+        journal.addRange(0, 99);
+
+        assertThat(journal.validate(new RemoteFileInfo(1000, true, "\"v1\"", null))).isTrue();
+        assertThat(journal.completedBytes()).isEqualTo(100);
+        assertThat(journal.validate(new RemoteFileInfo(1000, true, "\"v2\"", null))).isFalse();
+        assertThat(journal.completedRanges()).isEmpty();
+        assertThat(journal.ifRangeValidator()).isEqualTo("\"v2\"");
+    }
+
+    @Test
+    void ifRangeValidatorSkipsWeakEtag() {
+        PartFileJournal journal = PartFileJournal.open(directory.resolve("file.bin"), URL);
+
+        journal.setValidators("W/\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT");
+        assertThat(journal.ifRangeValidator()).isEqualTo("Mon, 01 Jan 2024 00:00:00 GMT");
+        journal.setValidators("W/\"v1\"", null);
+        assertThat(journal.ifRangeValidator()).isNull();
+    }
+}
@@ -0,0 +1,61 @@
+package com.downloadmanager.service;
+
+import com.downloadmanager.io.DigestAlgorithm;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PrefixHasherTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void hashesRangesWrittenOutOfOrder() throws IOException, NoSuchAlgorithmException {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        Path file = directory.resolve("file.bin.part");
+        Files.write(file, content);
+        PrefixHasher hasher = new PrefixHasher(file, DigestAlgorithm.SHA_256.newDigest());
+
+        hasher.written(2_000_000, 3_000_000);
+        hasher.written(0, 1_000_000);
+        hasher.written(500_000, 2_000_000);
+        // Past the prefix until the middle range arrived
+        hasher.written(3_000_000, content.length);
+
+        String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        assertThat(hasher.finish(content.length)).isEqualTo(expected);
+    }
+
+    @Test
+    void finishHashesWhatWasNeverReported() throws IOException, NoSuchAlgorithmException {
+        byte[] content = "hello, world".getBytes();
+        Path file = directory.resolve("file.bin.part");
+        Files.write(file, content);
+        PrefixHasher hasher = new PrefixHasher(file, DigestAlgorithm.SHA_256.newDigest());
+
+        hasher.written(7, content.length);
+
+        String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        assertThat(hasher.finish(content.length)).isEqualTo(expected);
+    }
+
+    @Test
+    void finishReportsReadFailure() {
+        PrefixHasher hasher = new PrefixHasher(directory.resolve("missing.part"), DigestAlgorithm.SHA_256.newDigest());
+
+        assertThatThrownBy(() -> hasher.finish(10)).isInstanceOf(NoSuchFileException.class);
+    }
+}